@@ -8,6 +8,10 @@ import java.util.Objects;
  * Represents a request to be notified when a particular flight has some number of seats available in a particular class.
  *
  * Note: You don't need to set the user id from the client-side. The server can set this on authentication.
+ *
+ * If waitlist is set, the subscription joins a first-come-first-served waitlist for the flight instead: when seats
+ * become available, they're held for the first matching waitlisted subscriber for a short time, and nobody else can
+ * book them until the hold expires. The notification then says when the hold expires.
  */
 public class AvailableSeatsSubscriptionDTO {
 
@@ -15,6 +19,7 @@ public class AvailableSeatsSubscriptionDTO {
     private CabinClass cabinClass;
     private int numSeats;
     private Long userId;
+    private boolean waitlist;
 
     public AvailableSeatsSubscriptionDTO() {
     }
@@ -25,6 +30,11 @@ public class AvailableSeatsSubscriptionDTO {
         this.numSeats = numSeats;
     }
 
+    public AvailableSeatsSubscriptionDTO(long flightId, CabinClass cabinClass, int numSeats, boolean waitlist) {
+        this(flightId, cabinClass, numSeats);
+        this.waitlist = waitlist;
+    }
+
     public long getFlightId() {
         return flightId;
     }
@@ -57,16 +67,24 @@ public class AvailableSeatsSubscriptionDTO {
         this.userId = userId;
     }
 
+    public boolean isWaitlist() {
+        return waitlist;
+    }
+
+    public void setWaitlist(boolean waitlist) {
+        this.waitlist = waitlist;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         AvailableSeatsSubscriptionDTO that = (AvailableSeatsSubscriptionDTO) o;
-        return flightId == that.flightId && numSeats == that.numSeats && cabinClass == that.cabinClass && Objects.equals(userId, that.userId);
+        return flightId == that.flightId && numSeats == that.numSeats && waitlist == that.waitlist && cabinClass == that.cabinClass && Objects.equals(userId, that.userId);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(flightId, cabinClass, numSeats, userId);
+        return Objects.hash(flightId, cabinClass, numSeats, userId, waitlist);
     }
 }
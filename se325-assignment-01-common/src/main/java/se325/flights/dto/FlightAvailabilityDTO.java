@@ -0,0 +1,52 @@
+package se325.flights.dto;
+
+import se325.flights.CabinClass;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DTO summarising the availability of a single flight: the number of unbooked seats, and the price per seat, for
+ * each cabin class on that flight. Intended for displaying availability alongside many flights at once, e.g. on a page
+ * of search results. A cabin class which is sold out has 0 seats remaining; if the number of seats remaining isn't
+ * known, seatsRemaining is null.
+ */
+public class FlightAvailabilityDTO {
+
+    private long flightId;
+    private Map<CabinClass, Integer> seatsRemaining = new HashMap<>();
+    private Map<CabinClass, Integer> pricingInfo = new HashMap<>();
+
+    public FlightAvailabilityDTO() {
+    }
+
+    public FlightAvailabilityDTO(long flightId, Map<CabinClass, Integer> seatsRemaining, Map<CabinClass, Integer> pricingInfo) {
+        this.flightId = flightId;
+        this.seatsRemaining = seatsRemaining == null ? null : new HashMap<>(seatsRemaining);
+        this.pricingInfo = new HashMap<>(pricingInfo);
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public void setFlightId(long flightId) {
+        this.flightId = flightId;
+    }
+
+    public Map<CabinClass, Integer> getSeatsRemaining() {
+        return seatsRemaining;
+    }
+
+    public void setSeatsRemaining(Map<CabinClass, Integer> seatsRemaining) {
+        this.seatsRemaining = seatsRemaining;
+    }
+
+    public Map<CabinClass, Integer> getPricingInfo() {
+        return pricingInfo;
+    }
+
+    public void setPricingInfo(Map<CabinClass, Integer> pricingInfo) {
+        this.pricingInfo = pricingInfo;
+    }
+}
@@ -0,0 +1,52 @@
+package se325.flights.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A DTO containing a ready-to-render seat map for a flight. The map is a grid, with one column per seat letter (see
+ * {@link #getLetters()}) and one {@link SeatMapRowDTO} per row of seats. Each row describes the status of each of its
+ * cells using the status characters defined on {@link SeatMapRowDTO}.
+ */
+public class SeatMapDTO {
+
+    private AircraftTypeDTO aircraftType;
+    private String letters;
+    private List<SeatMapRowDTO> rows = new ArrayList<>();
+
+    public SeatMapDTO() {
+    }
+
+    public SeatMapDTO(AircraftTypeDTO aircraftType, String letters, List<SeatMapRowDTO> rows) {
+        this.aircraftType = aircraftType;
+        this.letters = letters;
+        this.rows = rows;
+    }
+
+    public AircraftTypeDTO getAircraftType() {
+        return aircraftType;
+    }
+
+    public void setAircraftType(AircraftTypeDTO aircraftType) {
+        this.aircraftType = aircraftType;
+    }
+
+    /**
+     * Gets the seat letters for each column of the grid, in order. For example, "ABCDEFHJK".
+     */
+    public String getLetters() {
+        return letters;
+    }
+
+    public void setLetters(String letters) {
+        this.letters = letters;
+    }
+
+    public List<SeatMapRowDTO> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<SeatMapRowDTO> rows) {
+        this.rows = rows;
+    }
+}
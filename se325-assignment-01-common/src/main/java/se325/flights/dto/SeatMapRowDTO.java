@@ -0,0 +1,64 @@
+package se325.flights.dto;
+
+import se325.flights.CabinClass;
+
+/**
+ * Represents a single row of a {@link SeatMapDTO}. All seats in a row share a cabin class and price.
+ * <p>
+ * The status of each cell in the row is given by {@link #getSeats()}, which contains one character per column of the
+ * seat map: {@link #AVAILABLE} for a seat which can be booked, {@link #BOOKED} for a seat which has already been
+ * booked, or {@link #NO_SEAT} where there's no seat with that letter in this row (e.g. an aisle).
+ */
+public class SeatMapRowDTO {
+
+    public static final char AVAILABLE = 'O';
+    public static final char BOOKED = 'X';
+    public static final char NO_SEAT = '-';
+
+    private int rowNumber;
+    private CabinClass cabinClass;
+    private int price;
+    private String seats;
+
+    public SeatMapRowDTO() {
+    }
+
+    public SeatMapRowDTO(int rowNumber, CabinClass cabinClass, int price, String seats) {
+        this.rowNumber = rowNumber;
+        this.cabinClass = cabinClass;
+        this.price = price;
+        this.seats = seats;
+    }
+
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    public void setRowNumber(int rowNumber) {
+        this.rowNumber = rowNumber;
+    }
+
+    public CabinClass getCabinClass() {
+        return cabinClass;
+    }
+
+    public void setCabinClass(CabinClass cabinClass) {
+        this.cabinClass = cabinClass;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public void setPrice(int price) {
+        this.price = price;
+    }
+
+    public String getSeats() {
+        return seats;
+    }
+
+    public void setSeats(String seats) {
+        this.seats = seats;
+    }
+}
@@ -0,0 +1,89 @@
+package se325.flights.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import se325.flights.CabinClass;
+import se325.flights.jackson.ZonedDateTimeDeserializer;
+import se325.flights.jackson.ZonedDateTimeSerializer;
+
+import java.time.ZonedDateTime;
+
+/**
+ * A message sent over the subscription WebSocket, giving the status of one of the connection's subscriptions. Each
+ * {@link AvailableSeatsSubscriptionDTO} sent by the client is first acknowledged with a 202 Accepted status and the new
+ * subscription's id, and later resolved with the same HTTP status codes as the long-polling subscription endpoint
+ * (e.g. 204 No Content once the seats are available, or 404 Not Found if there's no such flight).
+ * <p>
+ * If a subscription request can't be accepted at all (e.g. it can't be parsed), the subscription id will be null. If
+ * seats have been held for a waitlisted subscription, holdExpiresAt says until when.
+ */
+public class SubscriptionStatusDTO {
+
+    private Long subscriptionId;
+    private int status;
+    private long flightId;
+    private CabinClass cabinClass;
+    private int numSeats;
+    private ZonedDateTime holdExpiresAt;
+
+    public SubscriptionStatusDTO() {
+    }
+
+    public SubscriptionStatusDTO(Long subscriptionId, int status, long flightId, CabinClass cabinClass, int numSeats) {
+        this.subscriptionId = subscriptionId;
+        this.status = status;
+        this.flightId = flightId;
+        this.cabinClass = cabinClass;
+        this.numSeats = numSeats;
+    }
+
+    public Long getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(Long subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public long getFlightId() {
+        return flightId;
+    }
+
+    public void setFlightId(long flightId) {
+        this.flightId = flightId;
+    }
+
+    public CabinClass getCabinClass() {
+        return cabinClass;
+    }
+
+    public void setCabinClass(CabinClass cabinClass) {
+        this.cabinClass = cabinClass;
+    }
+
+    public int getNumSeats() {
+        return numSeats;
+    }
+
+    public void setNumSeats(int numSeats) {
+        this.numSeats = numSeats;
+    }
+
+    @JsonSerialize(using = ZonedDateTimeSerializer.class)
+    @JsonDeserialize(using = ZonedDateTimeDeserializer.class)
+    public ZonedDateTime getHoldExpiresAt() {
+        return holdExpiresAt;
+    }
+
+    public void setHoldExpiresAt(ZonedDateTime holdExpiresAt) {
+        this.holdExpiresAt = holdExpiresAt;
+    }
+}
@@ -0,0 +1,163 @@
+package se325.flights.datagen;
+
+import se325.flights.CabinClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The seating layout of a type of aircraft, as seating zones in the same form as the service's {@code SeatingZone}:
+ * a cabin class, a starting row number, a number of rows, and the letters of the seats in each row. Every seat on the
+ * aircraft is numbered from zero, zone by zone, so that seats can be picked at random.
+ */
+final class AircraftLayout {
+
+    /**
+     * The layouts of the aircraft flown, in id order. The first two are those in the service's default seed data.
+     */
+    static final List<AircraftLayout> ALL = List.of(
+            new AircraftLayout(1, "787-9 Dreamliner", true)
+                    .zone(CabinClass.Business, 1, 6, "AJK")
+                    .zone(CabinClass.Premium, 23, 3, "ABDEFJK")
+                    .zone(CabinClass.Economy, 34, 1, "JK")
+                    .zone(CabinClass.Economy, 35, 15, "ABCDEFHJK")
+                    .zone(CabinClass.Economy, 50, 2, "ABCHJK")
+                    .zone(CabinClass.Economy, 52, 12, "ABCDEFHJK")
+                    .zone(CabinClass.Economy, 64, 2, "DEF"),
+            new AircraftLayout(2, "777-200ER", true)
+                    .zone(CabinClass.Business, 11, 2, "ADFK")
+                    .zone(CabinClass.Business, 14, 4, "ADFK")
+                    .zone(CabinClass.Business, 18, 1, "DF")
+                    .zone(CabinClass.Economy, 31, 16, "ABCDEGHJK")
+                    .zone(CabinClass.Economy, 47, 1, "ACDEGHK")
+                    .zone(CabinClass.Economy, 48, 2, "AC")
+                    .zone(CabinClass.Economy, 50, 10, "ABCDEGHJK"),
+            new AircraftLayout(3, "A320neo", false)
+                    .zone(CabinClass.Business, 1, 3, "ACDF")
+                    .zone(CabinClass.Economy, 4, 27, "ABCDEF"),
+            new AircraftLayout(4, "737-800", false)
+                    .zone(CabinClass.Business, 1, 2, "ACDF")
+                    .zone(CabinClass.Economy, 3, 29, "ABCDEF"),
+            new AircraftLayout(5, "A380-800", true)
+                    .zone(CabinClass.FirstClass, 1, 3, "AEFK")
+                    .zone(CabinClass.Business, 11, 14, "ADFK")
+                    .zone(CabinClass.Premium, 31, 4, "ABCDEFGHJK")
+                    .zone(CabinClass.Economy, 35, 46, "ABCDEFGHJK"));
+
+    private final long id;
+    private final String name;
+    private final boolean wideBody;
+    private final List<Zone> zones = new ArrayList<>();
+    private final Map<CabinClass, Integer> seatCounts = new EnumMap<>(CabinClass.class);
+    private int numSeats;
+
+    private AircraftLayout(long id, String name, boolean wideBody) {
+        this.id = id;
+        this.name = name;
+        this.wideBody = wideBody;
+    }
+
+    private AircraftLayout zone(CabinClass cabinClass, int startingRowNumber, int numRows, String seatCodeData) {
+        Zone zone = new Zone(cabinClass, startingRowNumber, numRows, seatCodeData, numSeats);
+        zones.add(zone);
+        numSeats += numRows * seatCodeData.length();
+        seatCounts.merge(cabinClass, numRows * seatCodeData.length(), Integer::sum);
+        return this;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets a value indicating whether this is a long-haul aircraft, with two aisles.
+     */
+    boolean isWideBody() {
+        return wideBody;
+    }
+
+    List<Zone> getZones() {
+        return Collections.unmodifiableList(zones);
+    }
+
+    int getNumSeats() {
+        return numSeats;
+    }
+
+    /**
+     * Gets the number of seats in each cabin class on the aircraft. Cabin classes it doesn't have aren't included.
+     */
+    Map<CabinClass, Integer> getSeatCounts() {
+        return Collections.unmodifiableMap(seatCounts);
+    }
+
+    /**
+     * Gets the zone containing the given seat.
+     *
+     * @param seat the seat's number, from 0 to {@link #getNumSeats()} - 1
+     */
+    Zone zoneOf(int seat) {
+        for (int i = zones.size() - 1; i >= 0; i--) {
+            if (zones.get(i).firstSeat <= seat) {
+                return zones.get(i);
+            }
+        }
+        throw new IndexOutOfBoundsException("No seat " + seat + " on a " + name);
+    }
+
+    /**
+     * One seating zone of the layout, corresponding to one row of the service's seating zones table.
+     */
+    static final class Zone {
+        private final CabinClass cabinClass;
+        private final int startingRowNumber;
+        private final int numRows;
+        private final String seatCodeData;
+        private final int firstSeat;
+
+        private Zone(CabinClass cabinClass, int startingRowNumber, int numRows, String seatCodeData, int firstSeat) {
+            this.cabinClass = cabinClass;
+            this.startingRowNumber = startingRowNumber;
+            this.numRows = numRows;
+            this.seatCodeData = seatCodeData;
+            this.firstSeat = firstSeat;
+        }
+
+        CabinClass getCabinClass() {
+            return cabinClass;
+        }
+
+        int getStartingRowNumber() {
+            return startingRowNumber;
+        }
+
+        int getNumRows() {
+            return numRows;
+        }
+
+        String getSeatCodeData() {
+            return seatCodeData;
+        }
+
+        /**
+         * Gets the row number of the given seat, which must be in this zone.
+         */
+        int rowOf(int seat) {
+            return startingRowNumber + (seat - firstSeat) / seatCodeData.length();
+        }
+
+        /**
+         * Gets the letter code of the given seat, which must be in this zone.
+         */
+        char letterOf(int seat) {
+            return seatCodeData.charAt((seat - firstSeat) % seatCodeData.length());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package se325.flights.datagen;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A CSV file being written, one row at a time, in the format the service's seed data loader reads: a header row
+ * naming the table's columns, then one row per record. Values are only quoted when they need to be.
+ */
+final class CsvFile implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Writer writer;
+    private final int columns;
+    private long rows;
+
+    /**
+     * Creates (or replaces) the given file, and writes its header row.
+     */
+    CsvFile(Path file, String... columns) throws IOException {
+        this.writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.columns = columns.length;
+        write(columns);
+    }
+
+    /**
+     * Writes a row, with one value for each column.
+     */
+    void row(Object... values) throws IOException {
+        if (values.length != columns) {
+            throw new IllegalArgumentException("Expected " + columns + " values, but got " + values.length);
+        }
+        write(values);
+        rows++;
+    }
+
+    /**
+     * Gets the number of rows written, not counting the header.
+     */
+    long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void write(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = String.valueOf(values[i]);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            writer.write(value);
+        }
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,302 @@
+package se325.flights.datagen;
+
+import se325.flights.CabinClass;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a large, realistic dataset for the flight booking service. It writes the dataset as seed data: one CSV
+ * file per table, in the format the service's seed data loader reads. Start the service (or run its tests or
+ * benchmarks) with {@code flights.seed.location} set to the output directory to load the dataset. It's loaded into
+ * whichever storage profile is selected, in place of the default seed data.
+ * <p>
+ * The dataset contains the following:
+ * <ul>
+ *     <li>Airports. The first 48 are real airports, starting with those in the default seed data. Any more are
+ *     regional airports near them.</li>
+ *     <li>A route network. Every pair of real airports is connected. Each regional airport connects to its hub, and to
+ *     one other real airport.</li>
+ *     <li>Five aircraft layouts, including the two in the default seed data.</li>
+ *     <li>Flights on random routes, departing over a year from 1 August 2022. Each flight uses a wide-body aircraft
+ *     on long routes and a narrow-body one on short routes. Its prices and flight time follow from the route's
+ *     distance.</li>
+ *     <li>Bookings of one to four seats each, made by random users. They fill each flight to around the load
+ *     factor.</li>
+ * </ul>
+ * The users are Alice and Bob from the default seed data, then "user3" onwards, all with Alice's password
+ * ("pa55word"). Flights carry their seat counters, so they don't have to be computed when the dataset is loaded.
+ * <p>
+ * The same settings always generate the same dataset, byte for byte. Run it with {@code mvn exec:java} in this module.
+ * The settings are system properties:
+ * <ul>
+ *     <li>{@code flights.datagen.seed} (default 325)</li>
+ *     <li>{@code flights.datagen.airports} (200)</li>
+ *     <li>{@code flights.datagen.flights} (100,000)</li>
+ *     <li>{@code flights.datagen.users} (10,000)</li>
+ *     <li>{@code flights.datagen.loadFactor} (0.3)</li>
+ *     <li>{@code flights.datagen.days} (365)</li>
+ *     <li>{@code flights.datagen.output} ({@code target/datagen})</li>
+ * </ul>
+ * The flights and booked seats grow with the flight count. 10,000,000 flights with a load factor of 0 gives a 10M-row
+ * flight table. With bookings, the booked seats table grows fastest: each flight has 170 to 570 seats, depending on
+ * its aircraft.
+ */
+public final class DataGenerator {
+
+    private static final LocalDateTime FIRST_DEPARTURE = LocalDateTime.of(2022, 8, 1, 0, 0);
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private static final String ALICE_PASSHASH = "01bbd007a1040e3b62417e176caf7e6fa5aabdd724626c22a011e9e4e992ac35";
+    private static final String BOB_PASSHASH = "7d4e3eec80026719639ed4dba68916eb94c7a49a053e05c8f9578fe4e5a3d7ea";
+
+    /**
+     * Routes shorter than this are flown by narrow-body aircraft, and longer ones by wide-body aircraft.
+     */
+    private static final double SHORT_HAUL_KM = 1500;
+    private static final double LONG_HAUL_KM = 4000;
+    private static final double CRUISING_SPEED_KMH = 800;
+
+    /**
+     * The price of a seat in each cabin class, relative to an economy seat.
+     */
+    private static final Map<CabinClass, Integer> PRICE_MULTIPLIERS = Map.of(
+            CabinClass.Economy, 1, CabinClass.Premium, 3, CabinClass.Business, 6, CabinClass.FirstClass, 12);
+
+    /**
+     * The number of seats in a booking, picked at random from these.
+     */
+    private static final int[] PARTY_SIZES = {1, 1, 1, 1, 2, 2, 2, 2, 3, 4};
+
+    private final long seed;
+    private final int numAirports;
+    private final int numFlights;
+    private final int numUsers;
+    private final double loadFactor;
+    private final int days;
+
+    /**
+     * Creates a DataGenerator with the given settings.
+     *
+     * @param seed        the seed for the random choices
+     * @param numAirports the number of airports, at least 2
+     * @param numFlights  the number of flights
+     * @param numUsers    the number of users, at least 2 (for Alice and Bob)
+     * @param loadFactor  the average fraction of each flight's seats to book, from 0 to 1
+     * @param days        the number of days over which flights depart
+     * @throws IllegalArgumentException if any of the settings are out of range
+     */
+    public DataGenerator(long seed, int numAirports, int numFlights, int numUsers, double loadFactor, int days) {
+        if (numAirports < 2 || numAirports > GeneratedAirport.MAX_AIRPORTS || numFlights < 0 || numUsers < 2
+                || loadFactor < 0 || loadFactor > 1 || days < 1) {
+            throw new IllegalArgumentException("Invalid dataset settings");
+        }
+        this.seed = seed;
+        this.numAirports = numAirports;
+        this.numFlights = numFlights;
+        this.numUsers = numUsers;
+        this.loadFactor = loadFactor;
+        this.days = days;
+    }
+
+    /**
+     * Creates a DataGenerator with the settings given by the {@code flights.datagen} system properties.
+     */
+    public static DataGenerator fromSystemProperties() {
+        return new DataGenerator(
+                Long.getLong("flights.datagen.seed", 325),
+                Integer.getInteger("flights.datagen.airports", 200),
+                Integer.getInteger("flights.datagen.flights", 100_000),
+                Integer.getInteger("flights.datagen.users", 10_000),
+                Double.parseDouble(System.getProperty("flights.datagen.loadFactor", "0.3")),
+                Integer.getInteger("flights.datagen.days", 365));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(System.getProperty("flights.datagen.output", "target/datagen")).toAbsolutePath();
+        long start = System.nanoTime();
+        Map<String, Long> rows = fromSystemProperties().generate(directory);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("Generated in " + millis + " ms:");
+        rows.forEach((file, count) -> System.out.printf("  %-20s %,d rows%n", file, count));
+        System.out.println("Load it with -Dflights.seed.location=" + directory);
+    }
+
+    /**
+     * Writes the dataset to the given directory, creating it if need be. Any files it already has with the same
+     * names are replaced.
+     *
+     * @return the number of rows written to each file, by file name
+     */
+    public Map<String, Long> generate(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SplittableRandom random = new SplittableRandom(seed);
+        List<GeneratedAirport> airports = GeneratedAirport.generate(numAirports, random.split());
+        List<GeneratedAirport[]> routes = routes(airports, random.split());
+
+        Map<String, Long> rows = new LinkedHashMap<>();
+        try (CsvFile users = new CsvFile(directory.resolve("users.csv"), "ID", "USERNAME", "PASSHASH")) {
+            users.row(1, "Alice", ALICE_PASSHASH);
+            users.row(2, "Bob", BOB_PASSHASH);
+            for (int id = 3; id <= numUsers; id++) {
+                users.row(id, "user" + id, ALICE_PASSHASH);
+            }
+            rows.put("users.csv", users.getRows());
+        }
+
+        try (CsvFile file = new CsvFile(directory.resolve("airports.csv"),
+                "ID", "NAME", "CODE", "LATITUDE", "LONGITUDE", "TIMEZONE")) {
+            for (GeneratedAirport airport : airports) {
+                file.row(airport.getId(), airport.getName(), airport.getCode(), airport.getLatitude(),
+                        airport.getLongitude(), airport.getTimeZone());
+            }
+            rows.put("airports.csv", file.getRows());
+        }
+
+        try (CsvFile types = new CsvFile(directory.resolve("aircraft-types.csv"), "ID", "NAME");
+             CsvFile zones = new CsvFile(directory.resolve("seating-zones.csv"),
+                     "AIRCRAFTTYPE_ID", "CABINCLASS", "NUMROWS", "STARTINGROWNUMBER", "SEATCODEDATA")) {
+            for (AircraftLayout layout : AircraftLayout.ALL) {
+                types.row(layout.getId(), layout.getName());
+                for (AircraftLayout.Zone zone : layout.getZones()) {
+                    zones.row(layout.getId(), zone.getCabinClass(), zone.getNumRows(), zone.getStartingRowNumber(),
+                            zone.getSeatCodeData());
+                }
+            }
+            rows.put("aircraft-types.csv", types.getRows());
+            rows.put("seating-zones.csv", zones.getRows());
+        }
+
+        try (CsvFile flights = new CsvFile(directory.resolve("flights.csv"),
+                "ID", "NAME", "AIRCRAFTTYPE_ID", "ORIGIN_ID", "DESTINATION_ID", "DEPARTURETIME", "ARRIVALTIME",
+                "ECONOMYSEATSREMAINING", "PREMIUMSEATSREMAINING", "BUSINESSSEATSREMAINING",
+                "FIRSTCLASSSEATSREMAINING");
+             CsvFile pricings = new CsvFile(directory.resolve("seat-pricings.csv"), "FLIGHT_ID", "CABINCLASS", "PRICE");
+             CsvFile bookings = new CsvFile(directory.resolve("bookings.csv"), "ID", "FLIGHT_ID", "USER_ID");
+             CsvFile bookedSeats = new CsvFile(directory.resolve("booked-seats.csv"),
+                     "FLIGHTBOOKING_ID", "ROWNUMBER", "LETTERCODE", "PRICE")) {
+            writeFlights(routes, random.split(), flights, pricings, bookings, bookedSeats);
+            rows.put("flights.csv", flights.getRows());
+            rows.put("seat-pricings.csv", pricings.getRows());
+            rows.put("bookings.csv", bookings.getRows());
+            rows.put("booked-seats.csv", bookedSeats.getRows());
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the route network, as origin and destination pairs.
+     */
+    private static List<GeneratedAirport[]> routes(List<GeneratedAirport> airports, SplittableRandom random) {
+        List<GeneratedAirport> hubs = new ArrayList<>();
+        for (GeneratedAirport airport : airports) {
+            if (airport.getHub() == null) {
+                hubs.add(airport);
+            }
+        }
+
+        List<GeneratedAirport[]> routes = new ArrayList<>();
+        for (GeneratedAirport origin : hubs) {
+            for (GeneratedAirport destination : hubs) {
+                if (origin != destination) {
+                    routes.add(new GeneratedAirport[]{origin, destination});
+                }
+            }
+        }
+        for (GeneratedAirport airport : airports) {
+            if (airport.getHub() != null) {
+                GeneratedAirport other = hubs.get(random.nextInt(hubs.size()));
+                for (GeneratedAirport hub : other == airport.getHub()
+                        ? List.of(other) : List.of(airport.getHub(), other)) {
+                    routes.add(new GeneratedAirport[]{airport, hub});
+                    routes.add(new GeneratedAirport[]{hub, airport});
+                }
+            }
+        }
+        return routes;
+    }
+
+    private void writeFlights(List<GeneratedAirport[]> routes, SplittableRandom random, CsvFile flights,
+                              CsvFile pricings, CsvFile bookings, CsvFile bookedSeats) throws IOException {
+        List<AircraftLayout> narrowBodies = new ArrayList<>();
+        List<AircraftLayout> wideBodies = new ArrayList<>();
+        for (AircraftLayout layout : AircraftLayout.ALL) {
+            (layout.isWideBody() ? wideBodies : narrowBodies).add(layout);
+        }
+
+        int[] seats = new int[0];
+        long bookingId = 0;
+        for (long flightId = 1; flightId <= numFlights; flightId++) {
+            GeneratedAirport[] route = routes.get(random.nextInt(routes.size()));
+            double distance = route[0].distanceTo(route[1]);
+            List<AircraftLayout> layouts = distance < SHORT_HAUL_KM ? narrowBodies
+                    : distance > LONG_HAUL_KM ? wideBodies : AircraftLayout.ALL;
+            AircraftLayout layout = layouts.get(random.nextInt(layouts.size()));
+
+            LocalDateTime departure = FIRST_DEPARTURE.plusHours(random.nextInt(days * 24));
+            long flightMinutes = Math.round((distance / CRUISING_SPEED_KMH * 60 + 30) / 10) * 10;
+
+            // Economy fares go up with distance, give or take 10%, in multiples of $5
+            int economyPrice = (int) Math.round((30 + 0.06 * distance) * random.nextDouble(0.9, 1.1) / 5) * 5;
+            Map<CabinClass, Integer> prices = new EnumMap<>(CabinClass.class);
+            for (CabinClass cabinClass : layout.getSeatCounts().keySet()) {
+                prices.put(cabinClass, economyPrice * PRICE_MULTIPLIERS.get(cabinClass));
+                pricings.row(flightId, cabinClass, prices.get(cabinClass));
+            }
+
+            // Book a random selection of seats, around the load factor, in parties of one to four
+            if (seats.length < layout.getNumSeats()) {
+                seats = new int[layout.getNumSeats()];
+            }
+            for (int i = 0; i < layout.getNumSeats(); i++) {
+                seats[i] = i;
+            }
+            int numBooked = (int) Math.min(layout.getNumSeats(),
+                    Math.round(layout.getNumSeats() * loadFactor * random.nextDouble(0.75, 1.25)));
+            Map<CabinClass, Integer> remaining = new EnumMap<>(layout.getSeatCounts());
+            int booked = 0;
+            while (booked < numBooked) {
+                int partySize = Math.min(PARTY_SIZES[random.nextInt(PARTY_SIZES.length)], numBooked - booked);
+                bookings.row(++bookingId, flightId, 1 + random.nextInt(numUsers));
+                for (int i = 0; i < partySize; i++, booked++) {
+                    int pick = booked + random.nextInt(layout.getNumSeats() - booked);
+                    int seat = seats[pick];
+                    seats[pick] = seats[booked];
+                    seats[booked] = seat;
+
+                    AircraftLayout.Zone zone = layout.zoneOf(seat);
+                    remaining.merge(zone.getCabinClass(), -1, Integer::sum);
+                    bookedSeats.row(bookingId, zone.rowOf(seat), zone.letterOf(seat), prices.get(zone.getCabinClass()));
+                }
+            }
+
+            flights.row(flightId, flightName(random), layout.getId(), route[0].getId(), route[1].getId(),
+                    DATE_TIME_FORMAT.format(departure), DATE_TIME_FORMAT.format(departure.plusMinutes(flightMinutes)),
+                    remaining.getOrDefault(CabinClass.Economy, 0), remaining.getOrDefault(CabinClass.Premium, 0),
+                    remaining.getOrDefault(CabinClass.Business, 0), remaining.getOrDefault(CabinClass.FirstClass, 0));
+        }
+    }
+
+    /**
+     * Gets a random flight name, in the same form as those in the default seed data (e.g. "ZJS-735").
+     */
+    private static String flightName(SplittableRandom random) {
+        StringBuilder name = new StringBuilder(7);
+        for (int i = 0; i < 3; i++) {
+            name.append((char) ('A' + random.nextInt(26)));
+        }
+        return name.append('-').append(String.format("%03d", random.nextInt(1000))).toString();
+    }
+}
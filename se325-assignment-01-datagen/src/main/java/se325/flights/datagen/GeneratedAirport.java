@@ -0,0 +1,187 @@
+package se325.flights.datagen;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * An airport in a generated dataset. The first airports are real international airports - starting with the five in
+ * the service's default seed data, with the same ids. Any more are regional airports, each somewhere near one of the
+ * real ones (its hub), in the same timezone.
+ */
+final class GeneratedAirport {
+
+    /**
+     * Code, name, city, latitude, longitude and timezone of each real airport.
+     */
+    private static final String[][] REAL = {
+            {"AKL", "Auckland International Airport", "Auckland", "-37.008", "174.792", "Pacific/Auckland"},
+            {"SYD", "Sydney International Airport", "Sydney", "-33.946", "151.177", "Australia/Sydney"},
+            {"NRT", "Tokyo Narita International Airport", "Tokyo", "35.765", "140.386", "Asia/Tokyo"},
+            {"SIN", "Singapore Changi International Airport", "Singapore", "1.356", "103.987", "Asia/Singapore"},
+            {"LAX", "Los Angeles International Airport", "Los Angeles", "33.942", "-118.408", "America/Los_Angeles"},
+            {"CHC", "Christchurch International Airport", "Christchurch", "-43.489", "172.532", "Pacific/Auckland"},
+            {"WLG", "Wellington International Airport", "Wellington", "-41.327", "174.805", "Pacific/Auckland"},
+            {"MEL", "Melbourne Airport", "Melbourne", "-37.669", "144.841", "Australia/Melbourne"},
+            {"BNE", "Brisbane Airport", "Brisbane", "-27.384", "153.117", "Australia/Brisbane"},
+            {"PER", "Perth Airport", "Perth", "-31.940", "115.967", "Australia/Perth"},
+            {"NAN", "Nadi International Airport", "Nadi", "-17.755", "177.443", "Pacific/Fiji"},
+            {"HKG", "Hong Kong International Airport", "Hong Kong", "22.308", "113.918", "Asia/Hong_Kong"},
+            {"ICN", "Incheon International Airport", "Seoul", "37.460", "126.441", "Asia/Seoul"},
+            {"PEK", "Beijing Capital International Airport", "Beijing", "40.080", "116.585", "Asia/Shanghai"},
+            {"PVG", "Shanghai Pudong International Airport", "Shanghai", "31.143", "121.805", "Asia/Shanghai"},
+            {"TPE", "Taiwan Taoyuan International Airport", "Taipei", "25.078", "121.233", "Asia/Taipei"},
+            {"BKK", "Bangkok Suvarnabhumi Airport", "Bangkok", "13.690", "100.750", "Asia/Bangkok"},
+            {"KUL", "Kuala Lumpur International Airport", "Kuala Lumpur", "2.746", "101.710", "Asia/Kuala_Lumpur"},
+            {"CGK", "Soekarno-Hatta International Airport", "Jakarta", "-6.126", "106.656", "Asia/Jakarta"},
+            {"MNL", "Ninoy Aquino International Airport", "Manila", "14.509", "121.020", "Asia/Manila"},
+            {"DEL", "Indira Gandhi International Airport", "Delhi", "28.567", "77.103", "Asia/Kolkata"},
+            {"BOM", "Chhatrapati Shivaji Maharaj International Airport", "Mumbai", "19.089", "72.868", "Asia/Kolkata"},
+            {"DXB", "Dubai International Airport", "Dubai", "25.253", "55.365", "Asia/Dubai"},
+            {"DOH", "Hamad International Airport", "Doha", "25.273", "51.608", "Asia/Qatar"},
+            {"LHR", "London Heathrow Airport", "London", "51.470", "-0.454", "Europe/London"},
+            {"CDG", "Paris Charles de Gaulle Airport", "Paris", "49.010", "2.548", "Europe/Paris"},
+            {"FRA", "Frankfurt Airport", "Frankfurt", "50.033", "8.571", "Europe/Berlin"},
+            {"AMS", "Amsterdam Airport Schiphol", "Amsterdam", "52.308", "4.764", "Europe/Amsterdam"},
+            {"MAD", "Madrid Barajas Airport", "Madrid", "40.472", "-3.561", "Europe/Madrid"},
+            {"FCO", "Rome Fiumicino Airport", "Rome", "41.800", "12.239", "Europe/Rome"},
+            {"IST", "Istanbul Airport", "Istanbul", "41.262", "28.742", "Europe/Istanbul"},
+            {"ZRH", "Zurich Airport", "Zurich", "47.464", "8.549", "Europe/Zurich"},
+            {"SFO", "San Francisco International Airport", "San Francisco", "37.619", "-122.375", "America/Los_Angeles"},
+            {"YVR", "Vancouver International Airport", "Vancouver", "49.195", "-123.184", "America/Vancouver"},
+            {"SEA", "Seattle-Tacoma International Airport", "Seattle", "47.449", "-122.309", "America/Los_Angeles"},
+            {"ORD", "Chicago O'Hare International Airport", "Chicago", "41.978", "-87.905", "America/Chicago"},
+            {"DFW", "Dallas Fort Worth International Airport", "Dallas", "32.897", "-97.038", "America/Chicago"},
+            {"JFK", "John F. Kennedy International Airport", "New York", "40.640", "-73.779", "America/New_York"},
+            {"ATL", "Hartsfield-Jackson Atlanta International Airport", "Atlanta", "33.637", "-84.428", "America/New_York"},
+            {"YYZ", "Toronto Pearson International Airport", "Toronto", "43.677", "-79.631", "America/Toronto"},
+            {"HNL", "Honolulu International Airport", "Honolulu", "21.319", "-157.922", "Pacific/Honolulu"},
+            {"MEX", "Mexico City International Airport", "Mexico City", "19.436", "-99.072", "America/Mexico_City"},
+            {"GRU", "Sao Paulo Guarulhos International Airport", "Sao Paulo", "-23.432", "-46.469", "America/Sao_Paulo"},
+            {"SCL", "Santiago International Airport", "Santiago", "-33.393", "-70.786", "America/Santiago"},
+            {"EZE", "Buenos Aires Ezeiza International Airport", "Buenos Aires", "-34.822", "-58.536",
+                    "America/Argentina/Buenos_Aires"},
+            {"JNB", "O. R. Tambo International Airport", "Johannesburg", "-26.139", "28.246", "Africa/Johannesburg"},
+            {"CAI", "Cairo International Airport", "Cairo", "30.122", "31.406", "Africa/Cairo"},
+            {"NBO", "Jomo Kenyatta International Airport", "Nairobi", "-1.319", "36.928", "Africa/Nairobi"}
+    };
+
+    /**
+     * The largest number of airports that can be generated, as each needs its own three-letter code.
+     */
+    static final int MAX_AIRPORTS = 26 * 26 * 26;
+
+    /**
+     * How far a regional airport may be from its hub, in degrees of latitude and longitude.
+     */
+    private static final double REGION_DEGREES = 4;
+
+    private final long id;
+    private final String code;
+    private final String name;
+    private final String city;
+    private final double latitude;
+    private final double longitude;
+    private final String timeZone;
+    private final GeneratedAirport hub;
+
+    private GeneratedAirport(long id, String code, String name, String city, double latitude, double longitude,
+                             String timeZone, GeneratedAirport hub) {
+        this.id = id;
+        this.code = code;
+        this.name = name;
+        this.city = city;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.timeZone = timeZone;
+        this.hub = hub;
+    }
+
+    /**
+     * Generates the given number of airports, with ids from 1.
+     *
+     * @throws IllegalArgumentException if count is more than {@link #MAX_AIRPORTS}, or less than 2
+     */
+    static List<GeneratedAirport> generate(int count, SplittableRandom random) {
+        if (count < 2 || count > MAX_AIRPORTS) {
+            throw new IllegalArgumentException("Can generate between 2 and " + MAX_AIRPORTS + " airports");
+        }
+
+        List<GeneratedAirport> airports = new ArrayList<>(count);
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < Math.min(count, REAL.length); i++) {
+            String[] airport = REAL[i];
+            airports.add(new GeneratedAirport(i + 1, airport[0], airport[1], airport[2],
+                    Double.parseDouble(airport[3]), Double.parseDouble(airport[4]), airport[5], null));
+            codes.add(airport[0]);
+        }
+
+        int[] regionalAirports = new int[REAL.length];
+        while (airports.size() < count) {
+            int hubIndex = random.nextInt(REAL.length);
+            GeneratedAirport hub = airports.get(hubIndex);
+            String code;
+            do {
+                code = "" + letter(random) + letter(random) + letter(random);
+            } while (!codes.add(code));
+
+            double latitude = Math.max(-89, Math.min(89,
+                    hub.latitude + random.nextDouble(-REGION_DEGREES, REGION_DEGREES)));
+            double longitude = hub.longitude + random.nextDouble(-REGION_DEGREES, REGION_DEGREES);
+            longitude = longitude > 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+            airports.add(new GeneratedAirport(airports.size() + 1, code,
+                    hub.city + " Regional Airport " + ++regionalAirports[hubIndex], hub.city,
+                    Math.round(latitude * 1000) / 1000.0, Math.round(longitude * 1000) / 1000.0, hub.timeZone, hub));
+        }
+        return airports;
+    }
+
+    private static char letter(SplittableRandom random) {
+        return (char) ('A' + random.nextInt(26));
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getCode() {
+        return code;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    double getLatitude() {
+        return latitude;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    String getTimeZone() {
+        return timeZone;
+    }
+
+    /**
+     * Gets the real airport this regional airport is near, or null if this is a real airport.
+     */
+    GeneratedAirport getHub() {
+        return hub;
+    }
+
+    /**
+     * Gets the great-circle distance between this airport and the given one, in kilometres.
+     */
+    double distanceTo(GeneratedAirport other) {
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.toRadians(other.latitude);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(other.longitude - longitude);
+        double a = Math.pow(Math.sin(dLat / 2), 2) + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dLon / 2), 2);
+        return 6371 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,141 @@
+package se325.flights.datagen.test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se325.flights.datagen.DataGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link DataGenerator}, which check the CSV files it writes.
+ */
+public class TestDataGenerator {
+
+    private static final String[] FILES = {"users.csv", "airports.csv", "aircraft-types.csv", "seating-zones.csv",
+            "flights.csv", "seat-pricings.csv", "bookings.csv", "booked-seats.csv"};
+
+    /**
+     * Tests that the same settings generate exactly the same files, and that a different seed doesn't.
+     */
+    @Test
+    public void testDeterministic(@TempDir Path directory) throws IOException {
+        new DataGenerator(1, 100, 500, 50, 0.5, 30).generate(directory.resolve("first"));
+        new DataGenerator(1, 100, 500, 50, 0.5, 30).generate(directory.resolve("second"));
+        new DataGenerator(2, 100, 500, 50, 0.5, 30).generate(directory.resolve("other"));
+
+        for (String file : FILES) {
+            assertEquals(Files.readAllLines(directory.resolve("first").resolve(file)),
+                    Files.readAllLines(directory.resolve("second").resolve(file)), file);
+        }
+        assertNotEquals(Files.readAllLines(directory.resolve("first").resolve("flights.csv")),
+                Files.readAllLines(directory.resolve("other").resolve("flights.csv")));
+    }
+
+    /**
+     * Tests that the generated files have the requested numbers of rows, and start with the default seed data's
+     * airports and users.
+     */
+    @Test
+    public void testRowCounts(@TempDir Path directory) throws IOException {
+        Map<String, Long> rows = new DataGenerator(325, 300, 1000, 20, 0, 365).generate(directory);
+
+        assertEquals(List.of(FILES), new ArrayList<>(rows.keySet()));
+        for (String file : FILES) {
+            assertEquals((long) rows.get(file), read(directory, file).size(), file);
+        }
+        assertEquals(20, rows.get("users.csv"));
+        assertEquals(300, rows.get("airports.csv"));
+        assertEquals(1000, rows.get("flights.csv"));
+        assertEquals(0, rows.get("bookings.csv"));
+        assertEquals(0, rows.get("booked-seats.csv"));
+
+        List<Map<String, String>> airports = read(directory, "airports.csv");
+        assertEquals("AKL", airports.get(0).get("CODE"));
+        assertEquals("LAX", airports.get(4).get("CODE"));
+        assertEquals(300, airports.stream().map(airport -> airport.get("CODE")).distinct().count());
+        assertEquals("Alice", read(directory, "users.csv").get(0).get("USERNAME"));
+    }
+
+    /**
+     * Tests that every booked seat is a real seat on its flight's aircraft, that no seat is booked twice, that each
+     * flight's seat counters account for its booked seats, and that flights are filled to around the load factor.
+     */
+    @Test
+    public void testBookingsConsistent(@TempDir Path directory) throws IOException {
+        new DataGenerator(325, 100, 2000, 100, 0.4, 60).generate(directory);
+
+        // seat code -> cabin class, by aircraft type
+        Map<String, Map<String, String>> cabinClasses = new HashMap<>();
+        for (Map<String, String> zone : read(directory, "seating-zones.csv")) {
+            Map<String, String> seats = cabinClasses.computeIfAbsent(zone.get("AIRCRAFTTYPE_ID"), id -> new HashMap<>());
+            int start = Integer.parseInt(zone.get("STARTINGROWNUMBER"));
+            for (int row = start; row < start + Integer.parseInt(zone.get("NUMROWS")); row++) {
+                for (char letter : zone.get("SEATCODEDATA").toCharArray()) {
+                    assertNull(seats.put(row + "" + letter, zone.get("CABINCLASS")));
+                }
+            }
+        }
+
+        Map<String, String> bookingFlights = new HashMap<>();
+        for (Map<String, String> booking : read(directory, "bookings.csv")) {
+            bookingFlights.put(booking.get("ID"), booking.get("FLIGHT_ID"));
+        }
+        Map<String, Map<String, String>> flights = new HashMap<>();
+        for (Map<String, String> flight : read(directory, "flights.csv")) {
+            flights.put(flight.get("ID"), flight);
+        }
+
+        Set<String> bookedSeats = new HashSet<>();
+        Map<String, Integer> bookedPerCabin = new HashMap<>();
+        for (Map<String, String> seat : read(directory, "booked-seats.csv")) {
+            String flightId = bookingFlights.get(seat.get("FLIGHTBOOKING_ID"));
+            String seatCode = seat.get("ROWNUMBER") + seat.get("LETTERCODE");
+            assertTrue(bookedSeats.add(flightId + "/" + seatCode), "Seat booked twice");
+            String cabinClass = cabinClasses.get(flights.get(flightId).get("AIRCRAFTTYPE_ID")).get(seatCode);
+            assertNotNull(cabinClass, "No such seat");
+            bookedPerCabin.merge(flightId + "/" + cabinClass, 1, Integer::sum);
+        }
+
+        long totalSeats = 0;
+        for (Map<String, String> flight : flights.values()) {
+            Map<String, String> seats = cabinClasses.get(flight.get("AIRCRAFTTYPE_ID"));
+            totalSeats += seats.size();
+            for (String cabinClass : List.of("Economy", "Premium", "Business", "FirstClass")) {
+                long numSeats = seats.values().stream().filter(cabinClass::equals).count();
+                int booked = bookedPerCabin.getOrDefault(flight.get("ID") + "/" + cabinClass, 0);
+                assertEquals(numSeats - booked,
+                        Long.parseLong(flight.get(cabinClass.toUpperCase() + "SEATSREMAINING")));
+            }
+        }
+        assertEquals(0.4, bookedSeats.size() / (double) totalSeats, 0.02);
+    }
+
+    /**
+     * Reads the given CSV file's rows, as maps from column name to value. The generated data has no quoted values.
+     */
+    private static List<Map<String, String>> read(Path directory, String file) throws IOException {
+        List<String> lines = Files.readAllLines(directory.resolve(file));
+        String[] columns = lines.get(0).split(",");
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split(",", -1);
+            assertEquals(columns.length, values.length, line);
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                row.put(columns[i], values[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -1,5 +1,7 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.FetchMode;
 import se325.flights.CabinClass;
 
@@ -9,9 +11,21 @@ import java.util.Set;
 
 /**
  * Represents a type of aircraft on which a {@link Flight} can be made.
+ * <p>
+ * Aircraft types and their seating zones are reference data, so are kept in the second-level cache.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedQuery(name = AircraftType.FIND_ALL,
+        query = "select t from AircraftType t order by t.id")
 public class AircraftType {
+
+    /**
+     * Finds every aircraft type - for loading them all into the cache at start-up.
+     */
+    public static final String FIND_ALL = "AircraftType.findAll";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -19,6 +33,7 @@ public class AircraftType {
     private String name;
 
     @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<SeatingZone> seatingZones = new HashSet<>();
 
     public Long getId() {
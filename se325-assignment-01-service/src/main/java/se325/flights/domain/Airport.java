@@ -1,15 +1,41 @@
 package se325.flights.domain;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
+
+import javax.persistence.*;
 
 /**
  * Represents an Airport. Airports can be the origin / destination of {@link Flight}s.
+ * <p>
+ * Airports are reference data, so are kept in the second-level cache. Airport codes are unique.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(uniqueConstraints = @UniqueConstraint(name = "UK_AIRPORT_CODE", columnNames = "code"))
+@NamedQueries({
+        @NamedQuery(name = Airport.SEARCH,
+                query = "select a from Airport a where lower(a.name) like CONCAT('%', :search, '%') "
+                        + "or lower(a.code) = :search",
+                hints = @QueryHint(name = QueryHints.READ_ONLY, value = "true")),
+        @NamedQuery(name = Airport.FIND_ALL,
+                query = "select a from Airport a order by a.id")
+})
 public class Airport {
+
+    /**
+     * Finds the airports whose name contains, or whose code is, the given (lower-case) search term. As this is a
+     * substring search, it scans the whole (small) table.
+     */
+    public static final String SEARCH = "Airport.search";
+
+    /**
+     * Finds every airport - for loading them all into the cache at start-up.
+     */
+    public static final String FIND_ALL = "Airport.findAll";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -0,0 +1,78 @@
+package se325.flights.domain;
+
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.QueryHints;
+
+import javax.persistence.*;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A {@link FlightBooking} on a flight which has departed, moved into the archive along with its flight (an
+ * {@link ArchivedFlight}) and its {@link Seat}s. Archived bookings keep their original ids, so a user's booking history
+ * reads the same whichever table each booking is in. Like the live bookings, they're indexed by user.
+ */
+@Entity
+@Immutable
+@Table(indexes = {
+        @Index(name = "IDX_ARCHIVED_BOOKING_USER", columnList = "user_id"),
+        @Index(name = "IDX_ARCHIVED_BOOKING_FLIGHT", columnList = "flight_id")
+})
+@NamedQueries({
+        @NamedQuery(name = ArchivedBooking.FIND_BY_USER_WITH_DETAILS,
+                query = "select distinct b from ArchivedBooking b "
+                        + "join fetch b.flight f join fetch f.origin join fetch f.destination join fetch f.aircraftType "
+                        + "left join fetch b.seats "
+                        + "where b.user.id = :userId order by f.departureTime, b.id",
+                hints = {
+                        @QueryHint(name = QueryHints.PASS_DISTINCT_THROUGH, value = "false"),
+                        @QueryHint(name = QueryHints.READ_ONLY, value = "true")
+                }),
+        @NamedQuery(name = ArchivedBooking.FIND_BY_ID_AND_USER,
+                query = "select b from ArchivedBooking b where b.id = :id and b.user.id = :userId",
+                hints = @QueryHint(name = QueryHints.READ_ONLY, value = "true"))
+})
+public class ArchivedBooking {
+
+    /**
+     * Finds the given user's archived bookings in order of departure, along with everything needed to show them, in a
+     * single statement - as {@link FlightBooking#FIND_BY_USER_WITH_DETAILS} does for their live ones.
+     */
+    public static final String FIND_BY_USER_WITH_DETAILS = "ArchivedBooking.findByUserWithDetails";
+    public static final String FIND_BY_ID_AND_USER = "ArchivedBooking.findByIdAndUser";
+
+    @Id
+    private Long id;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private ArchivedFlight flight;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User user;
+
+    @ElementCollection
+    @CollectionTable(indexes = @Index(name = "IDX_ARCHIVED_BOOKING_SEATS_BOOKING", columnList = "ArchivedBooking_id"))
+    @org.hibernate.annotations.Fetch(FetchMode.SUBSELECT)
+    private Set<Seat> seats = new HashSet<>();
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    protected ArchivedBooking() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public ArchivedFlight getFlight() {
+        return flight;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Set<Seat> getSeats() {
+        return seats;
+    }
+}
@@ -0,0 +1,75 @@
+package se325.flights.domain;
+
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+import java.time.ZonedDateTime;
+
+/**
+ * A {@link Flight} which has departed, and been moved out of the flights table (along with its bookings, as
+ * {@link ArchivedBooking}s) so that the live tables and their indexes only grow with future inventory - see
+ * {@code FlightArchiver}. Only what's needed to show a booking in a user's history is kept: the flight's seat pricings
+ * and seat counters are no use once it's left.
+ * <p>
+ * Archived flights keep their original ids, and refer to the same (live) airports and aircraft types as before. They're
+ * written with plain SQL, a chunk at a time, and never change afterwards.
+ */
+@Entity
+@Immutable
+@NamedQueries({
+        @NamedQuery(name = ArchivedFlight.FIND_IDS,
+                query = "select f.id from ArchivedFlight f where f.id in :flightIds")
+})
+public class ArchivedFlight {
+
+    /**
+     * Finds which of the given flights have been archived.
+     */
+    public static final String FIND_IDS = "ArchivedFlight.findIds";
+
+    @Id
+    private Long id;
+    private String name;
+    private ZonedDateTime departureTime;
+    private ZonedDateTime arrivalTime;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private AircraftType aircraftType;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private Airport origin;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private Airport destination;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    protected ArchivedFlight() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ZonedDateTime getDepartureTime() {
+        return departureTime;
+    }
+
+    public ZonedDateTime getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public AircraftType getAircraftType() {
+        return aircraftType;
+    }
+
+    public Airport getOrigin() {
+        return origin;
+    }
+
+    public Airport getDestination() {
+        return destination;
+    }
+}
@@ -1,7 +1,13 @@
 package se325.flights.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.QueryHints;
 import se325.flights.CabinClass;
+import se325.flights.domain.events.InventoryEvent;
+import se325.flights.domain.events.SeatsBooked;
+import se325.flights.domain.events.SeatsReleased;
 
 import javax.persistence.*;
 import java.time.ZonedDateTime;
@@ -18,9 +24,57 @@ import java.util.stream.Collectors;
  * requests result in {@link FlightBooking} instances being created. The price of a particular booking depends on the
  * {@link CabinClass} of the seats being booked (determined by the {@link AircraftType} of a flight), and the
  * price-per-cabin-class for a particular cabin class on a flight.
+ * <p>
+ * Each booking made or removed is recorded as an {@link InventoryEvent}, to be published once the change has been
+ * committed - see {@link #drainEvents()}.
+ * <p>
+ * A flight's seat pricings don't change once it's scheduled, so are kept in the second-level cache - unlike the flight
+ * itself, whose seat inventory changes with every booking.
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "IDX_FLIGHT_ROUTE", columnList = "origin_id, destination_id, departureTime"),
+        @Index(name = "IDX_FLIGHT_DESTINATION", columnList = "destination_id"),
+        @Index(name = "IDX_FLIGHT_DEPARTURE_TIME", columnList = "departureTime")
+})
+@NamedQueries({
+        @NamedQuery(name = Flight.FIND_BY_ROUTE,
+                query = "select f from Flight f where f.origin.id in :originIds and f.destination.id in :destinationIds "
+                        + "order by f.departureTime asc",
+                hints = @QueryHint(name = QueryHints.READ_ONLY, value = "true")),
+        @NamedQuery(name = Flight.FIND_BY_ROUTE_AND_DEPARTURE_TIME,
+                query = "select f from Flight f where f.origin.id in :originIds and f.destination.id in :destinationIds "
+                        + "and f.departureTime >= :startDeparture and f.departureTime <= :endDeparture "
+                        + "order by f.departureTime asc",
+                hints = @QueryHint(name = QueryHints.READ_ONLY, value = "true")),
+        @NamedQuery(name = Flight.FIND_AVAILABILITY,
+                query = "select f.id, f.seatInventory, p.cabinClass, p.price from Flight f left join f.seatPricings p "
+                        + "where f.id in :flightIds"),
+        @NamedQuery(name = Flight.FIND_DEPARTED_IDS,
+                query = "select f.id from Flight f where f.id in :flightIds and f.departureTime < :now"),
+        @NamedQuery(name = Flight.FIND_ALL,
+                query = "select f from Flight f order by f.id"),
+        @NamedQuery(name = Flight.FIND_DEPARTED,
+                query = "select f from Flight f where f.departureTime < :departedBefore order by f.departureTime, f.id")
+})
 public class Flight {
+
+    public static final String FIND_BY_ROUTE = "Flight.findByRoute";
+    public static final String FIND_BY_ROUTE_AND_DEPARTURE_TIME = "Flight.findByRouteAndDepartureTime";
+    public static final String FIND_AVAILABILITY = "Flight.findAvailability";
+    public static final String FIND_DEPARTED_IDS = "Flight.findDepartedIds";
+
+    /**
+     * Finds every flight, in order of id - for sweeping through all of them a page at a time.
+     */
+    public static final String FIND_ALL = "Flight.findAll";
+
+    /**
+     * Finds the flights which departed before the given time, earliest first - for moving them into the archive a
+     * chunk at a time.
+     */
+    public static final String FIND_DEPARTED = "Flight.findDeparted";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -36,7 +90,12 @@ public class Flight {
     @OneToOne
     private Airport destination;
     @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<SeatPricing> seatPricings = new HashSet<>();
+    @Embedded
+    private SeatInventory seatInventory;
+    @Transient
+    private List<InventoryEvent> events = new ArrayList<>();
 
     public Long getId() {
         return id;
@@ -108,12 +167,63 @@ public class Flight {
     }
 
     /**
-     * Gets the number of seats remaining (i.e. unbooked seats) on this flight.
+     * Gets the number of seats remaining (i.e. unbooked seats) on this flight. Read from this flight's
+     * {@link SeatInventory}, so doesn't require loading any bookings.
      *
      * @return the number of unbooked seats on this flight
      */
     public int getNumSeatsRemaining() {
-        return getTotalNumSeats() - getBookedSeats().size();
+        return getSeatInventory().getTotalSeatsRemaining();
+    }
+
+    /**
+     * Gets the number of seats remaining (i.e. unbooked seats) of the given cabin class on this flight. If the given
+     * cabin class is null, returns the number of unbooked seats of all classes.
+     *
+     * @param cabinClass the cabin class to check
+     * @return the number of unbooked seats of that cabin class on this flight
+     */
+    public int getNumSeatsRemaining(CabinClass cabinClass) {
+        return getSeatInventory().getSeatsRemaining(cabinClass);
+    }
+
+    /**
+     * Gets the per-cabin-class counts of unbooked seats on this flight. If this flight was stored without its counters
+     * populated, they are computed here from its bookings (once - they'll be persisted along with any other changes to
+     * this flight).
+     *
+     * @return this flight's {@link SeatInventory}
+     */
+    public SeatInventory getSeatInventory() {
+        if (seatInventory == null) {
+            SeatInventory inventory = new SeatInventory(aircraftType);
+            adjustSeatInventory(inventory, getBookedSeats(), -1);
+            seatInventory = inventory;
+        }
+        return seatInventory;
+    }
+
+    /**
+     * Checks this flight's {@link SeatInventory} against the given seat codes, which should be the codes of all seats
+     * actually booked on this flight. If the counters don't match, they are corrected.
+     *
+     * @param bookedSeatCodes the codes of all booked seats on this flight
+     * @return true if the counters were out of date and have been corrected, false otherwise
+     */
+    public boolean reconcileSeatInventory(Collection<String> bookedSeatCodes) {
+        SeatInventory expected = new SeatInventory(aircraftType);
+        for (String seatCode : bookedSeatCodes) {
+            CabinClass cabinClass = findCabinClass(seatCode);
+            if (cabinClass != null) {
+                expected.adjust(cabinClass, -1);
+            }
+        }
+
+        if (expected.equals(seatInventory)) {
+            return false;
+        }
+        seatInventory = expected;
+        return true;
     }
 
     /**
@@ -165,8 +275,10 @@ public class Flight {
             flightBooking.getSeats().add(new Seat(seatCode, getPriceFor(aircraftType.getCabinClass(seatCode))));
         }
 
+        adjustSeatInventory(getSeatInventory(), flightBooking.getSeats(), -1);
         user.getBookings().add(flightBooking);
         bookings.add(flightBooking);
+        events.add(new SeatsBooked(id, user.getId(), seatCodes, countByCabinClass(flightBooking.getSeats())));
 
         return flightBooking;
     }
@@ -256,8 +368,71 @@ public class Flight {
     }
 
     public void removeBooking(FlightBooking booking) {
-        this.bookings.remove(booking);
+        if (this.bookings.remove(booking)) {
+            adjustSeatInventory(getSeatInventory(), booking.getSeats(), 1);
+            events.add(new SeatsReleased(id, booking.getUser() == null ? null : booking.getUser().getId(),
+                    booking.getSeats().stream().map(Seat::getSeatCode).collect(Collectors.toList()),
+                    countByCabinClass(booking.getSeats())));
+        }
         booking.setFlight(null);
     }
 
+    /**
+     * Removes and returns the events recorded by this flight since they were last drained. The caller is responsible
+     * for only publishing them if the changes they describe are committed.
+     *
+     * @return the events, in the order they happened
+     */
+    public List<InventoryEvent> drainEvents() {
+        if (events.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<InventoryEvent> drained = events;
+        events = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * Counts the given seats by cabin class.
+     */
+    private Map<CabinClass, Integer> countByCabinClass(Collection<Seat> seats) {
+        Map<CabinClass, Integer> counts = new EnumMap<>(CabinClass.class);
+        for (Seat seat : seats) {
+            CabinClass cabinClass = findCabinClass(seat.getSeatCode());
+            if (cabinClass != null) {
+                counts.merge(cabinClass, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Adds the given number of seats to the given inventory, once for each of the given seats, in that seat's cabin
+     * class.
+     *
+     * @param inventory the inventory to update
+     * @param seats     the seats being booked (delta of -1) or released (delta of 1)
+     * @param delta     the change to apply per seat
+     */
+    private void adjustSeatInventory(SeatInventory inventory, Collection<Seat> seats, int delta) {
+        for (Seat seat : seats) {
+            CabinClass cabinClass = findCabinClass(seat.getSeatCode());
+            if (cabinClass != null) {
+                inventory.adjust(cabinClass, delta);
+            }
+        }
+    }
+
+    /**
+     * Gets the cabin class of the seat with the given code on this flight's aircraft, or null if there's no such seat.
+     */
+    private CabinClass findCabinClass(String seatCode) {
+        for (SeatingZone zone : aircraftType.getSeatingZones()) {
+            if (zone.isValidSeatCode(seatCode)) {
+                return zone.getCabinClass();
+            }
+        }
+        return null;
+    }
+
 }
\ No newline at end of file
@@ -1,18 +1,58 @@
 package se325.flights.domain;
 
 import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.QueryHints;
 
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
- * Represents a booking by a particular {@link User} on a particular {@link Flight}.
+ * Represents a booking by a particular {@link User} on a particular {@link Flight}. Bookings are indexed by both, as
+ * they're looked up both ways.
+ * <p>
+ * Booking ids come from a sequence, a block at a time, rather than an identity column - so Hibernate knows a new
+ * booking's id without inserting it straight away, and can batch the booking's inserts (its row, then all of its seats)
+ * at flush time.
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "IDX_FLIGHT_BOOKING_USER", columnList = "user_id"),
+        @Index(name = "IDX_FLIGHT_BOOKING_FLIGHT", columnList = "flight_id")
+})
+@NamedQueries({
+        @NamedQuery(name = FlightBooking.FIND_BY_USER_WITH_DETAILS,
+                query = "select distinct b from FlightBooking b "
+                        + "join fetch b.flight f join fetch f.origin join fetch f.destination join fetch f.aircraftType "
+                        + "left join fetch b.seats "
+                        + "where b.user.id = :userId order by f.departureTime, b.id",
+                hints = {
+                        @QueryHint(name = QueryHints.PASS_DISTINCT_THROUGH, value = "false"),
+                        @QueryHint(name = QueryHints.READ_ONLY, value = "true")
+                }),
+        @NamedQuery(name = FlightBooking.FIND_BY_ID_AND_USER,
+                query = "select b from FlightBooking b where b.id = :id and b.user.id = :userId",
+                hints = @QueryHint(name = QueryHints.READ_ONLY, value = "true")),
+        @NamedQuery(name = FlightBooking.FIND_BOOKED_SEATS,
+                query = "select s.rowNumber, s.letterCode from FlightBooking b join b.seats s where b.flight.id = :flightId"),
+        @NamedQuery(name = FlightBooking.FIND_BOOKED_SEATS_FOR_FLIGHTS,
+                query = "select b.flight.id, s.rowNumber, s.letterCode from FlightBooking b join b.seats s "
+                        + "where b.flight.id in :flightIds")
+})
 public class FlightBooking {
+
+    /**
+     * Finds the given user's bookings in order of departure, along with everything needed to show them - their
+     * flights, those flights' airports and aircraft types, and their seats - in a single statement.
+     */
+    public static final String FIND_BY_USER_WITH_DETAILS = "FlightBooking.findByUserWithDetails";
+    public static final String FIND_BY_ID_AND_USER = "FlightBooking.findByIdAndUser";
+    public static final String FIND_BOOKED_SEATS = "FlightBooking.findBookedSeats";
+    public static final String FIND_BOOKED_SEATS_FOR_FLIGHTS = "FlightBooking.findBookedSeatsForFlights";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flightBookingIds")
+    @SequenceGenerator(name = "flightBookingIds", sequenceName = "FLIGHT_BOOKING_SEQ", allocationSize = 50)
     private Long id;
     @ManyToOne(fetch = FetchType.LAZY)
     private Flight flight;
@@ -21,6 +61,7 @@ public class FlightBooking {
 
     //dependent lifecycle association, as FlightBooking is the owner of the value type Seat
     @ElementCollection
+    @CollectionTable(indexes = @Index(name = "IDX_FLIGHT_BOOKING_SEATS_BOOKING", columnList = "FlightBooking_id"))
     @org.hibernate.annotations.Fetch(FetchMode.SUBSELECT)
     private Set<Seat> seats = new HashSet<>();
 
@@ -0,0 +1,150 @@
+package se325.flights.domain;
+
+import se325.flights.CabinClass;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Represents the number of unbooked seats remaining on a particular {@link Flight}, per {@link CabinClass}. These
+ * counters are stored as columns on the flight itself, and are kept up to date by
+ * {@link Flight#makeBooking(User, String...)} and {@link Flight#removeBooking(FlightBooking)}, so that availability
+ * can be read without loading every booking on the flight.
+ */
+@Embeddable
+@Access(AccessType.FIELD)
+public class SeatInventory {
+
+    // Nullable so that flights can be inserted without their counters - see Flight#getSeatInventory()
+    @Column(nullable = true)
+    private int economySeatsRemaining;
+    @Column(nullable = true)
+    private int premiumSeatsRemaining;
+    @Column(nullable = true)
+    private int businessSeatsRemaining;
+    @Column(nullable = true)
+    private int firstClassSeatsRemaining;
+
+    /**
+     * Default constructor, required by JPA / Hibernate
+     */
+    public SeatInventory() {
+
+    }
+
+    /**
+     * Creates a new SeatInventory for an aircraft on which no seats have yet been booked.
+     *
+     * @param aircraftType the aircraft whose seats should be counted
+     */
+    public SeatInventory(AircraftType aircraftType) {
+        for (CabinClass cabinClass : CabinClass.values()) {
+            set(cabinClass, aircraftType.getTotalNumSeats(cabinClass));
+        }
+    }
+
+    /**
+     * Gets the number of unbooked seats of the given cabin class. If the given cabin class is null, returns the number
+     * of unbooked seats of all classes.
+     *
+     * @param cabinClass the cabin class to check
+     * @return the number of unbooked seats
+     */
+    public int getSeatsRemaining(CabinClass cabinClass) {
+        if (cabinClass == null) {
+            return getTotalSeatsRemaining();
+        }
+        switch (cabinClass) {
+            case Economy:
+                return economySeatsRemaining;
+            case Premium:
+                return premiumSeatsRemaining;
+            case Business:
+                return businessSeatsRemaining;
+            case FirstClass:
+                return firstClassSeatsRemaining;
+            default:
+                throw new IllegalArgumentException("Unknown cabin class: " + cabinClass);
+        }
+    }
+
+    /**
+     * Gets the number of unbooked seats of all classes.
+     *
+     * @return the number of unbooked seats
+     */
+    public int getTotalSeatsRemaining() {
+        return economySeatsRemaining + premiumSeatsRemaining + businessSeatsRemaining + firstClassSeatsRemaining;
+    }
+
+    /**
+     * Gets the number of unbooked seats in each of the given cabin classes, mapped by cabin class. Every given cabin
+     * class is included, even those which are fully booked.
+     *
+     * @param cabinClasses the cabin classes to include, e.g. those a flight is priced for
+     * @return a map, mapping cabin classes to their number of unbooked seats
+     */
+    public Map<CabinClass, Integer> asMap(Collection<CabinClass> cabinClasses) {
+        Map<CabinClass, Integer> remaining = new EnumMap<>(CabinClass.class);
+        for (CabinClass cabinClass : cabinClasses) {
+            remaining.put(cabinClass, getSeatsRemaining(cabinClass));
+        }
+        return remaining;
+    }
+
+    /**
+     * Adds the given (possibly negative) number of seats to the count for the given cabin class.
+     *
+     * @param cabinClass the cabin class to adjust
+     * @param delta      the number of seats to add
+     */
+    void adjust(CabinClass cabinClass, int delta) {
+        set(cabinClass, getSeatsRemaining(cabinClass) + delta);
+    }
+
+    private void set(CabinClass cabinClass, int seats) {
+        switch (cabinClass) {
+            case Economy:
+                economySeatsRemaining = seats;
+                break;
+            case Premium:
+                premiumSeatsRemaining = seats;
+                break;
+            case Business:
+                businessSeatsRemaining = seats;
+                break;
+            case FirstClass:
+                firstClassSeatsRemaining = seats;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cabin class: " + cabinClass);
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the given object is equal to this one. The object is considered equal if it is
+     * also a SeatInventory instance, with the same number of seats remaining in each cabin class.
+     *
+     * @param other the object to check
+     * @return true if the object is equal, false otherwise.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (other == null || getClass() != other.getClass()) return false;
+        SeatInventory that = (SeatInventory) other;
+        return economySeatsRemaining == that.economySeatsRemaining && premiumSeatsRemaining == that.premiumSeatsRemaining
+                && businessSeatsRemaining == that.businessSeatsRemaining && firstClassSeatsRemaining == that.firstClassSeatsRemaining;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(economySeatsRemaining, premiumSeatsRemaining, businessSeatsRemaining, firstClassSeatsRemaining);
+    }
+}
@@ -0,0 +1,197 @@
+package se325.flights.domain;
+
+import se325.flights.CabinClass;
+import se325.flights.dto.SeatMapRowDTO;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, pre-compiled seat map layout for a particular {@link AircraftType}. A template is built once from an
+ * aircraft's {@link SeatingZone}s, and lays its seats out in a grid of rows x seat letters. Every seat on the aircraft
+ * is given an index, so that the booked seats on a particular flight can be represented as a {@link BitSet} and
+ * overlaid on the template when rendering.
+ * <p>
+ * Templates are cached per aircraft type - use {@link #forAircraft(AircraftType)} to obtain one.
+ */
+public final class SeatMapTemplate {
+
+    private static final Map<Long, SeatMapTemplate> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Marks a grid cell which doesn't contain a seat
+     */
+    private static final int NO_SEAT = -1;
+
+    private final String letters;
+    private final List<Row> rows;
+    private final int firstRowNumber;
+    private final int[] letterColumns = new int[128];
+    private final int[][] seatIndices;
+    private final int numSeats;
+
+    /**
+     * Gets the template for the given aircraft type, compiling and caching it if this is the first time it has been
+     * requested.
+     *
+     * @param aircraftType the aircraft type
+     * @return the aircraft's seat map template
+     */
+    public static SeatMapTemplate forAircraft(AircraftType aircraftType) {
+        return CACHE.computeIfAbsent(aircraftType.getId(), id -> new SeatMapTemplate(aircraftType.getSeatingZones()));
+    }
+
+    /**
+     * Discards all cached templates, so they'll be recompiled the next time they're requested. Should be called
+     * whenever aircraft layouts may have changed.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    private SeatMapTemplate(Collection<SeatingZone> zones) {
+
+        // Collect the seat letters used anywhere on the aircraft, in order, and the range of row numbers
+        SortedSet<Character> letterSet = new TreeSet<>();
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        for (SeatingZone zone : zones) {
+            for (char letter : zone.getSeatCodeData().toCharArray()) {
+                letterSet.add(letter);
+            }
+            minRow = Math.min(minRow, zone.getStartingRowNumber());
+            maxRow = Math.max(maxRow, zone.getStartingRowNumber() + zone.getNumRows() - 1);
+        }
+        if (zones.isEmpty()) {
+            minRow = maxRow = 0;
+        }
+
+        StringBuilder letterBuilder = new StringBuilder();
+        Arrays.fill(letterColumns, NO_SEAT);
+        for (char letter : letterSet) {
+            letterColumns[letter] = letterBuilder.length();
+            letterBuilder.append(letter);
+        }
+        this.letters = letterBuilder.toString();
+        this.firstRowNumber = minRow;
+        this.seatIndices = new int[maxRow - minRow + 1][letters.length()];
+        for (int[] rowIndices : seatIndices) {
+            Arrays.fill(rowIndices, NO_SEAT);
+        }
+
+        // Lay out each row, one template row per (row number, cabin class) pair
+        SortedMap<Integer, Map<CabinClass, char[]>> cells = new TreeMap<>();
+        for (SeatingZone zone : zones) {
+            for (int rowNumber = zone.getStartingRowNumber(); rowNumber < zone.getStartingRowNumber() + zone.getNumRows(); rowNumber++) {
+                char[] rowCells = cells.computeIfAbsent(rowNumber, r -> new EnumMap<>(CabinClass.class))
+                        .computeIfAbsent(zone.getCabinClass(), c -> emptyRow(letters.length()));
+                for (char letter : zone.getSeatCodeData().toCharArray()) {
+                    rowCells[letterColumns[letter]] = SeatMapRowDTO.AVAILABLE;
+                }
+            }
+        }
+
+        List<Row> rowList = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<Integer, Map<CabinClass, char[]>> rowEntry : cells.entrySet()) {
+            int rowNumber = rowEntry.getKey();
+            for (Map.Entry<CabinClass, char[]> classEntry : rowEntry.getValue().entrySet()) {
+                char[] rowCells = classEntry.getValue();
+                int[] rowIndices = seatIndices[rowNumber - firstRowNumber];
+                for (int column = 0; column < rowCells.length; column++) {
+                    if (rowCells[column] != SeatMapRowDTO.NO_SEAT && rowIndices[column] == NO_SEAT) {
+                        rowIndices[column] = index++;
+                    }
+                }
+                rowList.add(new Row(rowNumber, classEntry.getKey(), rowCells));
+            }
+        }
+        this.rows = Collections.unmodifiableList(rowList);
+        this.numSeats = index;
+    }
+
+    private static char[] emptyRow(int length) {
+        char[] row = new char[length];
+        Arrays.fill(row, SeatMapRowDTO.NO_SEAT);
+        return row;
+    }
+
+    /**
+     * Gets the seat letters for each column of the grid, in order.
+     */
+    public String getLetters() {
+        return letters;
+    }
+
+    /**
+     * Gets the rows of the grid, ordered by row number.
+     */
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the total number of seats on the aircraft. Seat indices range from 0 to (numSeats - 1).
+     */
+    public int getNumSeats() {
+        return numSeats;
+    }
+
+    /**
+     * Gets the index of the seat with the given row number and letter.
+     *
+     * @param rowNumber the seat's row number
+     * @param letter    the seat's letter
+     * @return the index of the seat, or -1 if there's no such seat on the aircraft
+     */
+    public int indexOf(int rowNumber, char letter) {
+        int row = rowNumber - firstRowNumber;
+        if (row < 0 || row >= seatIndices.length || letter >= letterColumns.length || letterColumns[letter] == NO_SEAT) {
+            return NO_SEAT;
+        }
+        return seatIndices[row][letterColumns[letter]];
+    }
+
+    /**
+     * Renders the cells of the given row, with the seats whose indices are set in the given bitmap marked as booked.
+     * The returned array is newly allocated, and belongs to the caller.
+     *
+     * @param row    the row to render - must be one of this template's rows
+     * @param booked a bitmap of booked seat indices
+     * @return the row's cells, as the {@link SeatMapRowDTO} status characters
+     */
+    public char[] render(Row row, BitSet booked) {
+        char[] rendered = row.cells.clone();
+        int[] rowIndices = seatIndices[row.rowNumber - firstRowNumber];
+        for (int column = 0; column < rendered.length; column++) {
+            if (rendered[column] != SeatMapRowDTO.NO_SEAT && booked.get(rowIndices[column])) {
+                rendered[column] = SeatMapRowDTO.BOOKED;
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * A single row of a {@link SeatMapTemplate}. If a row number contains seats from more than one cabin class, there
+     * will be one Row for each class.
+     */
+    public static final class Row {
+        private final int rowNumber;
+        private final CabinClass cabinClass;
+        private final char[] cells;
+
+        private Row(int rowNumber, CabinClass cabinClass, char[] cells) {
+            this.rowNumber = rowNumber;
+            this.cabinClass = cabinClass;
+            this.cells = cells;
+        }
+
+        public int getRowNumber() {
+            return rowNumber;
+        }
+
+        public CabinClass getCabinClass() {
+            return cabinClass;
+        }
+    }
+}
@@ -9,10 +9,32 @@ import java.util.Set;
 /**
  * Represents a user of the system. Users are capable of authenticating and making {@link FlightBooking}s on
  * {@link Flight}s.
+ * <p>
+ * Usernames are unique, as are auth tokens (while set) - and both are indexed, as users are looked up by them.
  */
 
 @Entity
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = "UK_USER_USERNAME", columnNames = "username"),
+        @UniqueConstraint(name = "UK_USER_AUTH_TOKEN", columnNames = "authToken")
+})
+@NamedQueries({
+        @NamedQuery(name = User.FIND_BY_USERNAME,
+                query = "select u from User u where u.username = :username"),
+        @NamedQuery(name = User.FIND_BY_CREDENTIALS,
+                query = "select u from User u where u.username = :username and u.passHash = :passHash"),
+        @NamedQuery(name = User.FIND_ID_BY_AUTH_TOKEN,
+                query = "select u.id from User u where u.authToken = :authToken"),
+        @NamedQuery(name = User.CLEAR_AUTH_TOKEN,
+                query = "update User u set u.authToken = null where u.authToken = :authToken")
+})
 public class User {
+
+    public static final String FIND_BY_USERNAME = "User.findByUsername";
+    public static final String FIND_BY_CREDENTIALS = "User.findByCredentials";
+    public static final String FIND_ID_BY_AUTH_TOKEN = "User.findIdByAuthToken";
+    public static final String CLEAR_AUTH_TOKEN = "User.clearAuthToken";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
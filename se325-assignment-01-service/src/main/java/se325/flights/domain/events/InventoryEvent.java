@@ -0,0 +1,59 @@
+package se325.flights.domain.events;
+
+import se325.flights.CabinClass;
+import se325.flights.domain.Flight;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Something which happened to the seat inventory of a {@link Flight}. Events are recorded by the flight as the change
+ * is made, and published once the transaction making it has committed - so consumers only ever see changes which
+ * actually happened.
+ * <p>
+ * Events are immutable, so can be handed to any number of consumers on any thread.
+ */
+public abstract class InventoryEvent {
+
+    private final Long flightId;
+    private final Long userId;
+    private final List<String> seatCodes;
+    private final Map<CabinClass, Integer> seatsByCabinClass;
+
+    protected InventoryEvent(Long flightId, Long userId, List<String> seatCodes, Map<CabinClass, Integer> seatsByCabinClass) {
+        this.flightId = flightId;
+        this.userId = userId;
+        this.seatCodes = List.copyOf(seatCodes);
+        this.seatsByCabinClass = Collections.unmodifiableMap(new EnumMap<>(seatsByCabinClass));
+    }
+
+    public Long getFlightId() {
+        return flightId;
+    }
+
+    /**
+     * Gets the id of the user whose booking the seats belong to.
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    public List<String> getSeatCodes() {
+        return seatCodes;
+    }
+
+    /**
+     * Gets the number of seats affected in each cabin class. Only cabin classes with at least one affected seat are
+     * included.
+     */
+    public Map<CabinClass, Integer> getSeatsByCabinClass() {
+        return seatsByCabinClass;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{flightId=" + flightId + ", userId=" + userId + ", seatCodes=" + seatCodes + "}";
+    }
+}
@@ -0,0 +1,16 @@
+package se325.flights.domain.events;
+
+import se325.flights.CabinClass;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Published when seats on a flight have been booked.
+ */
+public final class SeatsBooked extends InventoryEvent {
+
+    public SeatsBooked(Long flightId, Long userId, List<String> seatCodes, Map<CabinClass, Integer> seatsByCabinClass) {
+        super(flightId, userId, seatCodes, seatsByCabinClass);
+    }
+}
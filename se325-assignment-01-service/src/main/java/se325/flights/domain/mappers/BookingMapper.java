@@ -1,5 +1,6 @@
 package se325.flights.domain.mappers;
 
+import se325.flights.domain.ArchivedBooking;
 import se325.flights.domain.FlightBooking;
 import se325.flights.domain.Seat;
 import se325.flights.dto.FlightBookingDTO;
@@ -8,7 +9,7 @@ import java.util.Comparator;
 import java.util.stream.Collectors;
 
 /**
- * A mapper to convert between {@link FlightBooking} and {@link FlightBookingDTO} instances
+ * A mapper to convert between {@link FlightBooking} (or {@link ArchivedBooking}) and {@link FlightBookingDTO} instances
  */
 public class BookingMapper {
 
@@ -26,4 +27,18 @@ public class BookingMapper {
         return dto;
     }
 
+    public static FlightBookingDTO toDTO(ArchivedBooking archivedBooking) {
+        FlightBookingDTO dto = new FlightBookingDTO(
+                archivedBooking.getId(),
+                FlightMapper.toDTO(archivedBooking.getFlight()),
+                archivedBooking.getSeats().stream()
+                        .sorted(Comparator.naturalOrder())
+                        .map(Seat::getSeatCode)
+                        .collect(Collectors.toList())
+        );
+
+        dto.setTotalCost(archivedBooking.getSeats().stream().mapToInt(Seat::getPrice).sum());
+        return dto;
+    }
+
 }
@@ -1,15 +1,24 @@
 package se325.flights.domain.mappers;
 
+import se325.flights.CabinClass;
+import se325.flights.domain.ArchivedFlight;
 import se325.flights.domain.Flight;
 import se325.flights.domain.Seat;
+import se325.flights.domain.SeatMapTemplate;
 import se325.flights.dto.BookingInfoDTO;
 import se325.flights.dto.FlightDTO;
+import se325.flights.dto.SeatMapDTO;
+import se325.flights.dto.SeatMapRowDTO;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- * A mapper to convert between {@link Flight} and {@link FlightDTO} or {@link BookingInfoDTO} instances
+ * A mapper to convert between {@link Flight} and {@link FlightDTO}, {@link BookingInfoDTO} or {@link SeatMapDTO}
+ * instances. Archived flights are converted to {@link FlightDTO}s in just the same way.
  */
 public class FlightMapper {
 
@@ -25,6 +34,18 @@ public class FlightMapper {
         );
     }
 
+    public static FlightDTO toDTO(ArchivedFlight archivedFlight) {
+        return new FlightDTO(
+                archivedFlight.getId(),
+                archivedFlight.getName(),
+                archivedFlight.getDepartureTime(),
+                AirportMapper.toDTO(archivedFlight.getOrigin()),
+                archivedFlight.getArrivalTime(),
+                AirportMapper.toDTO(archivedFlight.getDestination()),
+                archivedFlight.getAircraftType().getName()
+        );
+    }
+
     public static BookingInfoDTO toBookingInfoDTO(Flight domainFlight) {
         return new BookingInfoDTO(
                 AircraftMapper.toDTO(domainFlight.getAircraftType()),
@@ -32,4 +53,26 @@ public class FlightMapper {
                 domainFlight.getSeatPricings()
         );
     }
+
+    /**
+     * Renders a seat map for the given flight, by overlaying the given bitmap of booked seats on the flight's seat map
+     * template.
+     *
+     * @param domainFlight the flight
+     * @param template     the seat map template for the flight's aircraft
+     * @param booked       a bitmap of booked seat indices, as given by {@link SeatMapTemplate#indexOf(int, char)}
+     */
+    public static SeatMapDTO toSeatMapDTO(Flight domainFlight, SeatMapTemplate template, BitSet booked) {
+        Map<CabinClass, Integer> pricings = domainFlight.getSeatPricings();
+        List<SeatMapRowDTO> rows = new ArrayList<>(template.getRows().size());
+        for (SeatMapTemplate.Row row : template.getRows()) {
+            rows.add(new SeatMapRowDTO(
+                    row.getRowNumber(),
+                    row.getCabinClass(),
+                    pricings.getOrDefault(row.getCabinClass(), 0),
+                    new String(template.render(row, booked))
+            ));
+        }
+        return new SeatMapDTO(AircraftMapper.toDTO(domainFlight.getAircraftType()), template.getLetters(), rows);
+    }
 }
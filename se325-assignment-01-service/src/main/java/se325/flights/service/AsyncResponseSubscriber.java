@@ -0,0 +1,31 @@
+package se325.flights.service;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+/**
+ * A {@link Subscriber} which is a single suspended HTTP request, waiting on a single subscription.
+ */
+final class AsyncResponseSubscriber implements Subscriber {
+
+    private final AsyncResponse response;
+
+    AsyncResponseSubscriber(AsyncResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    public boolean resume(Subscription subscription, Response response) {
+        return this.response.resume(response);
+    }
+
+    @Override
+    public void cancel(Subscription subscription) {
+        response.cancel();
+    }
+
+    @Override
+    public boolean isDone() {
+        return response.isDone();
+    }
+}
@@ -0,0 +1,100 @@
+package se325.flights.service;
+
+import se325.flights.util.SecurityUtils;
+
+import javax.annotation.Priority;
+import javax.persistence.EntityManager;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.ext.Provider;
+import java.security.Principal;
+
+/**
+ * Authenticates requests to {@link Secured} resources by their authToken cookie, once per request and before any
+ * resource code runs. Requests without a valid token get a 401 response. Otherwise, the user is put in the request's
+ * {@link SecurityContext} as a {@link UserPrincipal}.
+ * <p>
+ * Tokens which can be checked in memory (see {@link SecurityUtils#getCachedUserIdWithAuthToken}) don't touch the
+ * database at all - an entity manager is only created when a token has to be looked up.
+ */
+@Provider
+@Secured
+@Priority(Priorities.AUTHENTICATION)
+public class AuthenticationFilter implements ContainerRequestFilter {
+
+    private static final String AUTH_TOKEN = "authToken";
+    private static final String AUTHENTICATION_SCHEME = "Cookie";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Cookie cookie = requestContext.getCookies().get(AUTH_TOKEN);
+        long userId;
+        try {
+            userId = authenticate(cookie);
+        } catch (NotAuthorizedException e) {
+            // status code:401 returned
+            requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
+        }
+
+        requestContext.setSecurityContext(new UserSecurityContext(new UserPrincipal(userId),
+                requestContext.getSecurityContext()));
+    }
+
+    /**
+     * Gets the id of the user with the given auth cookie, only creating an entity manager if it has to be looked up.
+     *
+     * @throws NotAuthorizedException if there's no such user
+     */
+    static long authenticate(Cookie cookie) throws NotAuthorizedException {
+        Long userId = SecurityUtils.getCachedUserIdWithAuthToken(cookie);
+        if (userId != null) {
+            return userId;
+        }
+
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            return SecurityUtils.lookUpUserIdWithAuthToken(em, cookie);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * A security context for a request made by an authenticated user. Users don't have roles.
+     */
+    private static final class UserSecurityContext implements SecurityContext {
+        private final UserPrincipal principal;
+        private final SecurityContext original;
+
+        private UserSecurityContext(UserPrincipal principal, SecurityContext original) {
+            this.principal = principal;
+            this.original = original;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure() {
+            return original != null && original.isSecure();
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return AUTHENTICATION_SCHEME;
+        }
+    }
+}
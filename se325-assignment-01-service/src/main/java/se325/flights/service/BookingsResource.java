@@ -8,7 +8,6 @@ import se325.flights.domain.mappers.FlightMapper;
 import se325.flights.dto.BookingRequestDTO;
 import se325.flights.dto.FlightBookingDTO;
 import se325.flights.dto.FlightDTO;
-import se325.flights.util.SecurityUtils;
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
 import javax.persistence.TypedQuery;
@@ -19,9 +18,11 @@ import java.util.*;
 
 /**
  * A JAX-RS Resource class intended to contain methods with making and cancelling flight bookings, in
- * addition to retrieving information about existing flight bookings.
+ * addition to retrieving information about existing flight bookings. Every endpoint is only available
+ * to authenticated users.
  */
 @Path("/bookings")
+@Secured
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class BookingsResource {
@@ -34,27 +35,20 @@ public class BookingsResource {
      *
      * The header of the response provides the URL of the newly created Flight booking resource if
      * successful.
-     * @param cookie
+     * @param securityContext
      * @param bookingRequestDTO
      * @return
      */
     @POST
-    public Response makeBooking(@CookieParam("authToken") Cookie cookie, BookingRequestDTO bookingRequestDTO){
+    public Response makeBooking(@Context SecurityContext securityContext, BookingRequestDTO bookingRequestDTO){
 
+        long userId = UserPrincipal.of(securityContext).getId();
         EntityManager em = PersistenceManager.instance().createEntityManager();
-        User user;
         try {
-            // authorize user
-            em.getTransaction().begin();
-            user = SecurityUtils.getUserWithAuthToken(em,cookie);
-            em.getTransaction().commit();
-
-
-            // search for the flight using its id given by the input dto
-            // third parameter for concurrency control -> explain in report
+            // search for the flight using its id given by the input dto. The lock is held until the booking is
+            // committed, so that concurrent bookings can't double-book seats or lose updates to the seat counters
             em.getTransaction().begin();
             Flight flight = em.find(Flight.class, bookingRequestDTO.getFlightId(), LockModeType.PESSIMISTIC_WRITE);
-            em.getTransaction().commit();
 
             if (flight == null) {
                 // 404 status code returned and no payload
@@ -62,10 +56,14 @@ public class BookingsResource {
             }
 
             // if flight is found then make the booking
+            // the booking belongs to the user, so only now do we need to load them
+            User user = em.find(User.class, userId);
             FlightBooking flightBooking = flight.makeBooking(user,bookingRequestDTO.getRequestedSeats());
 
-            // persist in db
-            em.getTransaction().begin();
+            // make sure the booking leaves enough seats for anyone else's waitlist holds
+            SubscriptionManager.instance().checkHeldSeats(flight.getId(), userId, flight.getSeatInventory());
+
+            // persist in db, along with the flight's updated seat counters
             em.persist(flightBooking);
             em.getTransaction().commit();
 
@@ -73,12 +71,12 @@ public class BookingsResource {
             return Response.created(URI.create("/bookings/" + flightBooking.getId())).build();
 
         } catch (BookingException e) {
-            // if seat codes are already booked then return 409 status code
+            // if seat codes are already booked (or held for someone else) then return 409 status code
             throw new WebApplicationException(Response.Status.CONFLICT);
-        } catch(NotAuthorizedException e){
-            // status code 401: unauthorized
-            throw new WebApplicationException(Response.Status.UNAUTHORIZED);
-        }finally {
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
             em.close();
         }
 
@@ -87,83 +85,86 @@ public class BookingsResource {
     /**
      * Endpoint returns the details of all the flight bookings made by an authenticated user, the
      * details of the user required for the query are obtained using the authentication cookie supplied in
-     * the header.
-     * @param cookie
+     * the header. Bookings on flights which have been archived (see {@link FlightArchiver}) are included,
+     * so the user sees their whole history, in order of departure.
+     * @param securityContext
      * @return
      */
     @GET
-    public List<FlightBookingDTO> getUserBookings(@CookieParam("authToken") Cookie cookie){
-        EntityManager em = PersistenceManager.instance().createEntityManager();
-        User user;
-        try {
-            // authorize user
-            em.getTransaction().begin();
-            user = SecurityUtils.getUserWithAuthToken(em,cookie);
-            em.getTransaction().commit();
-
-            // retrieve all the FlightBookings of the user
-            Set<FlightBooking> userFlightBookings = user.getBookings();
-
-            // convert the set to a list of FlightBookingDtos
-            List<FlightBookingDTO> unsortedUserFlightBookingsDto = new ArrayList<>();
+    public List<FlightBookingDTO> getUserBookings(@Context SecurityContext securityContext){
+        long userId = UserPrincipal.of(securityContext).getId();
+        return PersistenceManager.instance().inReadOnlyTransaction(em -> {
+            // retrieve all the FlightBookings of the user, in order of departure, with everything the dtos need
+            List<FlightBooking> userFlightBookings = em.createNamedQuery(
+                            FlightBooking.FIND_BY_USER_WITH_DETAILS, FlightBooking.class)
+                    .setParameter("userId", userId)
+                    .getResultList();
+
+            // and likewise the ones which have been archived
+            List<ArchivedBooking> userArchivedBookings = em.createNamedQuery(
+                            ArchivedBooking.FIND_BY_USER_WITH_DETAILS, ArchivedBooking.class)
+                    .setParameter("userId", userId)
+                    .getResultList();
+
+            // convert both lists to a list of FlightBookingDtos. Each is already in order, but flights which have
+            // departed may not all have been archived yet, so they're merged
+            List<FlightBookingDTO> userFlightBookingsDto = new ArrayList<>();
+            for (ArchivedBooking ab : userArchivedBookings){
+                userFlightBookingsDto.add(BookingMapper.toDTO(ab));
+            }
             for (FlightBooking fb : userFlightBookings){
-                unsortedUserFlightBookingsDto.add(BookingMapper.toDTO(fb));
+                userFlightBookingsDto.add(BookingMapper.toDTO(fb));
             }
-
-            //sort the list by departure time in ascending order
-            List<FlightBookingDTO> sortedFlightBookingsDto = sortCollectionByDepartureTIme(unsortedUserFlightBookingsDto);
-
-            return sortedFlightBookingsDto;
-
-        } finally {
-            em.close();
-        }
+            if (!userArchivedBookings.isEmpty() && !userFlightBookings.isEmpty()) {
+                userFlightBookingsDto.sort(Comparator
+                        .comparing((FlightBookingDTO dto) -> dto.getFlight().getDepartureTime())
+                        .thenComparing(FlightBookingDTO::getId));
+            }
+            return userFlightBookingsDto;
+        });
     }
 
     /**
      * Retrieve single flight booking details for a booking made by the authenticated user, using the flight booking id
      * specified as a query parameter.
      * @param id
-     * @param cookie
+     * @param securityContext
      * @return
      */
     @GET
     @Path("/{id}")
-    public FlightBookingDTO getSingleUserBooking(@PathParam("id") long id, @CookieParam("authToken") Cookie cookie){
-        EntityManager em = PersistenceManager.instance().createEntityManager();
-        User user;
-        try {
-            // authorize user
-            em.getTransaction().begin();
-            user = SecurityUtils.getUserWithAuthToken(em,cookie);
-            em.getTransaction().commit();
-
+    public FlightBookingDTO getSingleUserBooking(@PathParam("id") long id, @Context SecurityContext securityContext){
+        long userId = UserPrincipal.of(securityContext).getId();
+        return PersistenceManager.instance().inReadOnlyTransaction(em -> {
             // jqpl query -> join on user and flightbookings for user id field
-            em.getTransaction().begin();
-            TypedQuery<FlightBooking> matchFlightQuery = em.createQuery(
-                            "select f from FlightBooking f where f.id = :fid and f.user.id = :uid", FlightBooking.class)
-                    .setParameter("fid", id)
-                    .setParameter("uid", user.getId());
+            TypedQuery<FlightBooking> matchFlightQuery = em.createNamedQuery(
+                            FlightBooking.FIND_BY_ID_AND_USER, FlightBooking.class)
+                    .setParameter("id", id)
+                    .setParameter("userId", userId);
 
 
             List<FlightBooking> matchFlightBooking = matchFlightQuery.getResultList();
 
-            // if it is not found then return 404 status code
+            // if it is not found then it may have been archived, along with its flight
             if (matchFlightBooking.isEmpty()){
-                // 404
-                em.getTransaction().commit();
-                throw new WebApplicationException(Response.Status.NOT_FOUND);
+                List<ArchivedBooking> matchArchivedBooking = em.createNamedQuery(
+                                ArchivedBooking.FIND_BY_ID_AND_USER, ArchivedBooking.class)
+                        .setParameter("id", id)
+                        .setParameter("userId", userId)
+                        .getResultList();
+
+                // if it is not found there either then return 404 status code
+                if (matchArchivedBooking.isEmpty()){
+                    // 404
+                    throw new WebApplicationException(Response.Status.NOT_FOUND);
+                }
+                return BookingMapper.toDTO(matchArchivedBooking.get(0));
             }
 
-            em.getTransaction().commit();
-
             // else convert to dto and return
             // implicit 200 status code returned by jax-rs
             return BookingMapper.toDTO(matchFlightBooking.get(0));
-
-        } finally {
-            em.close();
-        }
+        });
     }
 
     /**
@@ -171,22 +172,16 @@ public class BookingsResource {
      * now removing it, user can only delete their bookings and the endpoint can only be accessed
      * by an authenticated user.
      * @param id
-     * @param cookie
+     * @param securityContext
      * @return
      */
     @DELETE
     @Path("/{id}")
-    public Response deleteBooking(@PathParam("id") long id, @CookieParam("authToken") Cookie cookie){
+    public Response deleteBooking(@PathParam("id") long id, @Context SecurityContext securityContext){
 
-        // authorize user
+        long userId = UserPrincipal.of(securityContext).getId();
         EntityManager em = PersistenceManager.instance().createEntityManager();
-        User user;
         try {
-            // authorize user
-            em.getTransaction().begin();
-            user = SecurityUtils.getUserWithAuthToken(em,cookie);
-            em.getTransaction().commit();
-
             // check that the flight booking exists
             em.getTransaction().begin();
             FlightBooking fb = em.find(FlightBooking.class, id);
@@ -198,24 +193,18 @@ public class BookingsResource {
             }
 
             // check that the flightbooking belongs to the user if not 404
-            if (!fb.getUser().getId().equals(user.getId())){
+            if (fb.getUser().getId() != userId){
                 throw new NotFoundException();
             }
 
             // remove the flightBooking
+            // lock its flight by id, as the flight's seat counters are updated too
             em.getTransaction().begin();
-            TypedQuery<Flight> flightQuery = em.createQuery(
-                            "select f from Flight f where :fid member of f.bookings", Flight.class)
-                    .setParameter("fid", fb);
-
-            List<Flight> flight = flightQuery.getResultList();
+            Flight flight = em.find(Flight.class, fb.getFlight().getId(), LockModeType.PESSIMISTIC_WRITE);
 
-            flight.get(0).removeBooking(fb);
+            flight.removeBooking(fb);
             em.getTransaction().commit();
 
-            // check whether seats become available for a booking so that a response can be sent
-            SubscriptionManager.instance().processSubscriptions(flight.get(0).getId());
-
             // return 204 status code
             return Response.noContent().build();
 
@@ -224,20 +213,4 @@ public class BookingsResource {
         }
     }
 
-
-    /**
-     * Helper method to sort by departure time in ascending order by default
-     * @param flights
-     * @return
-     */
-    private List<FlightBookingDTO> sortCollectionByDepartureTIme(List<FlightBookingDTO> flights){
-        Collections.sort(flights, (f1, f2) -> {
-            if(f1.getFlight().getDepartureTime().equals(f2.getFlight().getDepartureTime())) {
-                return 0;
-            }
-            return f1.getFlight().getDepartureTime().isBefore(f2.getFlight().getDepartureTime()) ? -1 : 1;
-        });
-        return flights;
-    }
-
 }
@@ -0,0 +1,55 @@
+package se325.flights.service;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.Flight;
+import se325.flights.domain.events.InventoryEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Publishes the {@link InventoryEvent}s recorded by {@link Flight}s to the {@link EventBus}, once the transaction which
+ * made the changes has committed. Events are collected from every flight in the persistence context whenever it's
+ * flushed, and discarded if the transaction rolls back.
+ * <p>
+ * Hibernate creates one of these per session - see the {@code hibernate.session_factory.session_scoped_interceptor}
+ * property in persistence.xml.
+ */
+public class DomainEventInterceptor extends EmptyInterceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DomainEventInterceptor.class);
+
+    private final List<InventoryEvent> pending = new ArrayList<>();
+
+    @Override
+    public void preFlush(Iterator entities) {
+        while (entities.hasNext()) {
+            Object entity = entities.next();
+            if (entity instanceof Flight) {
+                pending.addAll(((Flight) entity).drainEvents());
+            }
+        }
+    }
+
+    @Override
+    public void afterTransactionCompletion(Transaction tx) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<InventoryEvent> events = new ArrayList<>(pending);
+        pending.clear();
+        if (tx.getStatus() == TransactionStatus.COMMITTED) {
+            try {
+                EventBus.instance().publishAll(events);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("Dropped " + events.size() + " event(s) published while shutting down");
+            }
+        }
+    }
+}
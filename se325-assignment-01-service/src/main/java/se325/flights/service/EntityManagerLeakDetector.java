@@ -0,0 +1,101 @@
+package se325.flights.service;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports EntityManagers which are never closed. Each one handed out by the {@link PersistenceManager} is tracked until
+ * it's closed; if it's garbage collected first, it was leaked - along with its persistence context, and possibly a
+ * pooled connection - so a warning is logged.
+ * <p>
+ * The warning says which thread opened the EntityManager. To find out where, set
+ * {@code flights.persistence.leakStackTraces} to true - each EntityManager's creation stack trace is then captured,
+ * which is too expensive to do all the time.
+ */
+final class EntityManagerLeakDetector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityManagerLeakDetector.class);
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final boolean captureStackTraces = Boolean.getBoolean("flights.persistence.leakStackTraces");
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicLong leaked = new AtomicLong();
+
+    /**
+     * Starts tracking the given, newly created EntityManager.
+     *
+     * @return the EntityManager
+     */
+    EntityManager track(EntityManager em) {
+        Tracker tracker = new Tracker(Thread.currentThread().getName(),
+                captureStackTraces ? new Throwable("EntityManager created here") : null);
+        em.unwrap(Session.class).addEventListeners(tracker);
+        tracker.cleanable = CLEANER.register(em, tracker);
+        open.incrementAndGet();
+        return em;
+    }
+
+    /**
+     * Gets the number of EntityManagers which have been created but not yet closed (or found to have leaked).
+     */
+    int getOpen() {
+        return open.get();
+    }
+
+    /**
+     * Gets the number of EntityManagers which were garbage collected without being closed.
+     */
+    long getLeaked() {
+        return leaked.get();
+    }
+
+    /**
+     * Hears when its EntityManager is closed, through Hibernate's session events, and is run by the cleaner once it's
+     * been garbage collected (or straight away, once it's closed). Mustn't refer to the EntityManager itself, or it
+     * would never be collected.
+     */
+    private final class Tracker extends BaseSessionEventListener implements Runnable {
+        private final String threadName;
+        private final Throwable creation;
+        private volatile Cleaner.Cleanable cleanable;
+        private volatile boolean closed;
+
+        private Tracker(String threadName, Throwable creation) {
+            this.threadName = threadName;
+            this.creation = creation;
+        }
+
+        @Override
+        public void end() {
+            closed = true;
+            Cleaner.Cleanable cleanable = this.cleanable;
+            if (cleanable != null) {
+                // No need to wait for it to be collected now
+                cleanable.clean();
+            }
+        }
+
+        @Override
+        public void run() {
+            // The cleaner runs this exactly once
+            open.decrementAndGet();
+            if (!closed) {
+                leaked.incrementAndGet();
+                if (creation != null) {
+                    LOGGER.warn("An EntityManager created on thread " + threadName + " was never closed", creation);
+                } else {
+                    LOGGER.warn("An EntityManager created on thread " + threadName + " was never closed (set "
+                            + "flights.persistence.leakStackTraces to find out where)");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.util.JmxUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An in-process bus for domain events, such as {@link se325.flights.domain.events.InventoryEvent}s. Publishers hand
+ * events to the bus and carry on, and a single dispatcher thread delivers them to every listener subscribed to their
+ * type. Singleton so that publishers and listeners share the same bus.
+ * <p>
+ * Events are held in a fixed-size ring buffer of {@code flights.events.bufferSize} slots (default 1024, rounded up to a
+ * power of two). Publishing claims a slot with a single atomic increment, so publishers never block one another. The
+ * dispatcher takes every event waiting in the buffer (up to {@code flights.events.maxBatchSize}, default 256) in one
+ * go and delivers them to each listener as a single batch, in the order they were published - so a burst of events for
+ * the same flight can be handled once. If the buffer is full, publishers wait for the dispatcher to catch up rather
+ * than dropping events.
+ * <p>
+ * Listeners are called on the dispatcher thread, so should hand any slow work off elsewhere. Counts of events and
+ * batches are available over JMX - see {@link EventBusMXBean}.
+ */
+public class EventBus implements EventBusMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBus.class);
+
+    private static final String MBEAN_NAME = "se325.flights:type=EventBus";
+
+    /**
+     * How long the dispatcher sleeps when there's nothing to do, before checking again
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static volatile EventBus instance;
+
+    public static EventBus instance() {
+        EventBus result = instance;
+        if (result == null) {
+            synchronized (EventBus.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new EventBus();
+                }
+            }
+        }
+        return result;
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int maxBatchSize = Integer.getInteger("flights.events.maxBatchSize", 256);
+    private final AtomicReferenceArray<Object> slots;
+
+    /**
+     * The sequence number of the next slot to be claimed by a publisher
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence number of the next slot to be taken by the dispatcher. Only written by the dispatcher.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private final List<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread dispatcher;
+    private volatile boolean idle;
+    private volatile boolean shuttingDown;
+
+    private final AtomicLong publishedEvents = new AtomicLong();
+    private final AtomicLong fullWaits = new AtomicLong();
+    private volatile long dispatchedEvents;
+    private volatile long dispatchedBatches;
+    private volatile int maxBatch;
+
+    private EventBus() {
+        int requested = Math.max(2, Integer.getInteger("flights.events.bufferSize", 1024));
+        this.capacity = Integer.highestOneBit(requested - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+
+        this.dispatcher = new Thread(this::dispatchLoop, "event-bus-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        JmxUtils.registerMBean(this, MBEAN_NAME);
+    }
+
+    /**
+     * Subscribes the given listener to all events of the given type (including subtypes). The listener is given each
+     * batch of matching events in the order they were published.
+     *
+     * @param type     the type of events to listen for
+     * @param listener the listener to call with each batch
+     */
+    public <E> void subscribe(Class<E> type, Consumer<List<E>> listener) {
+        listeners.add(new Listener<>(type, listener));
+    }
+
+    /**
+     * Publishes the given event, to be delivered to listeners on the dispatcher thread.
+     *
+     * @param event the event to publish
+     * @throws RejectedExecutionException if the bus has been shut down
+     */
+    public void publish(Object event) {
+        if (shuttingDown) {
+            throw new RejectedExecutionException("Event bus has been shut down");
+        }
+
+        long sequence = head.getAndIncrement();
+        if (sequence - tail.get() >= capacity) {
+            // The buffer is full - wait for the dispatcher to make room
+            fullWaits.incrementAndGet();
+            while (sequence - tail.get() >= capacity) {
+                LockSupport.unpark(dispatcher);
+                LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+
+        slots.set((int) (sequence & mask), event);
+        publishedEvents.incrementAndGet();
+        if (idle) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * Publishes each of the given events, in order.
+     */
+    public void publishAll(Collection<?> events) {
+        for (Object event : events) {
+            publish(event);
+        }
+    }
+
+    /**
+     * Stops accepting new events, and waits for those already published to be delivered.
+     *
+     * @return true if every event was delivered in time, false otherwise
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        shuttingDown = true;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JmxUtils.unregisterMBean(MBEAN_NAME);
+        return !dispatcher.isAlive();
+    }
+
+    /**
+     * Waits for every event published before this call to be delivered to its listeners. Returns straight away if
+     * called by a listener, as the dispatcher can't wait for itself.
+     *
+     * @return true if every event was delivered in time, false otherwise
+     */
+    public boolean awaitDispatched(long timeout, TimeUnit unit) {
+        if (Thread.currentThread() == dispatcher) {
+            return true;
+        }
+        long published = head.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (dispatchedEvents < published) {
+            if (System.nanoTime() - deadline >= 0 || !dispatcher.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(dispatcher);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    private void dispatchLoop() {
+        List<Object> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            long next = tail.get();
+            while (batch.size() < maxBatchSize) {
+                int slot = (int) (next & mask);
+                Object event = slots.get(slot);
+                if (event == null) {
+                    // Either nothing more has been published, or a publisher has claimed this slot but not filled it yet
+                    break;
+                }
+                slots.set(slot, null);
+                batch.add(event);
+                next++;
+            }
+
+            if (batch.isEmpty()) {
+                if (shuttingDown && next == head.get()) {
+                    return;
+                }
+                // Announce that we're going to sleep before checking once more, so a publisher can't miss waking us
+                idle = true;
+                if (slots.get((int) (next & mask)) == null) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+
+            tail.set(next);
+            dispatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void dispatch(List<Object> batch) {
+        for (Listener<?> listener : listeners) {
+            try {
+                listener.deliver(batch);
+            } catch (Exception ex) {
+                LOGGER.error("Event listener failed", ex);
+            }
+        }
+        dispatchedEvents += batch.size();
+        dispatchedBatches++;
+        maxBatch = Math.max(maxBatch, batch.size());
+    }
+
+    @Override
+    public int getBufferSize() {
+        return capacity;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return (int) Math.max(0, head.get() - tail.get());
+    }
+
+    @Override
+    public long getPublishedEvents() {
+        return publishedEvents.get();
+    }
+
+    @Override
+    public long getDispatchedEvents() {
+        return dispatchedEvents;
+    }
+
+    @Override
+    public long getDispatchedBatches() {
+        return dispatchedBatches;
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        long batches = dispatchedBatches;
+        return batches == 0 ? 0 : (double) dispatchedEvents / batches;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return maxBatch;
+    }
+
+    @Override
+    public long getFullWaits() {
+        return fullWaits.get();
+    }
+
+    /**
+     * A listener for a particular type of event
+     */
+    private static final class Listener<E> {
+        private final Class<E> type;
+        private final Consumer<List<E>> consumer;
+
+        private Listener(Class<E> type, Consumer<List<E>> consumer) {
+            this.type = type;
+            this.consumer = consumer;
+        }
+
+        private void deliver(List<Object> batch) {
+            List<E> matching = new ArrayList<>();
+            for (Object event : batch) {
+                if (type.isInstance(event)) {
+                    matching.add(type.cast(event));
+                }
+            }
+            if (!matching.isEmpty()) {
+                consumer.accept(matching);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package se325.flights.service;
+
+/**
+ * Management interface for the {@link EventBus}, exposing its throughput and batching over JMX.
+ */
+public interface EventBusMXBean {
+
+    /**
+     * Gets the number of events the ring buffer can hold.
+     */
+    int getBufferSize();
+
+    /**
+     * Gets the number of events which have been published but not yet dispatched.
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets the total number of events published.
+     */
+    long getPublishedEvents();
+
+    /**
+     * Gets the total number of events dispatched to listeners.
+     */
+    long getDispatchedEvents();
+
+    /**
+     * Gets the number of batches dispatched to listeners.
+     */
+    long getDispatchedBatches();
+
+    /**
+     * Gets the mean number of events in each dispatched batch.
+     */
+    double getMeanBatchSize();
+
+    /**
+     * Gets the largest number of events dispatched in a single batch.
+     */
+    int getMaxBatchSize();
+
+    /**
+     * Gets the number of times a publisher has had to wait because the ring buffer was full.
+     */
+    long getFullWaits();
+}
@@ -0,0 +1,178 @@
+package se325.flights.service;
+
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.ArchivedBooking;
+import se325.flights.domain.ArchivedFlight;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically moves flights which have departed, along with their bookings and booked seats, out of the live tables
+ * and into the archive ({@link ArchivedFlight}s and {@link ArchivedBooking}s). This keeps the live tables, and so every
+ * search, booking and index over them, sized by future inventory rather than by everything ever flown. Users' booking
+ * histories include their archived bookings, so nothing they can see changes. Singleton so that only one archival job
+ * is scheduled.
+ * <p>
+ * Flights are archived a chunk at a time, each chunk in its own transaction, so that no transaction grows with the
+ * size of the backlog. Each chunk is copied and deleted with set-based SQL - a handful of statements, however many
+ * bookings the flights have - with the flights locked so that they can't be booked while they're moved.
+ * <p>
+ * The interval between runs (in minutes) can be configured with the {@code flights.archive.intervalMinutes} system
+ * property. Archival is off by default (0), as every flight in the seed data has long since departed; it can still be
+ * run directly with {@link #archive(ZonedDateTime)}.
+ */
+public class FlightArchiver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightArchiver.class);
+
+    /**
+     * The number of flights to archive in each transaction
+     */
+    private static final int CHUNK_SIZE = 50;
+
+    private static final String COPY_FLIGHTS = "INSERT INTO ARCHIVEDFLIGHT "
+            + "(ID, NAME, DEPARTURETIME, ARRIVALTIME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID) "
+            + "SELECT ID, NAME, DEPARTURETIME, ARRIVALTIME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID "
+            + "FROM FLIGHT WHERE ID IN (:flightIds)";
+    private static final String COPY_BOOKINGS = "INSERT INTO ARCHIVEDBOOKING (ID, FLIGHT_ID, USER_ID) "
+            + "SELECT ID, FLIGHT_ID, USER_ID FROM FLIGHTBOOKING WHERE FLIGHT_ID IN (:flightIds)";
+    private static final String COPY_SEATS = "INSERT INTO ARCHIVEDBOOKING_SEATS "
+            + "(ARCHIVEDBOOKING_ID, ROWNUMBER, LETTERCODE, PRICE) "
+            + "SELECT S.FLIGHTBOOKING_ID, S.ROWNUMBER, S.LETTERCODE, S.PRICE "
+            + "FROM FLIGHTBOOKING_SEATS S JOIN FLIGHTBOOKING B ON B.ID = S.FLIGHTBOOKING_ID "
+            + "WHERE B.FLIGHT_ID IN (:flightIds)";
+    private static final String DELETE_SEATS = "DELETE FROM FLIGHTBOOKING_SEATS WHERE FLIGHTBOOKING_ID IN "
+            + "(SELECT ID FROM FLIGHTBOOKING WHERE FLIGHT_ID IN (:flightIds))";
+    private static final String DELETE_BOOKINGS = "DELETE FROM FLIGHTBOOKING WHERE FLIGHT_ID IN (:flightIds)";
+    private static final String DELETE_SEAT_PRICINGS =
+            "DELETE FROM FLIGHT_SEATPRICINGS WHERE FLIGHT_ID IN (:flightIds)";
+    private static final String DELETE_FLIGHTS = "DELETE FROM FLIGHT WHERE ID IN (:flightIds)";
+
+    private static volatile FlightArchiver instance;
+
+    public static FlightArchiver instance() {
+        FlightArchiver result = instance;
+        if (result == null) {
+            synchronized (FlightArchiver.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new FlightArchiver();
+                }
+            }
+        }
+        return result;
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "flight-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FlightArchiver() {
+        long interval = Long.getLong("flights.archive.intervalMinutes", 0);
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::archiveQuietly, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Archives every flight which departed before the given time, along with its bookings, a chunk of flights at a
+     * time. Flights which depart before then but are still being booked (which the service doesn't prevent) are
+     * archived too - so this is normally given the current time.
+     *
+     * @return the number of flights archived
+     */
+    public int archive(ZonedDateTime departedBefore) {
+        int archived = 0;
+        int chunk;
+        do {
+            chunk = archiveChunk(departedBefore);
+            archived += chunk;
+        } while (chunk == CHUNK_SIZE);
+        return archived;
+    }
+
+    /**
+     * Archives the earliest chunk of flights which departed before the given time, within a single transaction.
+     *
+     * @return the number of flights archived, which is less than a whole chunk once there are no more to archive
+     */
+    private int archiveChunk(ZonedDateTime departedBefore) {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            List<Flight> flights = em.createNamedQuery(Flight.FIND_DEPARTED, Flight.class)
+                    .setParameter("departedBefore", departedBefore)
+                    .setMaxResults(CHUNK_SIZE)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList();
+
+            List<Long> flightIds = new ArrayList<>();
+            for (Flight flight : flights) {
+                flightIds.add(flight.getId());
+            }
+            if (!flightIds.isEmpty()) {
+                // the flights are only needed for their ids (and locks) - the rest is done in SQL
+                em.clear();
+                execute(em, COPY_FLIGHTS, ArchivedFlight.class, flightIds);
+                int bookings = execute(em, COPY_BOOKINGS, ArchivedBooking.class, flightIds);
+                execute(em, COPY_SEATS, ArchivedBooking.class, flightIds);
+                execute(em, DELETE_SEATS, FlightBooking.class, flightIds);
+                execute(em, DELETE_BOOKINGS, FlightBooking.class, flightIds);
+                execute(em, DELETE_SEAT_PRICINGS, Flight.class, flightIds);
+                execute(em, DELETE_FLIGHTS, Flight.class, flightIds);
+                LOGGER.debug("Archived {} flight(s), with {} booking(s)", flightIds.size(), bookings);
+            }
+            em.getTransaction().commit();
+            return flightIds.size();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Executes the given statement for the given flights. The statement is declared to change the given entity's
+     * tables, so that only that entity's second-level cache entries (such as flights' seat pricings) are evicted, rather
+     * than every cached entity, as they would be for SQL Hibernate knows nothing about.
+     *
+     * @return the number of rows changed
+     */
+    private static int execute(EntityManager em, String sql, Class<?> entity, List<Long> flightIds) {
+        return em.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(entity)
+                .setParameter("flightIds", flightIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Stops the scheduled job, when the application is stopping.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void archiveQuietly() {
+        try {
+            int archived = archive(ZonedDateTime.now());
+            LOGGER.info("Archival complete, " + archived + " departed flight(s) archived");
+        } catch (Exception ex) {
+            LOGGER.error("Archival failed", ex);
+        }
+    }
+}
@@ -19,11 +19,14 @@ public class FlightBookingApplication extends Application {
 
         singletons.add(PersistenceManager.instance());
         singletons.add(SubscriptionManager.instance());
+        singletons.add(SeatInventoryReconciler.instance());
+        singletons.add(ReferenceDataCache.instance());
 
         classes.add(TestResource.class);
         classes.add(UserResource.class);
         classes.add(FlightsResource.class);
         classes.add(BookingsResource.class);
+        classes.add(AuthenticationFilter.class);
 
     }
 
@@ -0,0 +1,46 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the application's singletons when the web application starts, so that the first requests don't have to wait
+ * for the database and caches to be set up (unless {@code flights.warmStart} is false).
+ * <p>
+ * Shuts down the application's background work when the web application is stopped, so that queued work can finish
+ * and waiting clients can be told to come back, rather than being cut off. Events already published are dispatched
+ * first, so their listeners can still act on them. Registered in web.xml.
+ */
+public class FlightBookingContextListener implements ServletContextListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightBookingContextListener.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        if (!Boolean.parseBoolean(System.getProperty("flights.warmStart", "true"))) {
+            return;
+        }
+        long start = System.nanoTime();
+        PersistenceManager.instance().warmUp();
+        EventBus.instance();
+        SubscriptionManager.instance();
+        SeatInventoryReconciler.instance();
+        FlightArchiver.instance();
+        ReferenceDataCache.instance();
+        LOGGER.info("Warm start took {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (!EventBus.instance().shutdown(10, TimeUnit.SECONDS)) {
+            LOGGER.warn("Event bus didn't finish dispatching in time");
+        }
+        SubscriptionManager.instance().shutdown();
+        SeatInventoryReconciler.instance().shutdown();
+        FlightArchiver.instance().shutdown();
+    }
+}
@@ -0,0 +1,186 @@
+package se325.flights.service;
+
+import se325.flights.CabinClass;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Holds all the ongoing {@link Subscription}s for a single flight, indexed by the cabin class they're waiting for.
+ * Subscriptions which are waiting for seats of any class are held separately from those waiting for a particular
+ * class. All operations are thread-safe and lock-free.
+ * <p>
+ * Within each cabin class, subscriptions are kept ordered by the number of seats they require, in buckets of
+ * subscriptions requiring the same number. This means that, given the number of seats currently available, every
+ * satisfied subscription can be found with a single sweep from the front of each class, stopping at the first bucket
+ * which isn't satisfied - and that any one subscription can still be removed in constant time.
+ * <p>
+ * Waitlisted subscriptions are held apart from the rest, in the order they were made (i.e. by id), so that seats can
+ * be offered to them first come, first served - see {@link #getWaitlist()}.
+ */
+public final class FlightSubscriptions {
+
+    private static final CabinClass[] CABIN_CLASSES = CabinClass.values();
+
+    /**
+     * One map per cabin class, indexed by ordinal, plus one at the end for subscriptions for any cabin class. Each map
+     * goes from a number of seats to the subscriptions requiring that many. Buckets are never removed once created -
+     * there are only as many as there are distinct numbers of seats requested, and the whole FlightSubscriptions is
+     * discarded once it's empty.
+     */
+    @SuppressWarnings("unchecked")
+    private final ConcurrentNavigableMap<Integer, Set<Subscription>>[] byCabinClass =
+            new ConcurrentNavigableMap[CABIN_CLASSES.length + 1];
+
+    /**
+     * Waitlisted subscriptions, by id
+     */
+    private final ConcurrentNavigableMap<Long, Subscription> waitlist = new ConcurrentSkipListMap<>();
+
+    public FlightSubscriptions() {
+        for (int i = 0; i < byCabinClass.length; i++) {
+            byCabinClass[i] = new ConcurrentSkipListMap<>();
+        }
+    }
+
+    public void add(Subscription subscription) {
+        if (subscription.isWaitlisted()) {
+            waitlist.put(subscription.getId(), subscription);
+            return;
+        }
+        byCabinClass[indexOf(subscription.getCabinClass())]
+                .computeIfAbsent(subscription.getNumSeats(), numSeats -> ConcurrentHashMap.newKeySet())
+                .add(subscription);
+    }
+
+    /**
+     * Removes the given subscription. If several threads try to remove the same subscription at once, only one of them
+     * will succeed - so the caller which gets true back is the one which should respond to the subscriber.
+     *
+     * @param subscription the subscription to remove
+     * @return true if the subscription was removed, false if it wasn't here
+     */
+    public boolean remove(Subscription subscription) {
+        if (subscription.isWaitlisted()) {
+            return waitlist.remove(subscription.getId(), subscription);
+        }
+        Set<Subscription> bucket = byCabinClass[indexOf(subscription.getCabinClass())].get(subscription.getNumSeats());
+        return bucket != null && bucket.remove(subscription);
+    }
+
+    /**
+     * Gets the waitlisted subscriptions, in the order they were made. The returned collection is a live, unmodifiable
+     * view - use {@link #remove(Subscription)} to take a subscription off the waitlist.
+     */
+    public Collection<Subscription> getWaitlist() {
+        return Collections.unmodifiableCollection(waitlist.values());
+    }
+
+    /**
+     * Removes and returns every subscription which is satisfied by the given seat availability. Waitlisted subscriptions
+     * aren't included.
+     *
+     * @param seatsRemaining gives the number of unbooked seats in a cabin class, or in total when given null
+     * @return the satisfied subscriptions, which have been removed from this collection
+     */
+    public List<Subscription> removeSatisfied(ToIntFunction<CabinClass> seatsRemaining) {
+        List<Subscription> satisfied = new ArrayList<>();
+        for (int i = 0; i < byCabinClass.length; i++) {
+            int available = seatsRemaining.applyAsInt(i < CABIN_CLASSES.length ? CABIN_CLASSES[i] : null);
+            for (Set<Subscription> bucket : byCabinClass[i].headMap(available, true).values()) {
+                drain(bucket, subscription -> true, satisfied);
+            }
+        }
+        return satisfied;
+    }
+
+    /**
+     * Removes and returns every subscription which matches the given predicate.
+     *
+     * @param predicate the predicate to test each subscription with
+     * @return the matching subscriptions, which have been removed from this collection
+     */
+    public List<Subscription> removeIf(Predicate<Subscription> predicate) {
+        List<Subscription> removed = new ArrayList<>();
+        for (ConcurrentNavigableMap<Integer, Set<Subscription>> buckets : byCabinClass) {
+            for (Set<Subscription> bucket : buckets.values()) {
+                drain(bucket, predicate, removed);
+            }
+        }
+        for (Subscription subscription : waitlist.values()) {
+            if (predicate.test(subscription) && waitlist.remove(subscription.getId(), subscription)) {
+                removed.add(subscription);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes and returns every subscription.
+     *
+     * @return the subscriptions, which have been removed from this collection
+     */
+    public List<Subscription> removeAll() {
+        return removeIf(subscription -> true);
+    }
+
+    /**
+     * Performs the given action for every subscription, without removing any.
+     */
+    public void forEach(Consumer<Subscription> action) {
+        for (ConcurrentNavigableMap<Integer, Set<Subscription>> buckets : byCabinClass) {
+            for (Set<Subscription> bucket : buckets.values()) {
+                bucket.forEach(action);
+            }
+        }
+        waitlist.values().forEach(action);
+    }
+
+    public boolean isEmpty() {
+        if (!waitlist.isEmpty()) {
+            return false;
+        }
+        for (ConcurrentNavigableMap<Integer, Set<Subscription>> buckets : byCabinClass) {
+            for (Set<Subscription> bucket : buckets.values()) {
+                if (!bucket.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the total number of subscriptions.
+     */
+    public int size() {
+        int size = waitlist.size();
+        for (ConcurrentNavigableMap<Integer, Set<Subscription>> buckets : byCabinClass) {
+            for (Set<Subscription> bucket : buckets.values()) {
+                size += bucket.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes the matching subscriptions from the given bucket, adding each one to the given list only if it was this
+     * call which removed it.
+     */
+    private static void drain(Set<Subscription> bucket, Predicate<Subscription> predicate, List<Subscription> removed) {
+        for (Subscription subscription : bucket) {
+            if (predicate.test(subscription) && bucket.remove(subscription)) {
+                removed.add(subscription);
+            }
+        }
+    }
+
+    private static int indexOf(CabinClass cabinClass) {
+        return cabinClass == null ? CABIN_CLASSES.length : cabinClass.ordinal();
+    }
+}
@@ -3,16 +3,20 @@ package se325.flights.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se325.flights.domain.Airport;
+import se325.flights.CabinClass;
 import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
 import se325.flights.domain.Seat;
-import se325.flights.domain.User;
+import se325.flights.domain.SeatInventory;
+import se325.flights.domain.SeatMapTemplate;
 import se325.flights.domain.mappers.AircraftMapper;
 import se325.flights.domain.mappers.FlightMapper;
 import se325.flights.dto.AircraftTypeDTO;
 import se325.flights.dto.AvailableSeatsSubscriptionDTO;
 import se325.flights.dto.BookingInfoDTO;
+import se325.flights.dto.FlightAvailabilityDTO;
 import se325.flights.dto.FlightDTO;
-import se325.flights.util.SecurityUtils;
+import se325.flights.dto.SeatMapDTO;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
@@ -34,6 +38,11 @@ public class FlightsResource {
 
     private static final Logger logger = LoggerFactory.getLogger(FlightsResource.class);
 
+    /**
+     * The maximum number of flights whose availability can be requested at once
+     */
+    private static final int MAX_AVAILABILITY_FLIGHTS = 100;
+
     /**
      * Endpoint which allows the client to search for flights based on origin, destination airport (partial names and codes work too)
      * as well as optionally departure date with a day buffer on either side.
@@ -50,35 +59,41 @@ public class FlightsResource {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
-        EntityManager em = PersistenceManager.instance().createEntityManager();
         try {
-            if (departureDate == null){
-
-                em.getTransaction().begin();
-                List<Flight> matchingFlights = em.createQuery(
-                                "select f from Flight f where (lower(f.origin.name) like CONCAT('%', :origin, '%') "
-                                        + "and lower(f.destination.name) like CONCAT('%', :destination, '%') or lower(f.origin.code) = :origin"
-                                        + " and lower(f.destination.code) = :destination"
-                                        + " or lower(f.origin.name) like CONCAT('%', :origin, '%') and lower(f.destination.code) = :destination"
-                                        + " or lower(f.destination.name) like CONCAT('%', :destination, '%') and lower(f.origin.code) = :origin) order by f.departureTime asc", Flight.class)
-                        .setParameter("origin", origin.toLowerCase())
-                        .setParameter("destination", destination.toLowerCase())
-                        .getResultList();
-                em.getTransaction().commit();
-
-                return convertToFlightDtoList(matchingFlights);
-            }
+            // searches only read, so are served from a read-only transaction
+            return PersistenceManager.instance().inReadOnlyTransaction(em -> {
+                // find the matching airports first, so that their flights can be found using the route index
+                List<Airport> originAirports = searchAirports(em, origin);
+                List<Airport> destinationAirports = searchAirports(em, destination);
 
-            String originTimezone = getTimezoneOriginAirport(em, origin);
+                if (departureDate == null){
+                    if (originAirports.isEmpty() || destinationAirports.isEmpty()) {
+                        return new ArrayList<>();
+                    }
 
-            // parse the departure date query to zonedDateTime based on the time zone
-            ZonedDateTime[] zonedDateTimes;
-            zonedDateTimes = parseDepartureDateQuery(departureDate, dayRange, originTimezone);
+                    List<Flight> matchingFlights = em.createNamedQuery(Flight.FIND_BY_ROUTE, Flight.class)
+                            .setParameter("originIds", airportIds(originAirports))
+                            .setParameter("destinationIds", airportIds(destinationAirports))
+                            .getResultList();
 
-            // iterate through the Flights and find those within the specified departure time range using JPQL
-            List<Flight> departureTimeFilter = searchFiltersWithDepartureTime(em, zonedDateTimes[0], zonedDateTimes[1], origin, destination);
+                    return convertToFlightDtoList(matchingFlights);
+                }
 
-            return convertToFlightDtoList(departureTimeFilter);
+                String originTimezone = originAirports.get(0).getTimeZone();
+
+                // parse the departure date query to zonedDateTime based on the time zone
+                ZonedDateTime[] zonedDateTimes;
+                zonedDateTimes = parseDepartureDateQuery(departureDate, dayRange, originTimezone);
+
+                // find the Flights on the route within the specified departure time range using JPQL
+                if (destinationAirports.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                List<Flight> departureTimeFilter = searchFiltersWithDepartureTime(em, zonedDateTimes[0], zonedDateTimes[1],
+                        originAirports, destinationAirports);
+
+                return convertToFlightDtoList(departureTimeFilter);
+            });
 
         } catch(DateTimeException e){
             // status code:400 thrown
@@ -86,60 +101,50 @@ public class FlightsResource {
         } catch(IndexOutOfBoundsException e){
             // status code:400 thrown
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
-        } finally {
-            em.close();
         }
     }
 
     /**
-     * Helper method for getFlights endpoint which returns string containing the time zone of the
-     * origin airport for that flight.
+     * Helper method for getFlights endpoint which returns the airports whose name contains, or whose code is, the
+     * given search term (ignoring case).
      * @param em
-     * @param origin
+     * @param search
      * @return
      */
-    private String getTimezoneOriginAirport(EntityManager em, String origin){
-        em.getTransaction().begin();
-        List<Airport> originAirportTimezone = em.createQuery(
-                        "select a from Airport a where lower(a.name) like CONCAT('%', :origin, '%') or lower(a.code) = :origin", Airport.class)
-                .setParameter("origin", origin.toLowerCase())
+    private List<Airport> searchAirports(EntityManager em, String search){
+        return em.createNamedQuery(Airport.SEARCH, Airport.class)
+                .setParameter("search", search.toLowerCase())
                 .getResultList();
-        em.getTransaction().commit();
+    }
 
-        String originTimezone = originAirportTimezone.get(0).getTimeZone();
-        return originTimezone;
+    private static List<Long> airportIds(List<Airport> airports){
+        List<Long> ids = new ArrayList<>();
+        for (Airport airport : airports) {
+            ids.add(airport.getId());
+        }
+        return ids;
     }
 
     /**
-     * Helper method for getFlights endpoint, performs jpql query on database to search for flights based
-     * on source,destination airports and within the departure date range.
+     * Helper method for getFlights endpoint, performs jpql query on database to search for flights between
+     * the given airports and within the departure date range.
      * @param em
      * @param departureMin
      * @param departureMax
-     * @param origin
-     * @param destination
+     * @param originAirports
+     * @param destinationAirports
      * @return
      */
-    private List<Flight> searchFiltersWithDepartureTime(EntityManager em, ZonedDateTime departureMin, ZonedDateTime departureMax,String origin, String destination){
-
-        em.getTransaction().begin();
-        TypedQuery<Flight> flightQuery = em
-                .createQuery("select f from Flight f where (lower(f.origin.name) like CONCAT('%', :origin, '%') "
-                        + "and lower(f.destination.name) like CONCAT('%', :destination, '%') or lower(f.origin.code) = :origin"
-                        + " and lower(f.destination.code) = :destination"
-                        + " or lower(f.origin.name) like CONCAT('%', :origin, '%') and lower(f.destination.code) = :destination"
-                        + " or lower(f.destination.name) like CONCAT('%', :destination, '%') and lower(f.origin.code) = :origin) "
-                        + "and (f.departureTime >= :startDeparture and f.departureTime <= :endDeparture) order by f.departureTime asc", Flight.class)
-                .setParameter("origin", origin.toLowerCase())
-                .setParameter("destination", destination.toLowerCase())
+    private List<Flight> searchFiltersWithDepartureTime(EntityManager em, ZonedDateTime departureMin, ZonedDateTime departureMax,
+                                                        List<Airport> originAirports, List<Airport> destinationAirports){
+
+        TypedQuery<Flight> flightQuery = em.createNamedQuery(Flight.FIND_BY_ROUTE_AND_DEPARTURE_TIME, Flight.class)
+                .setParameter("originIds", airportIds(originAirports))
+                .setParameter("destinationIds", airportIds(destinationAirports))
                 .setParameter("startDeparture", departureMin)
                 .setParameter("endDeparture", departureMax);
 
-        List<Flight> results = flightQuery.getResultList();
-
-        em.getTransaction().commit();
-
-        return results;
+        return flightQuery.getResultList();
     }
 
     /**
@@ -151,13 +156,10 @@ public class FlightsResource {
     @Path("/{id}/booking-info")
     public BookingInfoDTO retrieveBookingInfo(@PathParam("id") long flightId){
 
-        EntityManager em = PersistenceManager.instance().createEntityManager();
-        try {
+        return PersistenceManager.instance().inReadOnlyTransaction(em -> {
 
             // find the corresponding flight, if not found throw 404 not found
-            em.getTransaction().begin();
             Flight flight = em.find(Flight.class, flightId);
-            em.getTransaction().commit();
 
             if (flight == null) {
                 // 401 - unauthorized status code returned
@@ -175,10 +177,95 @@ public class FlightsResource {
             AircraftTypeDTO aircraftTypeDTO = AircraftMapper.toDTO(flight.getAircraftType());
 
             return new BookingInfoDTO(aircraftTypeDTO,bookedSeats,flight.getSeatPricings());
+        });
+    }
 
-        } finally {
-            em.close();
+    /**
+     * Endpoint to retrieve the number of unbooked seats and the seat prices, per cabin class, for many flights at once.
+     * The flight ids are supplied as a JSON array in the request body. All flights are served from a single query over
+     * their seat counters and pricings, without loading any flight entities or bookings. Flights which don't exist are
+     * omitted from the results, which are otherwise in the same order as the requested ids. Seats remaining are given
+     * for every cabin class the flight is priced for, with 0 for those which are sold out. The seed data is loaded with
+     * every flight's seat counters, so a flight stored without them is reported with null seatsRemaining - unknown,
+     * rather than none - until the {@link SeatInventoryReconciler} fills them in.
+     */
+    @POST
+    @Path("/availability")
+    public List<FlightAvailabilityDTO> retrieveAvailability(List<Long> flightIds){
+
+        // check that between one and the maximum number of flights have been requested
+        if (flightIds == null || flightIds.isEmpty() || flightIds.size() > MAX_AVAILABILITY_FLIGHTS){
+            // status code:400 thrown
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+
+        return PersistenceManager.instance().inReadOnlyTransaction(em -> {
+            List<Object[]> rows = em.createNamedQuery(Flight.FIND_AVAILABILITY, Object[].class)
+                    .setParameter("flightIds", flightIds)
+                    .getResultList();
+
+            // one row per flight per cabin class price - group them by flight
+            Map<Long, SeatInventory> inventories = new HashMap<>();
+            Map<Long, Map<CabinClass, Integer>> pricings = new HashMap<>();
+            for (Object[] row : rows) {
+                Long flightId = (Long) row[0];
+                inventories.put(flightId, (SeatInventory) row[1]);
+                Map<CabinClass, Integer> pricing = pricings.computeIfAbsent(flightId, id -> new EnumMap<>(CabinClass.class));
+                if (row[2] != null) {
+                    pricing.put((CabinClass) row[2], (Integer) row[3]);
+                }
+            }
+
+            List<FlightAvailabilityDTO> availability = new ArrayList<>();
+            for (Long flightId : flightIds) {
+                if (!pricings.containsKey(flightId)) {
+                    continue;
+                }
+
+                // flights stored without their seat counters are left to the reconciler, rather than loading their
+                // bookings here
+                SeatInventory inventory = inventories.get(flightId);
+                Map<CabinClass, Integer> pricing = pricings.get(flightId);
+                Map<CabinClass, Integer> seatsRemaining = inventory == null ? null : inventory.asMap(pricing.keySet());
+
+                availability.add(new FlightAvailabilityDTO(flightId, seatsRemaining, pricing));
+            }
+            return availability;
+        });
+    }
+
+    /**
+     * Endpoint to retrieve a ready-to-render seat map for a particular flight, with the cabin class, price and
+     * status of every seat. The map is rendered from the cached seat map template for the flight's aircraft, with
+     * the flight's booked seats (read directly from the seat rows, without loading any bookings) overlaid.
+     */
+    @GET
+    @Path("/{id}/seat-map")
+    public SeatMapDTO retrieveSeatMap(@PathParam("id") long flightId){
+
+        return PersistenceManager.instance().inReadOnlyTransaction(em -> {
+            Flight flight = em.find(Flight.class, flightId);
+
+            if (flight == null) {
+                throw new NotFoundException();
+            }
+
+            SeatMapTemplate template = SeatMapTemplate.forAircraft(flight.getAircraftType());
+
+            // build a bitmap of the booked seats, indexed by the template
+            List<Object[]> bookedSeats = em.createNamedQuery(FlightBooking.FIND_BOOKED_SEATS, Object[].class)
+                    .setParameter("flightId", flightId)
+                    .getResultList();
+            BitSet booked = new BitSet(template.getNumSeats());
+            for (Object[] seat : bookedSeats) {
+                int index = template.indexOf((Integer) seat[0], ((String) seat[1]).charAt(0));
+                if (index >= 0) {
+                    booked.set(index);
+                }
+            }
+
+            return FlightMapper.toSeatMapDTO(flight, template, booked);
+        });
     }
 
     private List<FlightDTO> convertToFlightDtoList(List<Flight> flights){
@@ -222,34 +309,93 @@ public class FlightsResource {
 
     /**
      * Endpoint enables the user to be able to subscribe to be notified when seats on their specified flight become
-     * available. Method implemented in an asynchronous manner, without blocking.
-     * @param cookie
+     * available. Method implemented in an asynchronous manner, without blocking. If the seats don't become available
+     * within the given timeout (in seconds - or the server's maximum, if shorter or not given), a 408 response is sent.
+     * @param securityContext
+     * @param timeout
      * @param availableSeatsDTO
      * @param sub
      */
     @POST
     @Path("/subscribe")
-    public void subscribeToFlight(@CookieParam("authToken") Cookie cookie, AvailableSeatsSubscriptionDTO availableSeatsDTO,@Suspended AsyncResponse sub){
+    @Secured
+    public void subscribeToFlight(@Context SecurityContext securityContext, @QueryParam("timeout") Long timeout,
+                                  AvailableSeatsSubscriptionDTO availableSeatsDTO,@Suspended AsyncResponse sub,
+                                  @Context UriInfo uriInfo){
+        long userId = UserPrincipal.of(securityContext).getId();
         EntityManager em = PersistenceManager.instance().createEntityManager();
-        User user;
         try {
-            // authorize user
-            em.getTransaction().begin();
-            user = SecurityUtils.getUserWithAuthToken(em, cookie);
-            em.getTransaction().commit();
-
             // add the user id to the dto
-            availableSeatsDTO.setUserId(user.getId());
+            availableSeatsDTO.setUserId(userId);
 
             // add subscription
-            SubscriptionManager.instance().addSubscription(availableSeatsDTO,sub);
+            Subscription subscription = timeout == null || timeout <= 0
+                    ? SubscriptionManager.instance().addSubscription(availableSeatsDTO,sub,subscriptionUris(uriInfo))
+                    : SubscriptionManager.instance().addSubscription(availableSeatsDTO,sub,subscriptionUris(uriInfo),timeout);
 
             // check if the seats are already available, use the single subscription process method
             // not the one for processing all subscriptions
-            SubscriptionManager.instance().processSingleSubscription(availableSeatsDTO,sub,em);
+            SubscriptionManager.instance().processSingleSubscription(subscription,em);
         } finally{
             em.close();
         }
     }
 
+    /**
+     * Endpoint enables the user to reattach to a subscription they made earlier, for example after their previous
+     * request timed out (whose response gave this endpoint's URI as its Location). Responds in the same way as
+     * {@link #subscribeToFlight}, and with a 404 if there's no such subscription belonging to the user.
+     * @param id
+     * @param securityContext
+     * @param timeout
+     * @param sub
+     */
+    @GET
+    @Path("/subscriptions/{id}")
+    @Secured
+    public void reattachSubscription(@PathParam("id") long id, @Context SecurityContext securityContext,
+                                     @QueryParam("timeout") Long timeout, @Suspended AsyncResponse sub,
+                                     @Context UriInfo uriInfo){
+        long userId = UserPrincipal.of(securityContext).getId();
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            // reattach, unless the subscription was resolved while we were away
+            Subscription subscription = SubscriptionManager.instance().reattachSubscription(id, userId, sub,
+                    subscriptionUris(uriInfo), timeout == null || timeout <= 0 ? Long.MAX_VALUE : timeout);
+
+            // check if the seats are already available
+            if (subscription != null) {
+                SubscriptionManager.instance().processSingleSubscription(subscription,em);
+            }
+        } finally{
+            em.close();
+        }
+    }
+
+    /**
+     * Endpoint enables the user to cancel a subscription they made earlier, so that they won't be notified.
+     * @param id
+     * @param securityContext
+     * @return
+     */
+    @DELETE
+    @Path("/subscriptions/{id}")
+    @Secured
+    public Response cancelSubscription(@PathParam("id") long id, @Context SecurityContext securityContext){
+        long userId = UserPrincipal.of(securityContext).getId();
+        SubscriptionManager.instance().cancelSubscription(id, userId);
+
+        // return 204 status code
+        return Response.noContent().build();
+    }
+
+    /**
+     * Gets a builder for the absolute URIs of subscriptions, given their ids. These are needed when responding
+     * asynchronously, by which time the request's base URI is no longer available to resolve relative URIs.
+     * @param uriInfo
+     * @return
+     */
+    private UriBuilder subscriptionUris(UriInfo uriInfo) {
+        return uriInfo.getBaseUriBuilder().path(FlightsResource.class).path(FlightsResource.class, "reattachSubscription");
+    }
 }
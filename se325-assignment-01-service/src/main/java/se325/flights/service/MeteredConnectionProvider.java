@@ -0,0 +1,62 @@
+package se325.flights.service;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.hibernate.c3p0.internal.C3P0ConnectionProvider;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hibernate's c3p0 connection pool, timing how long each connection takes to check out - which is how long requests
+ * wait for a connection when the pool is busy. Configured as the connection provider in persistence.xml; its metrics
+ * are exposed by the {@link PersistenceManager}.
+ */
+public class MeteredConnectionProvider extends C3P0ConnectionProvider {
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder checkoutNanos = new LongAdder();
+    private final AtomicLong maxCheckoutNanos = new AtomicLong();
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        long elapsed = System.nanoTime() - start;
+
+        checkouts.increment();
+        checkoutNanos.add(elapsed);
+        maxCheckoutNanos.accumulateAndGet(elapsed, Math::max);
+        return connection;
+    }
+
+    /**
+     * Gets the pool itself, for its usage statistics.
+     */
+    public PooledDataSource getPool() {
+        return (PooledDataSource) unwrap(DataSource.class);
+    }
+
+    /**
+     * Gets the number of connections which have been checked out.
+     */
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    /**
+     * Gets the total time spent checking connections out, in nanoseconds.
+     */
+    public long getCheckoutNanos() {
+        return checkoutNanos.sum();
+    }
+
+    /**
+     * Gets the longest time taken to check a connection out, in nanoseconds.
+     */
+    public long getMaxCheckoutNanos() {
+        return maxCheckoutNanos.get();
+    }
+}
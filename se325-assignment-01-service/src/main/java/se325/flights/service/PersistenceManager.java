@@ -1,11 +1,25 @@
 package se325.flights.service;
 
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se325.flights.domain.AircraftType;
+import se325.flights.domain.Airport;
+import se325.flights.domain.SeatMapTemplate;
+import se325.flights.util.AuthTokenCache;
+import se325.flights.util.JmxUtils;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Singleton class that manages an EntityManagerFactory. When a
@@ -16,48 +30,273 @@ import javax.persistence.Persistence;
  * When a Web service application component (e.g. a resource object) requires a
  * persistence context, it should call the PersistentManager's
  * createEntityManager() method to acquire one.
+ * <p>
+ * Where the database is stored is decided by the {@link StorageProfile} selected when the factory is created.
+ * <p>
+ * Safe to use from any thread: the factory is only ever created, closed or replaced while holding the lock on the
+ * PersistenceManager. The factory's lifecycle, its connection pool's usage, and any EntityManagers which are never
+ * closed (see {@link EntityManagerLeakDetector}) are available over JMX - see {@link PersistenceManagerMXBean}.
  */
-public class PersistenceManager {
-    private static PersistenceManager instance = null;
+public class PersistenceManager implements PersistenceManagerMXBean {
+    private static final String MBEAN_NAME = "se325.flights:type=PersistenceManager";
+
+    private static volatile PersistenceManager instance;
 
-    private EntityManagerFactory entityManagerFactory;
+    private volatile EntityManagerFactory entityManagerFactory;
+    private volatile StorageProfile storageProfile;
+    private final EntityManagerLeakDetector leakDetector = new EntityManagerLeakDetector();
+    private int factoriesCreated;
+    private long factoryStartupMillis;
+    private long seedMillis;
     private static final Logger LOGGER = LoggerFactory.getLogger(PersistenceManager.class);
 
     public static PersistenceManager instance() {
-        if (instance == null) {
-            instance = new PersistenceManager();
+        PersistenceManager result = instance;
+        if (result == null) {
+            synchronized (PersistenceManager.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new PersistenceManager();
+                }
+            }
         }
-        return instance;
+        return result;
     }
 
     protected PersistenceManager() {
         init();
+        JmxUtils.registerMBean(this, MBEAN_NAME);
     }
 
+    /**
+     * Creates an EntityManager, which must be closed once it's finished with.
+     *
+     * @throws IllegalStateException if the PersistenceManager has been closed
+     */
     public EntityManager createEntityManager() {
-        return entityManagerFactory.createEntityManager();
+        EntityManagerFactory factory = entityManagerFactory;
+        if (factory == null) {
+            throw new IllegalStateException("PersistenceManager has been closed");
+        }
+        return leakDetector.track(factory.createEntityManager());
     }
 
-    private void init() {
+    /**
+     * Runs the given work in a read-only transaction, for requests which only ever read from the database. Entities
+     * loaded by the work are read-only, so Hibernate keeps no snapshots of them to check for changes, and nothing is
+     * flushed when the transaction commits - any changes made to them are simply discarded. The connection is marked
+     * read-only too, as a hint to the database (the pool resets it when the connection is returned).
+     *
+     * @param work the work to do, given an open EntityManager with a transaction already begun
+     * @return the work's result, which may still use the EntityManager's lazy associations while being built
+     * @throws IllegalStateException if the PersistenceManager has been closed
+     */
+    public <T> T inReadOnlyTransaction(Function<EntityManager, T> work) {
+        EntityManager em = createEntityManager();
         try {
-            entityManagerFactory = Persistence.createEntityManagerFactory("se325.flights");
+            Session session = em.unwrap(Session.class);
+            session.setDefaultReadOnly(true);
+            session.setHibernateFlushMode(FlushMode.MANUAL);
+            em.getTransaction().begin();
+            session.doWork(connection -> connection.setReadOnly(true));
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * Gets the EntityManagerFactory itself, for access to its cache and statistics. Changes whenever the database is
+     * reset, so shouldn't be held on to.
+     */
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * Gets the way the database is currently stored. Chosen afresh whenever the database is reset.
+     */
+    @Override
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    private synchronized void init() {
+        try {
+            storageProfile = StorageProfile.current();
+            LOGGER.info("Using {} storage: {}", storageProfile, storageProfile.getUrl());
+            long start = System.nanoTime();
+            entityManagerFactory = Persistence.createEntityManagerFactory("se325.flights",
+                    storageProfile.getProperties());
+            factoryStartupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            factoriesCreated++;
+
+            start = System.nanoTime();
+            int rows = new SeedDataLoader(entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry().getService(ConnectionProvider.class)).load();
+            seedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            LOGGER.info("Started in {} ms, then loaded {} rows of seed data in {} ms",
+                    factoryStartupMillis, rows, seedMillis);
         } catch (Exception ex) {
             LOGGER.error("Failed to create persistence manager", ex);
             throw ex;
         }
     }
 
-    public void close() {
-        entityManagerFactory.close();
-        entityManagerFactory = null;
+    /**
+     * Closes the EntityManagerFactory, once the subscription processing already under way has finished with it.
+     */
+    public synchronized void close() {
+        if (entityManagerFactory != null) {
+            if (!SubscriptionManager.drain(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Subscription processing didn't finish before the database was closed");
+            }
+            entityManagerFactory.close();
+            entityManagerFactory = null;
+        }
     }
 
     /**
-     * Wipes the database.
+     * Wipes the database, along with any caches derived from its contents. Stored subscriptions aren't part of the
+     * schema which is re-created, so are wiped explicitly.
      */
-    public void reset() {
+    public synchronized void reset() {
         close();
+        SeatMapTemplate.clearCache();
+        AuthTokenCache.instance().clear();
         init();
+
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            SubscriptionStore.clear(em);
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Gets the database ready to serve requests, so that the first few don't have to wait: fills the connection pool,
+     * and loads the reference data into the second-level cache.
+     */
+    public void warmUp() {
+        EntityManager em = createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createNamedQuery(Airport.FIND_ALL, Airport.class).getResultList();
+            for (AircraftType aircraftType : em.createNamedQuery(AircraftType.FIND_ALL, AircraftType.class)
+                    .getResultList()) {
+                Hibernate.initialize(aircraftType.getSeatingZones());
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    @Override
+    public synchronized int getFactoriesCreated() {
+        return factoriesCreated;
     }
 
+    @Override
+    public synchronized long getFactoryStartupMillis() {
+        return factoryStartupMillis;
+    }
+
+    @Override
+    public synchronized long getSeedMillis() {
+        return seedMillis;
+    }
+
+    @Override
+    public int getBusyConnections() {
+        return poolStatistic(PooledDataSource::getNumBusyConnectionsDefaultUser);
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return poolStatistic(PooledDataSource::getNumIdleConnectionsDefaultUser);
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return poolStatistic(PooledDataSource::getNumConnectionsDefaultUser);
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        return poolStatistic(PooledDataSource::getNumThreadsAwaitingCheckoutDefaultUser);
+    }
+
+    @Override
+    public long getConnectionCheckouts() {
+        MeteredConnectionProvider provider = connectionProvider();
+        return provider == null ? 0 : provider.getCheckouts();
+    }
+
+    @Override
+    public double getMeanCheckoutMillis() {
+        MeteredConnectionProvider provider = connectionProvider();
+        if (provider == null || provider.getCheckouts() == 0) {
+            return 0;
+        }
+        return provider.getCheckoutNanos() / 1e6 / provider.getCheckouts();
+    }
+
+    @Override
+    public double getMaxCheckoutMillis() {
+        MeteredConnectionProvider provider = connectionProvider();
+        return provider == null ? 0 : provider.getMaxCheckoutNanos() / 1e6;
+    }
+
+    @Override
+    public int getOpenEntityManagers() {
+        return leakDetector.getOpen();
+    }
+
+    @Override
+    public long getLeakedEntityManagers() {
+        return leakDetector.getLeaked();
+    }
+
+    /**
+     * Gets the current factory's connection provider, or null if the factory is closed (or isn't using one).
+     */
+    private MeteredConnectionProvider connectionProvider() {
+        EntityManagerFactory factory = entityManagerFactory;
+        if (factory == null) {
+            return null;
+        }
+        ConnectionProvider provider = factory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        return provider instanceof MeteredConnectionProvider ? (MeteredConnectionProvider) provider : null;
+    }
+
+    private int poolStatistic(PoolStatistic statistic) {
+        MeteredConnectionProvider provider = connectionProvider();
+        if (provider == null) {
+            return 0;
+        }
+        try {
+            return statistic.get(provider.getPool());
+        } catch (SQLException e) {
+            LOGGER.warn("Couldn't get connection pool statistics", e);
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PoolStatistic {
+        int get(PooledDataSource pool) throws SQLException;
+    }
 }
@@ -0,0 +1,74 @@
+package se325.flights.service;
+
+/**
+ * Management interface for the {@link PersistenceManager}, exposing its EntityManagerFactory's lifecycle, connection
+ * pool usage and EntityManager leaks over JMX. Pool usage is only available while the factory is open, and checkout
+ * statistics are since the database was last reset.
+ */
+public interface PersistenceManagerMXBean {
+
+    /**
+     * Gets the way the database is currently stored.
+     */
+    StorageProfile getStorageProfile();
+
+    /**
+     * Gets the number of EntityManagerFactories which have been created, including the current one.
+     */
+    int getFactoriesCreated();
+
+    /**
+     * Gets how long it took to create the current EntityManagerFactory, in milliseconds.
+     */
+    long getFactoryStartupMillis();
+
+    /**
+     * Gets how long it took to load the seed data into the current database, in milliseconds.
+     */
+    long getSeedMillis();
+
+    /**
+     * Gets the number of pooled connections currently checked out.
+     */
+    int getBusyConnections();
+
+    /**
+     * Gets the number of pooled connections currently waiting to be checked out.
+     */
+    int getIdleConnections();
+
+    /**
+     * Gets the total number of connections in the pool.
+     */
+    int getTotalConnections();
+
+    /**
+     * Gets the number of threads currently waiting for a connection, because none are idle.
+     */
+    int getThreadsAwaitingConnection();
+
+    /**
+     * Gets the number of connections which have been checked out of the pool.
+     */
+    long getConnectionCheckouts();
+
+    /**
+     * Gets the mean time taken to check a connection out of the pool, in milliseconds.
+     */
+    double getMeanCheckoutMillis();
+
+    /**
+     * Gets the longest time taken to check a connection out of the pool, in milliseconds.
+     */
+    double getMaxCheckoutMillis();
+
+    /**
+     * Gets the number of EntityManagers which have been created but not yet closed.
+     */
+    int getOpenEntityManagers();
+
+    /**
+     * Gets the number of EntityManagers which were garbage collected without ever being closed.
+     */
+    long getLeakedEntityManagers();
+}
@@ -0,0 +1,94 @@
+package se325.flights.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import se325.flights.domain.AircraftType;
+import se325.flights.domain.SeatMapTemplate;
+import se325.flights.util.JmxUtils;
+
+/**
+ * Manages the second-level cache which holds reference data - {@link se325.flights.domain.Airport}s,
+ * {@link AircraftType}s (with their seating zones) and flights' seat pricings. These are read on nearly every request
+ * but hardly ever change, so once loaded, they're read from the cache rather than the database. The cache regions are
+ * configured by the {@link ReferenceDataRegionFactory}.
+ * <p>
+ * The cache only sees changes made through Hibernate. Reference data changed some other way has to be evicted over JMX,
+ * along with which cache statistics are available - see {@link ReferenceDataCacheMXBean}. Resetting the database needs
+ * no eviction, as it starts a new, empty cache. Singleton, as it manages the one cache.
+ */
+public class ReferenceDataCache implements ReferenceDataCacheMXBean {
+
+    private static final String MBEAN_NAME = "se325.flights:type=ReferenceDataCache";
+
+    private static volatile ReferenceDataCache instance;
+
+    public static ReferenceDataCache instance() {
+        ReferenceDataCache result = instance;
+        if (result == null) {
+            synchronized (ReferenceDataCache.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new ReferenceDataCache();
+                }
+            }
+        }
+        return result;
+    }
+
+    private ReferenceDataCache() {
+        JmxUtils.registerMBean(this, MBEAN_NAME);
+    }
+
+    @Override
+    public void evictRegion(String regionName) {
+        sessionFactory().getCache().evictRegion(regionName);
+    }
+
+    @Override
+    public void evictAll() {
+        sessionFactory().getCache().evictAllRegions();
+        SeatMapTemplate.clearCache();
+    }
+
+    @Override
+    public long getHitCount() {
+        return statistics().getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return statistics().getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getPutCount() {
+        return statistics().getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String[] getRegionNames() {
+        return statistics().getSecondLevelCacheRegionNames();
+    }
+
+    @Override
+    public long getRegionSize(String regionName) {
+        CacheRegionStatistics region = statistics().getDomainDataRegionStatistics(regionName);
+        return region == null ? 0 : region.getElementCountInMemory();
+    }
+
+    private static SessionFactory sessionFactory() {
+        return PersistenceManager.instance().getEntityManagerFactory().unwrap(SessionFactory.class);
+    }
+
+    private static Statistics statistics() {
+        return sessionFactory().getStatistics();
+    }
+}
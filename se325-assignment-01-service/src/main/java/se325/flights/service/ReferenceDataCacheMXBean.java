@@ -0,0 +1,48 @@
+package se325.flights.service;
+
+/**
+ * Management interface for the {@link ReferenceDataCache}, exposing second-level cache statistics over JMX and allowing
+ * cached data to be evicted after it's been changed.
+ */
+public interface ReferenceDataCacheMXBean {
+
+    /**
+     * Gets the number of entities and collections which were found in the cache, since the database was last reset.
+     */
+    long getHitCount();
+
+    /**
+     * Gets the number of entities and collections which weren't in the cache, so were loaded from the database.
+     */
+    long getMissCount();
+
+    /**
+     * Gets the number of entities and collections which have been put in the cache.
+     */
+    long getPutCount();
+
+    /**
+     * Gets the fraction of cache lookups which were hits, or 0 if there haven't been any.
+     */
+    double getHitRatio();
+
+    /**
+     * Gets the names of the cache regions.
+     */
+    String[] getRegionNames();
+
+    /**
+     * Gets the number of entries currently held in the given cache region.
+     */
+    long getRegionSize(String regionName);
+
+    /**
+     * Evicts everything from the given cache region.
+     */
+    void evictRegion(String regionName);
+
+    /**
+     * Evicts everything from every cache region.
+     */
+    void evictAll();
+}
@@ -0,0 +1,42 @@
+package se325.flights.service;
+
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+
+import javax.cache.Cache;
+import java.time.Duration;
+
+/**
+ * Creates the second-level cache regions used by Hibernate (see {@link ReferenceDataCache}), as Ehcache caches with a
+ * bounded size and an expiry.
+ * <p>
+ * Each region holds at most {@code flights.cache.maxEntries} entries (default 10000), evicting the least recently used
+ * when full, and entries expire {@code flights.cache.ttlSeconds} after they're cached (default 3600, or never if 0).
+ * Either can be overridden for a particular region by adding its name after the class name, e.g.
+ * {@code flights.cache.Airport.maxEntries}, or {@code flights.cache.AircraftType.seatingZones.ttlSeconds}.
+ */
+public class ReferenceDataRegionFactory extends JCacheRegionFactory {
+
+    private static final String DOMAIN_PACKAGE = "se325.flights.domain.";
+
+    @Override
+    protected Cache<Object, Object> createCache(String regionName) {
+        String name = regionName.startsWith(DOMAIN_PACKAGE) ? regionName.substring(DOMAIN_PACKAGE.length()) : regionName;
+        long maxEntries = Long.getLong("flights.cache." + name + ".maxEntries",
+                Long.getLong("flights.cache.maxEntries", 10000));
+        long ttlSeconds = Long.getLong("flights.cache." + name + ".ttlSeconds",
+                Long.getLong("flights.cache.ttlSeconds", 3600));
+
+        CacheConfiguration<Object, Object> config = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(maxEntries))
+                .withExpiry(ttlSeconds > 0
+                        ? ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttlSeconds))
+                        : ExpiryPolicyBuilder.noExpiration())
+                .build();
+        return getCacheManager().createCache(regionName, Eh107Configuration.fromEhcacheCacheConfiguration(config));
+    }
+}
@@ -0,0 +1,188 @@
+package se325.flights.service;
+
+import se325.flights.CabinClass;
+import se325.flights.domain.BookingException;
+import se325.flights.domain.SeatInventory;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * The seats currently held for waitlisted {@link Subscription}s, per flight. A hold is for a number of seats of a
+ * cabin class (or of any class), rather than for particular seats - the holder can book whichever seats they like, and
+ * nobody else can book the last seats which would leave too few for the holds. Holds expire after a while if they
+ * aren't claimed.
+ * <p>
+ * Holds are kept in memory only. They're short-lived, so if they're lost on a restart, the seats are simply offered to
+ * the waitlist again. Each flight's holds are an immutable list, replaced atomically whenever it changes, so they can
+ * be read without locking.
+ */
+public final class SeatHolds {
+
+    /**
+     * The header giving the time at which a hold expires, on the response to a waitlisted subscription
+     */
+    public static final String EXPIRES_HEADER = "Seat-Hold-Expires";
+
+    private final ConcurrentMap<Long, List<Hold>> holdsByFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Holds seats for the given subscription, if there are enough available once the existing holds are taken into
+     * account. The flight should be locked while this is called, so that the available seats can't be booked at the
+     * same time.
+     *
+     * @param subscription the subscription to hold seats for
+     * @param inventory    the flight's current seat availability
+     * @param expiresAt    when the hold should expire
+     * @return true if the seats were held, false if there weren't enough available
+     */
+    public boolean tryHold(Subscription subscription, SeatInventory inventory, ZonedDateTime expiresAt) {
+        CabinClass cabinClass = subscription.getCabinClass();
+        int numSeats = subscription.getNumSeats();
+        boolean[] held = new boolean[1];
+        holdsByFlight.compute(subscription.getInfo().getFlightId(), (flightId, holds) -> {
+            List<Hold> current = holds == null ? Collections.emptyList() : holds;
+            ZonedDateTime now = ZonedDateTime.now();
+            if (inventory.getTotalSeatsRemaining() - countHeld(current, null, now, hold -> true) < numSeats
+                    || cabinClass != null && inventory.getSeatsRemaining(cabinClass) - countHeld(current, cabinClass, now, hold -> true) < numSeats) {
+                return holds;
+            }
+
+            List<Hold> updated = new ArrayList<>(current);
+            updated.add(new Hold(subscription.getId(), subscription.getInfo().getUserId(), cabinClass, numSeats, expiresAt));
+            held[0] = true;
+            return Collections.unmodifiableList(updated);
+        });
+        return held[0];
+    }
+
+    /**
+     * Gets the number of seats currently held on the given flight.
+     *
+     * @param flightId   the flight's id
+     * @param cabinClass the cabin class to count, or null to count holds of every class (and of any class)
+     * @return the number of seats held
+     */
+    public int getHeld(long flightId, CabinClass cabinClass) {
+        return countHeld(holdsByFlight.getOrDefault(flightId, Collections.emptyList()), cabinClass, ZonedDateTime.now(),
+                hold -> true);
+    }
+
+    /**
+     * Checks that a booking made by the given user leaves enough seats for everyone else's holds. The flight should be
+     * locked, and the booking should already have been made (but not committed).
+     *
+     * @param flightId  the flight's id
+     * @param userId    the id of the user making the booking
+     * @param inventory the flight's seat availability, after the booking
+     * @throws BookingException if the booking takes seats which are being held for another user
+     */
+    public void checkBooking(long flightId, long userId, SeatInventory inventory) throws BookingException {
+        List<Hold> holds = holdsByFlight.get(flightId);
+        if (holds == null) {
+            return;
+        }
+
+        ZonedDateTime now = ZonedDateTime.now();
+        Predicate<Hold> othersHolds = hold -> hold.userId != userId;
+        boolean enoughLeft = inventory.getTotalSeatsRemaining() >= countHeld(holds, null, now, othersHolds);
+        for (CabinClass cabinClass : CabinClass.values()) {
+            enoughLeft &= inventory.getSeatsRemaining(cabinClass) >= countHeld(holds, cabinClass, now, othersHolds);
+        }
+        if (!enoughLeft) {
+            throw new BookingException("Seats are being held for another user");
+        }
+    }
+
+    /**
+     * Releases all of the given user's holds on the given flight, because they've made a booking.
+     *
+     * @return the number of holds released
+     */
+    public int claim(long flightId, long userId) {
+        return removeIf(flightId, hold -> hold.userId == userId);
+    }
+
+    /**
+     * Releases the hold made for the given subscription, if there is one.
+     */
+    public void release(Subscription subscription) {
+        removeIf(subscription.getInfo().getFlightId(), hold -> hold.subscriptionId == subscription.getId());
+    }
+
+    /**
+     * Releases any holds on the given flight which have expired.
+     *
+     * @return the number of holds released
+     */
+    public int removeExpired(long flightId) {
+        ZonedDateTime now = ZonedDateTime.now();
+        return removeIf(flightId, hold -> hold.isExpired(now));
+    }
+
+    /**
+     * Gets the number of holds on all flights, including any which have expired but haven't been released yet.
+     */
+    public int size() {
+        int size = 0;
+        for (List<Hold> holds : holdsByFlight.values()) {
+            size += holds.size();
+        }
+        return size;
+    }
+
+    /**
+     * Releases the holds on the given flight which match the given predicate.
+     *
+     * @return the number of holds released
+     */
+    private int removeIf(long flightId, Predicate<Hold> predicate) {
+        int[] removed = new int[1];
+        holdsByFlight.computeIfPresent(flightId, (id, holds) -> {
+            List<Hold> updated = new ArrayList<>(holds);
+            updated.removeIf(predicate);
+            removed[0] = holds.size() - updated.size();
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+        return removed[0];
+    }
+
+    /**
+     * Counts the seats in the given holds which haven't expired and match the given predicate. When given a cabin class,
+     * only holds for that class are counted - otherwise all holds are.
+     */
+    private static int countHeld(List<Hold> holds, CabinClass cabinClass, ZonedDateTime now, Predicate<Hold> predicate) {
+        int held = 0;
+        for (Hold hold : holds) {
+            if (!hold.isExpired(now) && (cabinClass == null || hold.cabinClass == cabinClass) && predicate.test(hold)) {
+                held += hold.numSeats;
+            }
+        }
+        return held;
+    }
+
+    private static final class Hold {
+        private final long subscriptionId;
+        private final long userId;
+        private final CabinClass cabinClass;
+        private final int numSeats;
+        private final ZonedDateTime expiresAt;
+
+        private Hold(long subscriptionId, long userId, CabinClass cabinClass, int numSeats, ZonedDateTime expiresAt) {
+            this.subscriptionId = subscriptionId;
+            this.userId = userId;
+            this.cabinClass = cabinClass;
+            this.numSeats = numSeats;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(ZonedDateTime now) {
+            return !now.isBefore(expiresAt);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically verifies each {@link Flight}'s per-cabin-class seat counters against the seats actually booked on that
+ * flight, and corrects any counters which have drifted. Singleton so that only one reconciliation job is scheduled.
+ * <p>
+ * The interval between runs (in minutes) can be configured with the {@code flights.inventory.reconcileIntervalMinutes}
+ * system property. A value of 0 disables the scheduled job, though {@link #reconcile()} can still be called directly.
+ */
+public class SeatInventoryReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeatInventoryReconciler.class);
+
+    /**
+     * The number of flights to check in each transaction
+     */
+    private static final int PAGE_SIZE = 100;
+
+    private static volatile SeatInventoryReconciler instance;
+
+    public static SeatInventoryReconciler instance() {
+        SeatInventoryReconciler result = instance;
+        if (result == null) {
+            synchronized (SeatInventoryReconciler.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new SeatInventoryReconciler();
+                }
+            }
+        }
+        return result;
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seat-inventory-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SeatInventoryReconciler() {
+        long interval = Long.getLong("flights.inventory.reconcileIntervalMinutes", 60);
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::reconcileQuietly, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Checks the seat counters of every flight against its booked seats, a page of flights at a time. Each page is
+     * checked within its own transaction, with the flights locked so that bookings can't change underneath the check.
+     *
+     * @return the number of flights whose counters needed correcting
+     */
+    public int reconcile() {
+        int corrected = 0;
+        int page = 0;
+        List<Flight> flights;
+
+        do {
+            EntityManager em = PersistenceManager.instance().createEntityManager();
+            try {
+                em.getTransaction().begin();
+                flights = em.createNamedQuery(Flight.FIND_ALL, Flight.class)
+                        .setFirstResult(page * PAGE_SIZE)
+                        .setMaxResults(PAGE_SIZE)
+                        .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                        .getResultList();
+
+                Map<Long, List<String>> bookedSeatCodes = findBookedSeatCodes(em, flights);
+                for (Flight flight : flights) {
+                    List<String> seatCodes = bookedSeatCodes.getOrDefault(flight.getId(), Collections.emptyList());
+                    if (flight.reconcileSeatInventory(seatCodes)) {
+                        LOGGER.warn("Corrected seat counters for flight " + flight.getId());
+                        corrected++;
+                    }
+                }
+                em.getTransaction().commit();
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+            page++;
+        } while (flights.size() == PAGE_SIZE);
+
+        return corrected;
+    }
+
+    /**
+     * Gets the codes of all booked seats on the given flights, in a single query, mapped by flight id.
+     */
+    private Map<Long, List<String>> findBookedSeatCodes(EntityManager em, List<Flight> flights) {
+        Map<Long, List<String>> seatCodes = new HashMap<>();
+        if (flights.isEmpty()) {
+            return seatCodes;
+        }
+
+        List<Long> flightIds = new ArrayList<>();
+        for (Flight flight : flights) {
+            flightIds.add(flight.getId());
+        }
+
+        List<Object[]> rows = em.createNamedQuery(FlightBooking.FIND_BOOKED_SEATS_FOR_FLIGHTS, Object[].class)
+                .setParameter("flightIds", flightIds)
+                .getResultList();
+
+        for (Object[] row : rows) {
+            seatCodes.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add("" + row[1] + row[2]);
+        }
+        return seatCodes;
+    }
+
+    /**
+     * Stops the scheduled job, when the application is stopping.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void reconcileQuietly() {
+        try {
+            int corrected = reconcile();
+            LOGGER.info("Seat counter reconciliation complete, " + corrected + " flight(s) corrected");
+        } catch (Exception ex) {
+            LOGGER.error("Seat counter reconciliation failed", ex);
+        }
+    }
+}
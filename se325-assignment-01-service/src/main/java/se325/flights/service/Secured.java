@@ -0,0 +1,18 @@
+package se325.flights.service;
+
+import javax.ws.rs.NameBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a resource class or method as only being available to authenticated users. Requests to it are authenticated by
+ * the {@link AuthenticationFilter} before they reach the resource, which can get the user from its
+ * {@link javax.ws.rs.core.SecurityContext} - see {@link UserPrincipal#of}.
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Secured {
+}
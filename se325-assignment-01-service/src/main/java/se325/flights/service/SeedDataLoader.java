@@ -0,0 +1,283 @@
+package se325.flights.service;
+
+import org.h2.tools.Csv;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a newly created database with its seed data - users, airports, aircraft layouts, flights and their pricing,
+ * and any bookings - from one CSV file per table. Each file is streamed into its table with batched inserts, committed
+ * every {@value #ROWS_PER_TRANSACTION} rows, so that even a table of millions of rows is never held in memory nor
+ * loaded in one huge transaction. A load that fails part way leaves the database part-filled.
+ * <p>
+ * Tables are loaded in parallel, each over its own connection, a level at a time: a table is only loaded once the
+ * tables it refers to have been, so that foreign keys are never broken. The tables' foreign keys and (non-unique)
+ * indexes are dropped while they're loaded, and put back afterwards: keeping half a dozen indexes up to date a row at
+ * a time is far slower than building them once at the end, and bloats the database file. The foreign keys are checked
+ * as they're put back. Once everything is in, any flights whose seat counters weren't given have them set from their
+ * aircraft's seats and their bookings, and booking ids carry on from the highest one loaded.
+ * <p>
+ * The files are read from {@code flights.seed.location}, which is the {@code seed} directory on the classpath by
+ * default. It may be any location H2's {@link Csv} tool understands, such as a directory on disk written by the
+ * datagen module. Each file has a header row naming its columns, in any order. In the default seed data, Alice's
+ * password is "pa55word", and Bob's is "12345". The aircraft layouts are those of Air New Zealand's 787-9 and
+ * Singapore Airlines' 777-200ER, from seatguru.com. There are no bookings.
+ */
+final class SeedDataLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeedDataLoader.class);
+
+    private static final String DEFAULT_LOCATION = "classpath:/seed";
+    private static final int ROWS_PER_BATCH = 1000;
+    private static final int ROWS_PER_TRANSACTION = 10_000;
+
+    /**
+     * The seed tables, a level at a time. Tables in the same level don't refer to each other, so can be loaded at once.
+     */
+    private static final SeedTable[][] LEVELS = {
+            {
+                    new SeedTable("USER", "users.csv"),
+                    new SeedTable("AIRPORT", "airports.csv"),
+                    new SeedTable("AIRCRAFTTYPE", "aircraft-types.csv")
+            },
+            {
+                    new SeedTable("AIRCRAFTTYPE_SEATINGZONES", "seating-zones.csv"),
+                    new SeedTable("FLIGHT", "flights.csv")
+            },
+            {
+                    new SeedTable("FLIGHT_SEATPRICINGS", "seat-pricings.csv"),
+                    new SeedTable("FLIGHTBOOKING", "bookings.csv")
+            },
+            {
+                    new SeedTable("FLIGHTBOOKING_SEATS", "booked-seats.csv")
+            }
+    };
+
+    private static final String SET_SEAT_COUNTERS = "UPDATE FLIGHT F SET "
+            + "ECONOMYSEATSREMAINING = " + seatsRemaining("Economy") + ", "
+            + "PREMIUMSEATSREMAINING = " + seatsRemaining("Premium") + ", "
+            + "BUSINESSSEATSREMAINING = " + seatsRemaining("Business") + ", "
+            + "FIRSTCLASSSEATSREMAINING = " + seatsRemaining("FirstClass") + " "
+            + "WHERE ECONOMYSEATSREMAINING IS NULL";
+
+    private static final String BOOKING_ID_SEQUENCE = "FLIGHT_BOOKING_SEQ";
+
+    private final ConnectionProvider connectionProvider;
+    private final String location;
+
+    SeedDataLoader(ConnectionProvider connectionProvider) {
+        this.connectionProvider = connectionProvider;
+        this.location = System.getProperty("flights.seed.location", DEFAULT_LOCATION);
+    }
+
+    /**
+     * Loads the seed data, logging how long each table took.
+     *
+     * @return the number of rows loaded
+     * @throws IllegalStateException if any of the data couldn't be loaded
+     */
+    int load() {
+        int threads = 0;
+        for (SeedTable[] level : LEVELS) {
+            threads = Math.max(threads, level.length);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<String> deferred = deferIndexes();
+            int rows = 0;
+            for (SeedTable[] level : LEVELS) {
+                List<Future<Integer>> loads = new ArrayList<>();
+                for (SeedTable table : level) {
+                    loads.add(executor.submit(() -> load(table)));
+                }
+                for (Future<Integer> load : loads) {
+                    rows += load.get();
+                }
+            }
+            for (String statement : deferred) {
+                execute(statement);
+            }
+            execute(SET_SEAT_COUNTERS);
+            continueBookingIds();
+            return rows;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't finish loading the seed data", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Couldn't load the seed data from " + location, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the seed data", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int load(SeedTable table) throws SQLException {
+        long start = System.nanoTime();
+        int rows = 0;
+        Connection connection = connectionProvider.getConnection();
+        try (ResultSet csv = new Csv().read(location + "/" + table.file, null, "UTF-8")) {
+            ResultSetMetaData metaData = csv.getMetaData();
+            int numColumns = metaData.getColumnCount();
+            StringJoiner columns = new StringJoiner(", ");
+            StringJoiner parameters = new StringJoiner(", ");
+            for (int i = 1; i <= numColumns; i++) {
+                columns.add(metaData.getColumnName(i));
+                parameters.add("?");
+            }
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + table.name + " (" + columns + ") VALUES (" + parameters + ")")) {
+                while (csv.next()) {
+                    for (int i = 1; i <= numColumns; i++) {
+                        insert.setString(i, csv.getString(i));
+                    }
+                    insert.addBatch();
+                    rows++;
+                    if (rows % ROWS_PER_BATCH == 0) {
+                        insert.executeBatch();
+                    }
+                    if (rows % ROWS_PER_TRANSACTION == 0) {
+                        connection.commit();
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+        LOGGER.debug("Loaded {} rows into {} in {} ms", rows, table.name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return rows;
+    }
+
+    /**
+     * Drops the seed tables' foreign keys, and then their non-unique indexes (including any the foreign keys used).
+     *
+     * @return the statements which put them back - the indexes first, then the foreign keys, checked this time
+     */
+    private List<String> deferIndexes() throws SQLException {
+        StringJoiner tables = new StringJoiner("', '", "('", "')");
+        for (SeedTable[] level : LEVELS) {
+            for (SeedTable table : level) {
+                tables.add(table.name);
+            }
+        }
+
+        List<String> indexes = new ArrayList<>();
+        List<String> restore = new ArrayList<>();
+        Connection connection = connectionProvider.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SELECT INDEX_NAME, SQL FROM INFORMATION_SCHEMA.INDEXES "
+                    + "WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME IN " + tables + " "
+                    + "AND INDEX_TYPE_NAME = 'INDEX' AND ORDINAL_POSITION = 1")) {
+                while (rs.next()) {
+                    indexes.add(rs.getString(1));
+                    restore.add(rs.getString(2));
+                }
+            }
+            List<String> dropForeignKeys = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery("SELECT TABLE_NAME, CONSTRAINT_NAME, SQL "
+                    + "FROM INFORMATION_SCHEMA.CONSTRAINTS WHERE CONSTRAINT_SCHEMA = SCHEMA() "
+                    + "AND TABLE_NAME IN " + tables + " AND CONSTRAINT_TYPE = 'REFERENTIAL'")) {
+                while (rs.next()) {
+                    dropForeignKeys.add("ALTER TABLE \"" + rs.getString(1) + "\" "
+                            + "DROP CONSTRAINT \"" + rs.getString(2) + "\"");
+                    restore.add(rs.getString(3).replace(" NOCHECK", ""));
+                }
+            }
+
+            for (String dropForeignKey : dropForeignKeys) {
+                statement.execute(dropForeignKey);
+            }
+            for (String index : indexes) {
+                statement.execute("DROP INDEX IF EXISTS \"" + index + "\"");
+            }
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+        return restore;
+    }
+
+    /**
+     * Restarts the booking id sequence after the highest booking id loaded, if any. Hibernate takes a block of ids
+     * ending at each value it gets from the sequence, so it's restarted a whole block on.
+     */
+    private void continueBookingIds() throws SQLException {
+        Connection connection = connectionProvider.getConnection();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT (SELECT MAX(ID) FROM FLIGHTBOOKING), INCREMENT "
+                     + "FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = '" + BOOKING_ID_SEQUENCE + "'")) {
+            if (rs.next() && rs.getLong(1) > 0) {
+                statement.execute("ALTER SEQUENCE " + BOOKING_ID_SEQUENCE + " RESTART WITH "
+                        + (rs.getLong(1) + rs.getLong(2)));
+            }
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Executes the given statement in a transaction of its own.
+     *
+     * @return the number of rows it changed
+     */
+    private int execute(String sql) throws SQLException {
+        Connection connection = connectionProvider.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            int rows = statement.executeUpdate(sql);
+            connection.commit();
+            return rows;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Gets an expression for the number of seats in the given cabin class on flight F's aircraft, less those booked.
+     */
+    private static String seatsRemaining(String cabinClass) {
+        return "(SELECT COALESCE(SUM(Z.NUMROWS * LENGTH(Z.SEATCODEDATA)), 0) FROM AIRCRAFTTYPE_SEATINGZONES Z "
+                + "WHERE Z.AIRCRAFTTYPE_ID = F.AIRCRAFTTYPE_ID AND Z.CABINCLASS = '" + cabinClass + "') - "
+                + "(SELECT COUNT(*) FROM FLIGHTBOOKING B JOIN FLIGHTBOOKING_SEATS S ON S.FLIGHTBOOKING_ID = B.ID "
+                + "JOIN AIRCRAFTTYPE_SEATINGZONES Z ON Z.AIRCRAFTTYPE_ID = F.AIRCRAFTTYPE_ID "
+                + "AND S.ROWNUMBER BETWEEN Z.STARTINGROWNUMBER AND Z.STARTINGROWNUMBER + Z.NUMROWS - 1 "
+                + "AND LOCATE(S.LETTERCODE, Z.SEATCODEDATA) > 0 "
+                + "WHERE B.FLIGHT_ID = F.ID AND Z.CABINCLASS = '" + cabinClass + "')";
+    }
+
+    private static final class SeedTable {
+        private final String name;
+        private final String file;
+
+        private SeedTable(String name, String file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+}
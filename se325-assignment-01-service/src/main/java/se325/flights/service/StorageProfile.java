@@ -0,0 +1,81 @@
+package se325.flights.service;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The ways the embedded H2 database can store its data, each with its own tuned connection settings. The profile is
+ * chosen by {@code flights.storage} (one of {@code memory}, {@code mvstore} or {@code pagestore}), and defaults to
+ * {@link #MVSTORE}.
+ * <p>
+ * The file-based profiles keep their database at {@code flights.storage.path}, if given. Their page cache size (in KB)
+ * and every profile's lock timeout (in millis) can be overridden by {@code flights.storage.cacheSizeKb} and
+ * {@code flights.storage.lockTimeoutMillis}.
+ */
+public enum StorageProfile {
+
+    /**
+     * Keeps everything in memory, so nothing survives a restart - for tests and benchmarks. The database is kept open
+     * until the JVM exits, rather than being dropped whenever the connection pool happens to close its last connection.
+     */
+    MEMORY("mem:flights", 0, 10000, "DB_CLOSE_DELAY=-1"),
+
+    /**
+     * Stores the database in a file, with the MVStore engine - for production. Rows are locked individually, and
+     * readers never wait for writers, so concurrent bookings on different flights don't block each other.
+     */
+    MVSTORE("~/flights", 65536, 10000, "MV_STORE=TRUE"),
+
+    /**
+     * Stores the database in a file, with the legacy PageStore engine - as the service always has. Whole tables are
+     * locked while they're written (H2's default lock mode), so bookings are serialised, and a booking may have to wait
+     * for every other one in flight to commit. The lock timeout is three times the others', so that a burst of bookings
+     * queues up rather than failing.
+     */
+    PAGESTORE("~/test", 32768, 30000, "MV_STORE=FALSE");
+
+    private final String defaultPath;
+    private final int cacheSizeKb;
+    private final int lockTimeoutMillis;
+    private final String settings;
+
+    StorageProfile(String defaultPath, int cacheSizeKb, int lockTimeoutMillis, String settings) {
+        this.defaultPath = defaultPath;
+        this.cacheSizeKb = cacheSizeKb;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+        this.settings = settings;
+    }
+
+    /**
+     * Gets the profile selected by {@code flights.storage}.
+     *
+     * @throws IllegalArgumentException if it doesn't name a profile
+     */
+    public static StorageProfile current() {
+        String name = System.getProperty("flights.storage");
+        return name == null || name.isBlank() ? MVSTORE : valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets the JDBC URL of the database, with this profile's settings.
+     */
+    public String getUrl() {
+        StringBuilder url = new StringBuilder("jdbc:h2:");
+        url.append(this == MEMORY ? defaultPath : System.getProperty("flights.storage.path", defaultPath));
+        if (!settings.isEmpty()) {
+            url.append(';').append(settings);
+        }
+        if (cacheSizeKb > 0) {
+            url.append(";CACHE_SIZE=").append(Integer.getInteger("flights.storage.cacheSizeKb", cacheSizeKb));
+        }
+        url.append(";LOCK_TIMEOUT=").append(Integer.getInteger("flights.storage.lockTimeoutMillis", lockTimeoutMillis));
+        return url.toString();
+    }
+
+    /**
+     * Gets the persistence unit properties which select this profile, overriding those in persistence.xml.
+     */
+    public Map<String, Object> getProperties() {
+        return Map.of("javax.persistence.jdbc.url", getUrl());
+    }
+}
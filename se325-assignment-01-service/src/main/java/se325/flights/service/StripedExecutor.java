@@ -0,0 +1,318 @@
+package se325.flights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks in a fixed number of lanes, each with a single thread and a bounded queue. Tasks are assigned to a lane by
+ * key, so all tasks with the same key run one at a time, in the order they were submitted.
+ * <p>
+ * When a lane's queue is full, submitting a task blocks for a short while, and if there's still no room, the task is
+ * rejected - so a flood of tasks slows down whoever is submitting them, rather than growing the queue without bound.
+ * Rejected tasks are never run on the submitting thread, as that would let them overtake (or run alongside) the tasks
+ * already queued for the same key; it's up to the caller to submit them again later.
+ * <p>
+ * Each lane can run on a platform or a virtual thread. Virtual threads need Java 21 or later - on earlier versions,
+ * platform threads are used instead.
+ */
+public class StripedExecutor implements StripedExecutorMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final String name;
+    private final Lane[] lanes;
+    private final int queueCapacity;
+    private final long enqueueTimeoutMillis;
+    private final boolean virtualThreads;
+    private volatile boolean shutdown;
+    private final AtomicInteger flushing = new AtomicInteger();
+
+    /**
+     * The number of tasks which have been queued but haven't finished running
+     */
+    private final AtomicLong outstandingTasks = new AtomicLong();
+
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong totalQueueLatencyNanos = new AtomicLong();
+    private final AtomicLong maxQueueLatencyNanos = new AtomicLong();
+    private final AtomicLong totalRunTimeNanos = new AtomicLong();
+
+    /**
+     * Creates a new StripedExecutor, and starts its lanes.
+     *
+     * @param name                 the name of the executor, used to name its threads
+     * @param numLanes             the number of lanes
+     * @param queueCapacity        the maximum number of tasks which may be queued in each lane
+     * @param enqueueTimeoutMillis how long to wait for room in a full queue, before rejecting the task
+     * @param virtualThreads       whether to run the lanes on virtual threads, if they're available
+     */
+    public StripedExecutor(String name, int numLanes, int queueCapacity, long enqueueTimeoutMillis, boolean virtualThreads) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+
+        ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory() : null;
+        this.virtualThreads = threadFactory != null;
+        if (threadFactory == null) {
+            threadFactory = r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        this.lanes = new Lane[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            lanes[i] = new Lane(new ArrayBlockingQueue<>(queueCapacity));
+            Thread thread = threadFactory.newThread(lanes[i]);
+            thread.setName(name + "-" + i);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Gets a factory for virtual threads, or null if they aren't supported by this JVM.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads aren't available on Java " + System.getProperty("java.version")
+                    + ", using platform threads instead");
+            return null;
+        }
+    }
+
+    /**
+     * Runs the given task in the lane for the given key, after the given delay. Lanes expect every task to be given the
+     * same delay - a task with a shorter delay than the one in front of it won't run until that one has.
+     *
+     * @param key         the key - tasks with the same key run in the order they're submitted
+     * @param delayMillis the minimum time to wait before running the task
+     * @param task        the task to run
+     * @throws RejectedExecutionException if this executor has been shut down, or the lane's queue is still full after
+     *                                    waiting for room
+     */
+    public void execute(long key, long delayMillis, Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException(name + " has been shut down");
+        }
+
+        long now = System.nanoTime();
+        Task queued = new Task(task, now + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        Lane lane = lanes[Math.floorMod(Long.hashCode(key), lanes.length)];
+        outstandingTasks.incrementAndGet();
+        try {
+            if (lane.queue.offer(queued, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        outstandingTasks.decrementAndGet();
+
+        // No room - the caller has already been held up, and can try again later
+        rejectedTasks.incrementAndGet();
+        throw new RejectedExecutionException(name + " lane for key " + key + " is full");
+    }
+
+    /**
+     * Gets whether this executor has been shut down, so won't accept any more tasks.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Waits for every task which has been queued (including any queued while waiting) to finish, without waiting for
+     * their delays - while still accepting new tasks. Tasks still run one at a time, in order, per key.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all queued tasks finished, false if the timeout expired first
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        flushing.incrementAndGet();
+        try {
+            while (outstandingTasks.get() > 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            flushing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, and waits for the tasks which have already been queued to finish, without waiting for any
+     * delays. Lanes which haven't finished within the given time are interrupted.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all queued tasks finished, false if the timeout expired first
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        shutdown = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean finished = true;
+        for (Lane lane : lanes) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedJoin(lane.thread, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (lane.thread.isAlive()) {
+                lane.thread.interrupt();
+                finished = false;
+            }
+        }
+        return finished;
+    }
+
+    private void run(Task task) {
+        long start = System.nanoTime();
+        long latency = Math.max(0, start - task.runAt);
+        totalQueueLatencyNanos.addAndGet(latency);
+        maxQueueLatencyNanos.accumulateAndGet(latency, Math::max);
+        try {
+            task.runnable.run();
+        } catch (Throwable t) {
+            LOGGER.error("Task failed in " + name, t);
+        } finally {
+            totalRunTimeNanos.addAndGet(System.nanoTime() - start);
+            completedTasks.incrementAndGet();
+            outstandingTasks.decrementAndGet();
+        }
+    }
+
+    @Override
+    public int getLanes() {
+        return lanes.length;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getMaxLaneQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth = Math.max(depth, lane.queue.size());
+        }
+        return depth;
+    }
+
+    @Override
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    @Override
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    @Override
+    public double getMeanQueueLatencyMillis() {
+        long completed = completedTasks.get();
+        return completed == 0 ? 0 : totalQueueLatencyNanos.get() / 1e6 / completed;
+    }
+
+    @Override
+    public double getMaxQueueLatencyMillis() {
+        return maxQueueLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getMeanRunTimeMillis() {
+        long completed = completedTasks.get();
+        return completed == 0 ? 0 : totalRunTimeNanos.get() / 1e6 / completed;
+    }
+
+    /**
+     * A task, along with the time (from {@link System#nanoTime()}) at which it's due to run.
+     */
+    private static final class Task {
+        private final Runnable runnable;
+        private final long runAt;
+
+        private Task(Runnable runnable, long runAt) {
+            this.runnable = runnable;
+            this.runAt = runAt;
+        }
+    }
+
+    /**
+     * A single lane, which runs the tasks in its queue one at a time. Every task in a lane has the same delay
+     * (or none), so tasks become due in the order they're queued, and the lane only ever needs to wait for the task at
+     * the front of its queue.
+     */
+    private final class Lane implements Runnable {
+        private final BlockingQueue<Task> queue;
+        private Thread thread;
+
+        private Lane(BlockingQueue<Task> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown || !queue.isEmpty()) {
+                    Task task = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (task == null) {
+                        continue;
+                    }
+
+                    // Wait until the task is due, unless we're shutting down or being flushed
+                    long wait;
+                    while (!shutdown && flushing.get() == 0 && (wait = task.runAt - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(10)));
+                    }
+                    StripedExecutor.this.run(task);
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn(Thread.currentThread().getName() + " interrupted with " + queue.size() + " task(s) queued");
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package se325.flights.service;
+
+/**
+ * Management interface for a {@link StripedExecutor}, exposing its queue depth and task latency over JMX.
+ */
+public interface StripedExecutorMXBean {
+
+    /**
+     * Gets the number of lanes, each of which runs its tasks one at a time, in order.
+     */
+    int getLanes();
+
+    /**
+     * Gets the maximum number of tasks which may be queued in each lane.
+     */
+    int getQueueCapacity();
+
+    /**
+     * Gets whether the lanes run on virtual threads.
+     */
+    boolean isVirtualThreads();
+
+    /**
+     * Gets the number of tasks currently queued, across all lanes.
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets the number of tasks currently queued in the busiest lane.
+     */
+    int getMaxLaneQueueDepth();
+
+    /**
+     * Gets the number of tasks which have finished running.
+     */
+    long getCompletedTasks();
+
+    /**
+     * Gets the number of tasks which were rejected because their lane's queue was full.
+     */
+    long getRejectedTasks();
+
+    /**
+     * Gets the mean time, in milliseconds, that tasks waited in their queue after they were due to run.
+     */
+    double getMeanQueueLatencyMillis();
+
+    /**
+     * Gets the longest time, in milliseconds, that a task waited in its queue after it was due to run.
+     */
+    double getMaxQueueLatencyMillis();
+
+    /**
+     * Gets the mean time, in milliseconds, that tasks took to run.
+     */
+    double getMeanRunTimeMillis();
+}
@@ -0,0 +1,30 @@
+package se325.flights.service;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Something waiting to be told when a {@link Subscription} is resolved. This is either a single suspended HTTP request
+ * (see {@link AsyncResponseSubscriber}) or a WebSocket connection carrying any number of subscriptions (see
+ * {@link SubscriptionSocket}).
+ */
+public interface Subscriber {
+
+    /**
+     * Tells this subscriber that the given subscription has been resolved.
+     *
+     * @param subscription the subscription which was resolved
+     * @param response     the outcome - its status, and any headers which apply
+     * @return true if the subscriber was told, false if it had already gone away
+     */
+    boolean resume(Subscription subscription, Response response);
+
+    /**
+     * Tells this subscriber that the given subscription was cancelled, so it won't be resolved.
+     */
+    void cancel(Subscription subscription);
+
+    /**
+     * Returns true if this subscriber has gone away, and can no longer be told about anything.
+     */
+    boolean isDone();
+}
@@ -0,0 +1,140 @@
+package se325.flights.service;
+
+import se325.flights.CabinClass;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single ongoing subscription, as held by the {@link SubscriptionManager}. Pairs the info about the subscription with
+ * the {@link Subscriber} to notify when it's resolved.
+ * <p>
+ * Each Subscription has its own unique id, and Subscriptions are only equal to themselves - so two identical
+ * requests from the same user are tracked (and notified) separately. The required cabin class and number of seats are
+ * captured when the Subscription is created, so that later changes to the DTO can't affect where it's indexed.
+ * <p>
+ * A subscription outlives any one request or connection. When its client times out or goes away, it becomes detached
+ * (it has no {@link Subscriber}) but keeps waiting, and a later request can attach to it again by its id.
+ */
+public final class Subscription {
+
+    private final long id;
+    private final AvailableSeatsSubscriptionDTO info;
+    private final AtomicReference<Subscriber> subscriber;
+    private final CabinClass cabinClass;
+    private final int numSeats;
+    private final boolean waitlisted;
+    private volatile Response.Status resolvedStatus;
+    private volatile URI location;
+    private volatile long detachedAt;
+
+    public Subscription(long id, AvailableSeatsSubscriptionDTO info, Subscriber subscriber) {
+        this.id = id;
+        this.info = info;
+        this.subscriber = new AtomicReference<>(subscriber);
+        this.cabinClass = info.getCabinClass();
+        this.numSeats = info.getNumSeats();
+        this.waitlisted = info.isWaitlist();
+        this.detachedAt = System.nanoTime();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public AvailableSeatsSubscriptionDTO getInfo() {
+        return info;
+    }
+
+    /**
+     * Gets the {@link Subscriber} currently waiting on this subscription, or null if it's detached.
+     */
+    public Subscriber getSubscriber() {
+        return subscriber.get();
+    }
+
+    /**
+     * Attaches the given subscriber to this subscription, if it's currently detached.
+     *
+     * @return true if the subscriber was attached, false if another subscriber was already attached
+     */
+    public boolean attach(Subscriber subscriber) {
+        return this.subscriber.compareAndSet(null, subscriber);
+    }
+
+    /**
+     * Detaches the given subscriber from this subscription, if it's the one currently attached.
+     *
+     * @return true if the subscriber was detached, false if it wasn't attached
+     */
+    public boolean detach(Subscriber subscriber) {
+        if (subscriber != null && this.subscriber.compareAndSet(subscriber, null)) {
+            detachedAt = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if this subscription has had no subscriber for at least the given number of nanoseconds.
+     */
+    public boolean isDetachedFor(long nanos) {
+        return subscriber.get() == null && System.nanoTime() - detachedAt >= nanos;
+    }
+
+    /**
+     * Detaches and returns whichever subscriber is currently attached, so that only the caller may notify it.
+     *
+     * @return the subscriber which was attached, or null if this subscription was detached
+     */
+    public Subscriber takeSubscriber() {
+        return subscriber.getAndSet(null);
+    }
+
+    /**
+     * Gets the required cabin class, or null if seats of any class will do.
+     */
+    public CabinClass getCabinClass() {
+        return cabinClass;
+    }
+
+    /**
+     * Gets the number of seats which must be available for this subscription to be satisfied.
+     */
+    public int getNumSeats() {
+        return numSeats;
+    }
+
+    /**
+     * Returns true if this subscription is on its flight's waitlist, so should have seats held for it rather than just
+     * being told when they're available.
+     */
+    public boolean isWaitlisted() {
+        return waitlisted;
+    }
+
+    /**
+     * Gets the status this subscription was resolved with, or null if it's still waiting.
+     */
+    public Response.Status getResolvedStatus() {
+        return resolvedStatus;
+    }
+
+    public void setResolvedStatus(Response.Status resolvedStatus) {
+        this.resolvedStatus = resolvedStatus;
+    }
+
+    /**
+     * Gets the absolute URI at which this subscription can be reattached, or null if it hasn't yet been attached to a
+     * request.
+     */
+    public URI getLocation() {
+        return location;
+    }
+
+    public void setLocation(URI location) {
+        this.location = location;
+    }
+}
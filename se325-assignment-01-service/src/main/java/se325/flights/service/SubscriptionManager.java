@@ -1,224 +1,947 @@
 package se325.flights.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import se325.flights.CabinClass;
+import se325.flights.domain.ArchivedFlight;
+import se325.flights.domain.BookingException;
 import se325.flights.domain.Flight;
-import se325.flights.domain.FlightBooking;
-import se325.flights.domain.Seat;
-import se325.flights.domain.SeatingZone;
+import se325.flights.domain.SeatInventory;
+import se325.flights.domain.events.SeatsBooked;
+import se325.flights.domain.events.SeatsReleased;
 import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.util.JmxUtils;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
-import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.ws.rs.core.UriBuilder;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * A central place to hold all the subscriptions and subscription management / processing methods. Singleton so that
  * any resource instance can access the same subscription service.
+ * <p>
+ * A flight's subscriptions are processed whenever seats on it are released, as announced on the {@link EventBus} - see
+ * {@link SeatsReleased}.
+ * <p>
+ * Subscriptions are durable - each one is written to the {@link SubscriptionStore} when it's made, and deleted once
+ * its subscriber has been notified. After a restart, the stored subscriptions for a flight are loaded back into memory
+ * the first time that flight is touched, rather than all at once at startup.
+ * <p>
+ * Requests don't wait forever. Each one times out after {@code flights.subscriptions.timeoutSeconds} seconds
+ * (default 600) with a 408 Request Timeout response, whose Location header gives the URI at which the subscription
+ * can be reattached - the subscription itself keeps waiting. A background sweep runs every
+ * {@code flights.subscriptions.sweepIntervalSeconds} seconds (default 60, 0 disables it) to drop subscriptions to
+ * flights which have departed (with a 410 Gone response) and detach those whose clients have gone away. Subscriptions
+ * which nobody has been attached to for {@code flights.subscriptions.detachedSeconds} seconds (default 600) are dropped
+ * from memory by the same sweep, but stay stored - they're loaded again if their client reattaches. No more than
+ * {@code flights.subscriptions.max} subscriptions (default 100,000) may be held in memory at once - any more are
+ * rejected with a 503 Service Unavailable response. Counts of each are available over JMX - see
+ * {@link SubscriptionManagerMXBean}.
+ * <p>
+ * Subscriptions are processed by a {@link StripedExecutor}, configured with {@code flights.subscriptions.lanes}
+ * (default 5), {@code flights.subscriptions.queueCapacity} (per lane, default 1000),
+ * {@code flights.subscriptions.enqueueTimeoutMillis} (default 100) and {@code flights.subscriptions.threads}
+ * ({@code platform} or {@code virtual}, default platform). A flight whose lane is full is queued again after
+ * {@code flights.subscriptions.retryMillis} milliseconds (default 100). Its queue depth and task latency are also
+ * available over JMX.
+ * <p>
+ * Waitlisted subscriptions aren't all told at once when seats become available. Instead, each flight's waitlist is
+ * offered the seats first, in the order the subscriptions were made, and seats are held for each subscriber they
+ * satisfy - see {@link SeatHolds}. Holds last {@code flights.subscriptions.holdSeconds} seconds (default 60), after
+ * which any unclaimed seats are offered to the next in line.
  */
-public class SubscriptionManager {
+public class SubscriptionManager implements SubscriptionManagerMXBean {
 
-    private static SubscriptionManager instance;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionManager.class);
+
+    private static final String MBEAN_NAME = "se325.flights:type=SubscriptionManager";
+    private static final String EXECUTOR_MBEAN_NAME = "se325.flights:type=SubscriptionExecutor";
+
+    private static volatile SubscriptionManager instance;
 
     public static SubscriptionManager instance() {
-        if (instance == null) {
-            instance = new SubscriptionManager();
+        SubscriptionManager result = instance;
+        if (result == null) {
+            synchronized (SubscriptionManager.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new SubscriptionManager();
+                }
+            }
         }
-        return instance;
+        return result;
     }
 
+    private final long timeoutSeconds = Long.getLong("flights.subscriptions.timeoutSeconds", 600);
+    private final int maxSubscriptions = Integer.getInteger("flights.subscriptions.max", 100_000);
+    private final long detachedSeconds = Long.getLong("flights.subscriptions.detachedSeconds", 600);
+    private final long debounceMillis = Long.getLong("flights.subscriptions.debounceMillis", 50);
+    private final long retryMillis = Long.getLong("flights.subscriptions.retryMillis", 100);
+    private final long holdSeconds = Long.getLong("flights.subscriptions.holdSeconds", 60);
+
+    private final AtomicInteger activeSubscriptions = new AtomicInteger();
+    private final AtomicLong rejectedSubscriptions = new AtomicLong();
+    private final AtomicLong timedOutSubscriptions = new AtomicLong();
+    private final AtomicLong expiredSubscriptions = new AtomicLong();
+    private final AtomicLong abandonedSubscriptions = new AtomicLong();
+    private final AtomicLong droppedSubscriptions = new AtomicLong();
+    private final AtomicLong coalescedTriggers = new AtomicLong();
+    private final AtomicLong grantedHolds = new AtomicLong();
+    private final AtomicLong claimedHolds = new AtomicLong();
+    private final AtomicLong expiredHolds = new AtomicLong();
+
     private SubscriptionManager() {
+        long sweepInterval = Long.getLong("flights.subscriptions.sweepIntervalSeconds", 60);
+        if (sweepInterval > 0) {
+            sweeper.scheduleWithFixedDelay(this::sweepQuietly, sweepInterval, sweepInterval, TimeUnit.SECONDS);
+        }
+
+        JmxUtils.registerMBean(this, MBEAN_NAME);
+        JmxUtils.registerMBean(executor, EXECUTOR_MBEAN_NAME);
+
+        EventBus.instance().subscribe(SeatsReleased.class, this::onSeatsReleased);
+        EventBus.instance().subscribe(SeatsBooked.class, this::onSeatsBooked);
     }
 
     /**
-     * In charge of executing subscription processing
+     * Processes the subscriptions to each flight which has had seats released. Each flight is only processed once per
+     * batch, however many of its bookings were cancelled.
      */
-    private final ExecutorService threadPool = Executors.newFixedThreadPool(5);
+    private void onSeatsReleased(List<SeatsReleased> events) {
+        Set<Long> flightIds = new LinkedHashSet<>();
+        for (SeatsReleased event : events) {
+            flightIds.add(event.getFlightId());
+        }
+        flightIds.forEach(this::processSubscriptions);
+    }
+
+    /**
+     * Releases the seats held for each user who has now booked them.
+     */
+    private void onSeatsBooked(List<SeatsBooked> events) {
+        for (SeatsBooked event : events) {
+            claimHeldSeats(event.getFlightId(), event.getUserId());
+        }
+    }
 
     /**
-     * Holds all subscriptions
+     * In charge of executing subscription processing. Striped by flight id, so each flight's subscriptions are processed
+     * one evaluation at a time, in order.
      */
-    private final Map<AvailableSeatsSubscriptionDTO, AsyncResponse> subs = new HashMap<>();
+    private final StripedExecutor executor = new StripedExecutor("subscription-processor",
+            Integer.getInteger("flights.subscriptions.lanes", 5),
+            Integer.getInteger("flights.subscriptions.queueCapacity", 1000),
+            Long.getLong("flights.subscriptions.enqueueTimeoutMillis", 100),
+            "virtual".equalsIgnoreCase(System.getProperty("flights.subscriptions.threads")));
 
     /**
-     * Adds the given subscription to the collection of ongoing subs.
+     * In charge of periodically dropping subscriptions which can no longer be satisfied, of expiring seat holds, and of
+     * queueing again the evaluations whose lane was full
+     */
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "subscription-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The ids of flights whose subscriptions are scheduled to be processed, but haven't started processing yet
+     */
+    private final Set<Long> pendingFlights = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Holds all subscriptions, indexed by flight id and then by cabin class. Flights are only present while they have
+     * at least one ongoing subscription.
+     */
+    private final ConcurrentMap<Long, FlightSubscriptions> subs = new ConcurrentHashMap<>();
+
+    /**
+     * Holds all subscriptions, indexed by their id
+     */
+    private final ConcurrentMap<Long, Subscription> subsById = new ConcurrentHashMap<>();
+
+    /**
+     * The ids of flights whose stored subscriptions have been loaded into memory
+     */
+    private final ConcurrentMap<Long, Boolean> loadedFlights = new ConcurrentHashMap<>();
+
+    private final SubscriptionStore store = new SubscriptionStore();
+
+    private final SeatHolds holds = new SeatHolds();
+
+    /**
+     * Adds the given subscription to the collection of ongoing subs, with the default timeout.
      *
      * @param subInfo info about the flight for which seats are required, the number of required seats, the required
      *                cabin class of those seats (if any), and the user who made the request
      * @param sub     the {@link AsyncResponse} object that will eventually be used to send the response back to the
      *                client
+     * @param uris    builds the URI at which a subscription can be reattached, given its id
+     * @return the newly added subscription
+     * @throws WebApplicationException with a 503 status if the maximum number of subscriptions has been reached
+     */
+    public Subscription addSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub, UriBuilder uris) {
+        return addSubscription(subInfo, sub, uris, timeoutSeconds);
+    }
+
+    /**
+     * Adds the given subscription to the collection of ongoing subs. If its seats haven't become available within the
+     * given number of seconds (or the default timeout, if that's shorter), it will be resumed with a 408 response.
+     *
+     * @param subInfo        info about the flight for which seats are required, the number of required seats, the
+     *                       required cabin class of those seats (if any), and the user who made the request
+     * @param sub            the {@link AsyncResponse} object that will eventually be used to send the response back to
+     *                       the client
+     * @param uris           builds the URI at which a subscription can be reattached, given its id
+     * @param timeoutSeconds the maximum number of seconds to wait
+     * @return the newly added subscription
+     * @throws WebApplicationException with a 503 status if the maximum number of subscriptions has been reached
+     */
+    public Subscription addSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub, UriBuilder uris,
+                                        long timeoutSeconds) {
+        Subscriber subscriber = new AsyncResponseSubscriber(sub);
+        Subscription subscription = addSubscription(subInfo, subscriber);
+        watch(subscription, sub, subscriber, uris, timeoutSeconds);
+        return subscription;
+    }
+
+    /**
+     * Adds the given subscription to the collection of ongoing subs, to be notified through the given subscriber for as
+     * long as it stays attached. Unlike HTTP requests, subscribers added this way don't time out - they should detach
+     * their subscriptions when they go away, using {@link #detachSubscriptions}.
+     *
+     * @param subInfo    info about the flight for which seats are required, the number of required seats, the
+     *                   required cabin class of those seats (if any), and the user who made the request
+     * @param subscriber the subscriber to notify
+     * @return the newly added subscription
+     * @throws WebApplicationException with a 503 status if the maximum number of subscriptions has been reached
+     */
+    public Subscription addSubscription(AvailableSeatsSubscriptionDTO subInfo, Subscriber subscriber) {
+
+        reserve();
+
+        // Load the flight's stored subscriptions before storing this one, so it isn't loaded twice
+        Subscription subscription;
+        try {
+            loadFlight(subInfo.getFlightId());
+            subscription = new Subscription(store.insert(subInfo), subInfo, subscriber);
+        } catch (RuntimeException e) {
+            activeSubscriptions.decrementAndGet();
+            throw e;
+        }
+
+        register(subscription);
+        return subscription;
+    }
+
+    /**
+     * Reattaches the given response to the stored subscription with the given id. If the subscription was resolved
+     * while nobody was attached, the response is resumed straight away with the status it was resolved with.
+     *
+     * @param id     the subscription's id
+     * @param userId the id of the user making the request, who must be the user who made the subscription
+     * @param sub    the {@link AsyncResponse} object that will eventually be used to send the response back to the
+     *               client
+     * @param uris   builds the URI at which a subscription can be reattached, given its id
+     * @param timeoutSeconds the maximum number of seconds to wait (or the default timeout, if that's shorter)
+     * @return the subscription, if it's still waiting and should be checked for availability, or null if the response
+     * has already been resumed
+     * @throws NotFoundException       if there's no such subscription for the given user
+     * @throws WebApplicationException with a 409 status if another request is already attached to the subscription
+     */
+    public Subscription reattachSubscription(long id, long userId, AsyncResponse sub, UriBuilder uris,
+                                             long timeoutSeconds) {
+        Subscription stored = store.find(id);
+        if (stored == null || stored.getInfo().getUserId() != userId) {
+            // status code 404 thrown
+            throw new NotFoundException();
+        }
+
+        loadFlight(stored.getInfo().getFlightId());
+        Subscription subscription = subsById.get(id);
+        if (subscription == null && stored.getResolvedStatus() == null) {
+            // It's still waiting, but was dropped from memory while nobody was attached
+            subscription = reload(stored);
+        }
+        if (subscription == null) {
+            // It's been resolved, either before we looked or since - in which case it will have been recorded as such
+            subscription = store.find(id);
+            if (subscription == null || subscription.getResolvedStatus() == null) {
+                throw new NotFoundException();
+            }
+            store.delete(Collections.singletonList(id));
+            sub.resume(Response.status(subscription.getResolvedStatus()).build());
+            return null;
+        }
+
+        Subscriber subscriber = new AsyncResponseSubscriber(sub);
+        if (!subscription.attach(subscriber)) {
+            // status code 409 thrown
+            throw new WebApplicationException(Response.Status.CONFLICT);
+        }
+
+        // It may have been resolved while we were attaching, in which case whoever resolved it might not have seen us
+        if (subscription.getResolvedStatus() != null) {
+            if (subscription.detach(subscriber)) {
+                store.delete(Collections.singletonList(id));
+                sub.resume(Response.status(subscription.getResolvedStatus()).build());
+            }
+            return null;
+        }
+
+        watch(subscription, sub, subscriber, uris, timeoutSeconds);
+        return subscription;
+    }
+
+    /**
+     * Cancels the subscription with the given id, so that its subscriber won't be notified.
+     *
+     * @param id     the subscription's id
+     * @param userId the id of the user making the request, who must be the user who made the subscription
+     * @throws NotFoundException if there's no such subscription for the given user
      */
-    public void addSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub) {
-        this.subs.put(subInfo, sub);
+    public void cancelSubscription(long id, long userId) {
+        Subscription stored = store.find(id);
+        if (stored == null || stored.getInfo().getUserId() != userId) {
+            // status code 404 thrown
+            throw new NotFoundException();
+        }
+
+        Subscription subscription = subsById.get(id);
+        if (subscription != null && unregister(subscription)) {
+            forget(subscription);
+            Subscriber subscriber = subscription.takeSubscriber();
+            if (subscriber != null) {
+                subscriber.cancel(subscription);
+            }
+        }
+        store.delete(Collections.singletonList(id));
+    }
+
+    /**
+     * Detaches the given subscriber from each of the subscriptions with the given ids, because it has gone away. The
+     * subscriptions keep waiting, and can be reattached later.
+     *
+     * @param subscriber the subscriber which has gone away
+     * @param ids        the ids of the subscriptions it was attached to
+     */
+    public void detachSubscriptions(Subscriber subscriber, long[] ids) {
+        for (long id : ids) {
+            Subscription subscription = subsById.get(id);
+            if (subscription != null && subscription.detach(subscriber)) {
+                abandonedSubscriptions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reserves a place in memory for a subscription, or rejects it if there's no room.
+     *
+     * @throws WebApplicationException with a 503 status if the maximum number of subscriptions has been reached
+     */
+    private void reserve() {
+        // status code:503 thrown
+        if (activeSubscriptions.incrementAndGet() > maxSubscriptions) {
+            activeSubscriptions.decrementAndGet();
+            rejectedSubscriptions.incrementAndGet();
+            throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Puts a stored subscription which was dropped from memory back into the in-memory indices, unless someone else
+     * already has.
+     *
+     * @return the subscription now held in memory
+     * @throws WebApplicationException with a 503 status if the maximum number of subscriptions has been reached
+     */
+    private Subscription reload(Subscription stored) {
+        reserve();
+        Subscription existing = subsById.putIfAbsent(stored.getId(), stored);
+        if (existing != null) {
+            activeSubscriptions.decrementAndGet();
+            return existing;
+        }
+        register(stored);
+        return stored;
+    }
+
+    /**
+     * Adds the given subscription to the in-memory indices.
+     */
+    private void register(Subscription subscription) {
+        subsById.put(subscription.getId(), subscription);
+
+        // compute() runs atomically per flight, so can't race with unregister() discarding an empty flight
+        subs.compute(subscription.getInfo().getFlightId(), (flightId, flightSubs) -> {
+            if (flightSubs == null) {
+                flightSubs = new FlightSubscriptions();
+            }
+            flightSubs.add(subscription);
+            return flightSubs;
+        });
+    }
+
+    /**
+     * Removes the given subscription from the collection of ongoing subs, if it's still there. If several threads try
+     * to remove the same subscription at once, only one will succeed.
+     *
+     * @param subscription the subscription to remove
+     * @return true if the subscription was removed by this call, false if it had already been removed
+     */
+    private boolean unregister(Subscription subscription) {
+        boolean[] removed = new boolean[1];
+        subs.computeIfPresent(subscription.getInfo().getFlightId(), (flightId, flightSubs) -> {
+            removed[0] = flightSubs.remove(subscription);
+            return flightSubs.isEmpty() ? null : flightSubs;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Removes an unregistered subscription from the remaining in-memory state.
+     */
+    private void forget(Subscription subscription) {
+        subsById.remove(subscription.getId());
+        activeSubscriptions.decrementAndGet();
+    }
+
+    /**
+     * Loads the stored subscriptions to the given flight into memory, unless that has already been done. Subscriptions
+     * loaded this way are detached until their subscribers reattach.
+     */
+    private void loadFlight(long flightId) {
+        loadedFlights.computeIfAbsent(flightId, id -> {
+            for (Subscription subscription : store.findWaiting(id)) {
+                if (!subsById.containsKey(subscription.getId())) {
+                    activeSubscriptions.incrementAndGet();
+                    register(subscription);
+                }
+            }
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * Makes sure the given subscription is detached from the given response's subscriber once that response is done
+     * with - whether because it was answered, timed out, or its client went away.
+     */
+    private void watch(Subscription subscription, AsyncResponse sub, Subscriber subscriber, UriBuilder uris,
+                       long timeoutSeconds) {
+        subscription.setLocation(uris.build(subscription.getId()));
+        sub.register((CompletionCallback) throwable -> subscription.detach(subscriber));
+        sub.register((ConnectionCallback) disconnected -> {
+            if (subscription.detach(subscriber)) {
+                abandonedSubscriptions.incrementAndGet();
+            }
+        });
+
+        // status code 408 in async response if the seats don't become available in time. The subscription keeps
+        // waiting, and the client can reattach to it using the given location.
+        sub.setTimeoutHandler(timedOut -> {
+            if (subscription.detach(subscriber)) {
+                timedOutSubscriptions.incrementAndGet();
+                timedOut.resume(Response.status(Response.Status.REQUEST_TIMEOUT)
+                        .location(subscription.getLocation())
+                        .build());
+            }
+        });
+        sub.setTimeout(Math.min(timeoutSeconds, this.timeoutSeconds), TimeUnit.SECONDS);
     }
 
     /**
      * Runs through all subscriptions pertaining to the flight with the given id, and processes them. This is done on a
-     * different Thread.
+     * different Thread. Only the given flight's subscriptions are visited - if there are none, nothing is done.
+     * <p>
+     * The flight's seat availability is read once, and every subscription satisfied by it is then resolved in a single
+     * sweep - see {@link FlightSubscriptions#removeSatisfied}.
+     * <p>
+     * Processing is coalesced per flight: it is delayed by {@code flights.subscriptions.debounceMillis}
+     * milliseconds (default 50), and any further calls for the same flight made before it starts are folded into it -
+     * so a burst of cancellations results in a single evaluation, against the state after the burst. Calls made once
+     * processing has started will schedule another evaluation, so no change is missed.
+     * <p>
+     * If the flight's lane is full, the flight stays pending and is queued again later by the sweeper thread - it's never
+     * evaluated by the caller (usually the {@link EventBus}'s dispatcher), where it could overtake the evaluations
+     * already queued for the flight.
      *
      * @param flightId the id of the flight whose subs should be processed
      */
     public void processSubscriptions(final long flightId) {
-        threadPool.submit(() -> {
-            final EntityManager em = PersistenceManager.instance().createEntityManager();
-            try {
+        if (!subs.containsKey(flightId) && loadedFlights.containsKey(flightId)) {
+            return;
+        }
+
+        if (!pendingFlights.add(flightId)) {
+            // Processing is already scheduled for this flight, and will see the latest state
+            coalescedTriggers.incrementAndGet();
+            return;
+        }
+
+        queueEvaluation(flightId);
+    }
 
-                // Find all subscriptions for the given flight
-                List<Map.Entry<AvailableSeatsSubscriptionDTO, AsyncResponse>> subsToProcess = subs.entrySet().stream()
-                        .filter(entry -> flightId == entry.getKey().getFlightId())
-                        .collect(Collectors.toList());
+    /**
+     * Queues an evaluation of the given pending flight. If its lane is full, the flight is left pending, so that further
+     * calls are still folded into it, and queued again after {@code retryMillis}.
+     */
+    private void queueEvaluation(long flightId) {
+        try {
+            executor.execute(flightId, debounceMillis, () -> evaluate(flightId));
+        } catch (RejectedExecutionException e) {
+            if (!executor.isShutdown()) {
+                try {
+                    sweeper.schedule(() -> queueEvaluation(flightId), retryMillis, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    // The sweeper has already stopped, so we're shutting down too
+                }
+            }
+            // We're shutting down - anyone waiting will be told to come back later
+            pendingFlights.remove(flightId);
+        }
+    }
 
-                // For each of those subscriptions, process them. If they were successfully processed, remove them
-                // from the collection, so they won't be processed again.
-                subsToProcess.forEach(entry -> {
-                    if (processSingleSubscription(entry.getKey(), entry.getValue(), em)) {
-                        subs.remove(entry.getKey());
+    /**
+     * Resolves every subscription to the given flight which is satisfied by its current seat availability.
+     */
+    private void evaluate(long flightId) {
+        pendingFlights.remove(flightId);
+        loadFlight(flightId);
+        FlightSubscriptions flightSubs = subs.get(flightId);
+        if (flightSubs == null) {
+            return;
+        }
+
+        // Waitlisted subscriptions get the first pick of the seats
+        if (!flightSubs.getWaitlist().isEmpty()) {
+            holdSeats(flightId, flightSubs);
+        }
+
+        SeatInventory inventory;
+        final EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            inventory = findSeatInventory(flightId, em);
+        } finally {
+            em.close();
+        }
+
+        if (inventory == null) {
+            // status code 404 in async response for every subscription to this flight
+            resolveAll(flightSubs.removeAll(), Response.Status.NOT_FOUND);
+        } else {
+            // return 204 status code in the async response of every subscription satisfied by the seats not held
+            resolveAll(flightSubs.removeSatisfied(cabinClass -> seatsAvailable(flightId, inventory, cabinClass)),
+                    Response.Status.NO_CONTENT);
+        }
+        subs.computeIfPresent(flightId, (id, fs) -> fs.isEmpty() ? null : fs);
+    }
+
+    /**
+     * Offers the given flight's available seats to its waitlist, in the order the subscriptions were made, holding
+     * seats for each one they satisfy. The flight is locked while this happens, so that nobody else can book the seats
+     * before they're held.
+     */
+    private void holdSeats(long flightId, FlightSubscriptions flightSubs) {
+        ZonedDateTime expiresAt = ZonedDateTime.now().plusSeconds(holdSeconds);
+        List<Subscription> held = new ArrayList<>();
+        final EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, flightId, LockModeType.PESSIMISTIC_WRITE);
+            if (flight != null) {
+                for (Subscription subscription : flightSubs.getWaitlist()) {
+                    if (!holds.tryHold(subscription, flight.getSeatInventory(), expiresAt)) {
+                        continue;
                     }
-                });
-            } finally {
-                em.close();
+                    if (flightSubs.remove(subscription)) {
+                        held.add(subscription);
+                    } else {
+                        // It was resolved some other way while we were holding its seats
+                        holds.release(subscription);
+                    }
+                }
             }
-        });
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+
+        if (!held.isEmpty()) {
+            grantedHolds.addAndGet(held.size());
+            try {
+                sweeper.schedule(() -> expireHolds(flightId), holdSeconds, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // We're shutting down, and the holds will be lost anyway
+            }
+
+            // return 204 status code in the async response of every subscription with seats held, saying until when
+            resolveAll(held, Response.Status.NO_CONTENT, expiresAt);
+        }
+    }
+
+    /**
+     * Releases the given flight's expired seat holds, and offers their seats to whoever is next in line.
+     */
+    private void expireHolds(long flightId) {
+        try {
+            int expired = holds.removeExpired(flightId);
+            if (expired > 0) {
+                expiredHolds.addAndGet(expired);
+                processSubscriptions(flightId);
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Couldn't expire seat holds for flight " + flightId, ex);
+        }
+    }
+
+    /**
+     * Checks that a booking made by the given user doesn't take any seats which are being held for someone else. The
+     * flight should be locked, and the booking should already have been made (but not committed).
+     *
+     * @param flightId  the id of the flight being booked
+     * @param userId    the id of the user making the booking
+     * @param inventory the flight's seat availability, after the booking
+     * @throws BookingException if the booking takes seats which are being held for another user
+     */
+    public void checkHeldSeats(long flightId, long userId, SeatInventory inventory) throws BookingException {
+        holds.checkBooking(flightId, userId, inventory);
+    }
+
+    /**
+     * Releases any seats held for the given user on the given flight, once they've booked it.
+     *
+     * @param flightId the id of the flight which was booked
+     * @param userId   the id of the user who made the booking
+     */
+    private void claimHeldSeats(long flightId, long userId) {
+        claimedHolds.addAndGet(holds.claim(flightId, userId));
+    }
+
+    /**
+     * Gets the number of seats of the given cabin class (or of any class, if null) which are available to subscribers
+     * who don't have them held.
+     */
+    private int seatsAvailable(long flightId, SeatInventory inventory, CabinClass cabinClass) {
+        return inventory.getSeatsRemaining(cabinClass) - holds.getHeld(flightId, cabinClass);
     }
 
     /**
      * Processes a single subscription. Search for that subscription's flight and check how many seats it has of the
      * given cabin class.
      * <p>
-     * If the flight doesn't exist, resumes the AsyncResponse with a 404 response, and returns true
+     * If the flight doesn't exist, notifies the subscriber with a 404 response, and returns true
      * <p>
      * If the flight contains at least the required number of unbooked seats of the required cabin class (or any cabin
-     * class if the provided class is null), resumes the AsyncResponse with a 204 No Content response, and returns true
+     * class if the provided class is null), notifies the subscriber with a 204 No Content response, and returns true
+     * <p>
+     * Otherwise, returns false. In any case, the subscription is only resumed if it could be removed from the
+     * collection of ongoing subs, so it can't also be resumed by {@link #processSubscriptions(long)}.
      * <p>
-     * Otherwise, returns false.
+     * Waitlisted subscriptions aren't checked here, as they mustn't jump the queue - their flight's subscriptions are
+     * processed instead, and false is returned.
      *
-     * @param subInfo the subscription to process
-     * @param sub     the {@link AsyncResponse} to use to send a response back to the client
-     * @param em      the {@link EntityManager} to use to access the database
-     * @return true if the sub was successfully processed (i.e. {@link AsyncResponse#resume} was called),
-     * false otherwise.
+     * @param subscription the subscription to process
+     * @param em           the {@link EntityManager} to use to access the database
+     * @return true if the sub was successfully processed (i.e. it was resolved, and its subscriber notified if it has
+     * one), false otherwise.
      */
-    public boolean processSingleSubscription(AvailableSeatsSubscriptionDTO subInfo, AsyncResponse sub, EntityManager em) {
+    public boolean processSingleSubscription(Subscription subscription, EntityManager em) {
+        if (subscription.isWaitlisted()) {
+            processSubscriptions(subscription.getInfo().getFlightId());
+            return false;
+        }
 
         // check that the flight exists otherwise return 404 status code
-        em.getTransaction().begin();
-        Flight flight = em.find(Flight.class,subInfo.getFlightId());
-        em.getTransaction().commit();
-
+        SeatInventory inventory = findSeatInventory(subscription.getInfo().getFlightId(), em);
+        if (inventory == null) {
+            return resolve(subscription, Response.Status.NOT_FOUND);
+        }
 
-        if (flight == null){
-            // status code 404 in async response for this subscription
-            sub.resume(Response.status(Response.Status.NOT_FOUND).build());
-            return true;
+        // check if the seats are available - if cabin class isn't specified, this checks the entire flight
+        if (seatsAvailable(subscription.getInfo().getFlightId(), inventory, subscription.getCabinClass())
+                >= subscription.getNumSeats()) {
+            return resolve(subscription, Response.Status.NO_CONTENT);
         }
 
-        if (subInfo.getCabinClass() == null){
-            // check if the seats are available -> if cabin class is not specified
-            if (checkSeatAvailabilityEntireFlight(subInfo.getNumSeats(),flight)){
-                // return 204 status code in the async response
-                sub.resume(Response.status(Response.Status.NO_CONTENT).build());
-                return true;
-            }
+        return false;
+    }
 
-            return false;
+    /**
+     * Reads the per-cabin-class seat counters of the flight with the given id.
+     *
+     * @return the flight's seat counters, or null if there's no such flight
+     */
+    private SeatInventory findSeatInventory(long flightId, EntityManager em) {
+        em.getTransaction().begin();
+        try {
+            Flight flight = em.find(Flight.class, flightId);
+            SeatInventory inventory = flight == null ? null : flight.getSeatInventory();
+            em.getTransaction().commit();
+            return inventory;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
         }
+    }
 
-        // check if the seats are available -> if cabin class is specified
-        if (checkSeatAvailabilityCabinClass(subInfo.getNumSeats(),flight,subInfo.getCabinClass())){
-            // return 204 status code in the async response
-            sub.resume(Response.status(Response.Status.NO_CONTENT).build());
-            return true;
+    private boolean resolve(Subscription subscription, Response.Status status) {
+        if (!unregister(subscription)) {
+            // Someone else got to it first
+            return false;
         }
-
-        return false;
+        resolveAll(Collections.singletonList(subscription), status);
+        return true;
     }
 
     /**
-     * Helper method for processSingleSubscription, takes an integer i and flight object and determines
-     * if that flight has i amount of available/unbooked seats left or not.
-     * @param numSeatsReq
-     * @param flight
-     * @return
+     * Resolves all the given subscriptions, which must already have been removed from the collection of ongoing subs,
+     * with the given status. Those with a subscriber attached are notified and deleted from the store - for the rest, the
+     * status is stored so that it can be given to their subscribers when they reattach.
      */
-    private boolean checkSeatAvailabilityEntireFlight(int numSeatsReq, Flight flight){
-        // check the number of unbooked seats on flight is equal to or greater than num of seats needed
-        if (flight.getNumSeatsRemaining() >= numSeatsReq){
-            return true;
-        }
-        return false;
+    private void resolveAll(List<Subscription> subscriptions, Response.Status status) {
+        resolveAll(subscriptions, status, null);
     }
 
     /**
-     * Helper method for processSingleSubscription, takes an integer i and flight object and cabin class
-     * enum and determines if that specified cabin class in the flight has i amount of available/unbooked
-     * seats left or not.
-     * @param numSeatsReq
-     * @param flight
-     * @param cabinClass
-     * @return
+     * Resolves all the given subscriptions as {@link #resolveAll(List, Response.Status)} does, telling their
+     * subscribers when the seats held for them expire (if any are).
      */
-    private boolean checkSeatAvailabilityCabinClass(int numSeatsReq, Flight flight, CabinClass cabinClass){
-        List<String> bookedSeatCodes = seatCodesBookedSeats(flight);
+    private void resolveAll(List<Subscription> subscriptions, Response.Status status, ZonedDateTime holdExpiresAt) {
+        List<Subscription> attached = new ArrayList<>();
+        List<Subscriber> subscribers = new ArrayList<>();
+        List<Long> detached = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            forget(subscription);
+
+            // Set the status before taking the subscriber, so a concurrent reattach will see one or the other
+            subscription.setResolvedStatus(status);
+            Subscriber subscriber = subscription.takeSubscriber();
+            if (subscriber != null) {
+                attached.add(subscription);
+                subscribers.add(subscriber);
+            } else {
+                detached.add(subscription.getId());
+            }
+        }
 
-        Set<SeatingZone> flightSeatingZones = flight.getAircraftType().getSeatingZones();
-        List<SeatingZone> cabinClassSeatingZones = new ArrayList<>();
+        // Store the outcome before telling anyone, so a client which reattaches as soon as it's told finds the
+        // subscription gone, rather than still waiting
+        store.delete(attached.stream().map(Subscription::getId).collect(Collectors.toList()));
+        store.markResolved(detached, status);
 
-        // get the seating zones for the desired cabin class
-        for (SeatingZone sz : flightSeatingZones){
-            if (sz.getCabinClass() == cabinClass){
-                // add to the seating zones of the cabin class
-                cabinClassSeatingZones.add(sz);
+        List<Subscription> undelivered = new ArrayList<>();
+        for (int i = 0; i < attached.size(); i++) {
+            Response.ResponseBuilder response = Response.status(status);
+            if (holdExpiresAt != null) {
+                response.header(SeatHolds.EXPIRES_HEADER, DateTimeFormatter.ISO_DATE_TIME.format(holdExpiresAt));
+            }
+            if (!subscribers.get(i).resume(attached.get(i), response.build())) {
+                undelivered.add(attached.get(i));
             }
         }
+        store.insertResolved(undelivered, status);
+    }
 
-        // get the total number of seats in the cabin class
-        int totalSeatsCabinClass = 0;
-        for (SeatingZone sz : cabinClassSeatingZones){
-            totalSeatsCabinClass = totalSeatsCabinClass + sz.getNumSeatsInZone();
+    /**
+     * Drops all subscriptions which can no longer be satisfied - those to flights which have departed - and detaches
+     * those whose clients have gone away (their {@link Subscriber}s are done). Subscriptions which nobody has been
+     * attached to for {@code flights.subscriptions.detachedSeconds} are dropped from memory, freeing up their places,
+     * but stay stored.
+     */
+    public void sweep() {
+        long detachedNanos = TimeUnit.SECONDS.toNanos(detachedSeconds);
+        List<Long> flightIds = new ArrayList<>();
+        for (Long flightId : subs.keySet()) {
+            FlightSubscriptions flightSubs = subs.get(flightId);
+            if (flightSubs == null) {
+                continue;
+            }
+
+            flightSubs.forEach(subscription -> {
+                Subscriber subscriber = subscription.getSubscriber();
+                if (subscriber != null && subscriber.isDone() && subscription.detach(subscriber)) {
+                    abandonedSubscriptions.incrementAndGet();
+                }
+                if (subscription.isDetachedFor(detachedNanos) && unregister(subscription)) {
+                    forget(subscription);
+                    droppedSubscriptions.incrementAndGet();
+                }
+            });
+            flightIds.add(flightId);
         }
 
-        // get number of seats already booked in cabin class
-        int bookedSeatsCabinClass = 0;
-        for (SeatingZone sz : cabinClassSeatingZones){
-            for (String bookedSeatCode : bookedSeatCodes){
-                if (sz.isValidSeatCode(bookedSeatCode)){
-                    bookedSeatsCabinClass = bookedSeatsCabinClass + 1;
+        if (!flightIds.isEmpty()) {
+            List<Long> departedFlightIds;
+            final EntityManager em = PersistenceManager.instance().createEntityManager();
+            try {
+                em.getTransaction().begin();
+                departedFlightIds = new ArrayList<>(em.createNamedQuery(Flight.FIND_DEPARTED_IDS, Long.class)
+                        .setParameter("flightIds", flightIds)
+                        .setParameter("now", ZonedDateTime.now())
+                        .getResultList());
+                // flights which departed a while ago may have been archived already
+                departedFlightIds.addAll(em.createNamedQuery(ArchivedFlight.FIND_IDS, Long.class)
+                        .setParameter("flightIds", flightIds)
+                        .getResultList());
+                em.getTransaction().commit();
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+
+            // status code 410 in async response for every subscription to a departed flight
+            for (Long flightId : departedFlightIds) {
+                FlightSubscriptions flightSubs = subs.remove(flightId);
+                if (flightSubs != null) {
+                    List<Subscription> expired = flightSubs.removeAll();
+                    expiredSubscriptions.addAndGet(expired.size());
+                    resolveAll(expired, Response.Status.GONE);
                 }
             }
         }
 
-        int seatsAvailableCabinClass = totalSeatsCabinClass - bookedSeatsCabinClass;
+        // Stored subscriptions to departed flights which were never loaded (or were resolved while detached) can go too
+        store.deleteDeparted();
+    }
 
-        if (seatsAvailableCabinClass >= numSeatsReq){
-            return true;
+    /**
+     * Shuts down subscription processing, when the application is stopping. Evaluations which have already been queued
+     * are given a chance to finish, then anyone still waiting is sent a 503 Service Unavailable response, with a
+     * Retry-After header and the Location at which their subscription can be reattached once we're back up. Their
+     * subscriptions remain stored, so nothing is lost.
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+        if (!executor.shutdown(Long.getLong("flights.subscriptions.shutdownTimeoutSeconds", 10), TimeUnit.SECONDS)) {
+            LOGGER.warn("Subscription processing didn't finish in time, " + executor.getQueueDepth() + " task(s) dropped");
         }
 
-        return false;
+        for (Subscription subscription : subsById.values()) {
+            Subscriber subscriber = subscription.takeSubscriber();
+            if (subscriber != null) {
+                subscriber.resume(subscription, Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, 30)
+                        .location(subscription.getLocation())
+                        .build());
+            }
+        }
 
+        JmxUtils.unregisterMBean(MBEAN_NAME);
+        JmxUtils.unregisterMBean(EXECUTOR_MBEAN_NAME);
     }
 
     /**
-     * Returns a list of seat codes of all the booked seats on a flight
-     * @param flight
-     * @return
+     * Waits for the events already published, and the subscription evaluations they lead to, to finish with the
+     * database - so that closing or resetting it doesn't pull it out from under them. Evaluations waiting out their
+     * debounce are run straight away. Does nothing if the SubscriptionManager hasn't been started.
+     *
+     * @return true if everything finished in time, false otherwise
      */
-    private List<String> seatCodesBookedSeats(Flight flight){
-        List<String> bookedSeatCodes = new ArrayList<>();
+    static boolean drain(long timeout, TimeUnit unit) {
+        SubscriptionManager manager = instance;
+        if (manager == null) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return EventBus.instance().awaitDispatched(timeout, unit)
+                && manager.executor.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (Exception ex) {
+            LOGGER.error("Subscription sweep failed", ex);
+        }
+    }
 
-        Set<FlightBooking> flightBookings = flight.getBookings();
+    @Override
+    public int getActiveSubscriptions() {
+        return activeSubscriptions.get();
+    }
 
-        for (FlightBooking fb : flightBookings){
-            Set<Seat> bookedSeats = fb.getSeats();
+    @Override
+    public int getMaxSubscriptions() {
+        return maxSubscriptions;
+    }
 
-            for (Seat seat : bookedSeats){
-                bookedSeatCodes.add(seat.getSeatCode());
-            }
-        }
+    @Override
+    public long getRejectedSubscriptions() {
+        return rejectedSubscriptions.get();
+    }
+
+    @Override
+    public long getTimedOutSubscriptions() {
+        return timedOutSubscriptions.get();
+    }
+
+    @Override
+    public long getExpiredSubscriptions() {
+        return expiredSubscriptions.get();
+    }
+
+    @Override
+    public long getAbandonedSubscriptions() {
+        return abandonedSubscriptions.get();
+    }
+
+    @Override
+    public long getDroppedSubscriptions() {
+        return droppedSubscriptions.get();
+    }
+
+    @Override
+    public int getPendingFlights() {
+        return pendingFlights.size();
+    }
+
+    @Override
+    public long getCoalescedTriggers() {
+        return coalescedTriggers.get();
+    }
+
+    @Override
+    public int getActiveHolds() {
+        return holds.size();
+    }
+
+    @Override
+    public long getGrantedHolds() {
+        return grantedHolds.get();
+    }
+
+    @Override
+    public long getClaimedHolds() {
+        return claimedHolds.get();
+    }
 
-        return bookedSeatCodes;
+    @Override
+    public long getExpiredHolds() {
+        return expiredHolds.get();
     }
 }
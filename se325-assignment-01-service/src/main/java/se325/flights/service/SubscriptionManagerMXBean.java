@@ -0,0 +1,73 @@
+package se325.flights.service;
+
+/**
+ * Management interface for the {@link SubscriptionManager}, exposing subscription counts over JMX.
+ */
+public interface SubscriptionManagerMXBean {
+
+    /**
+     * Gets the number of subscriptions currently waiting to be notified.
+     */
+    int getActiveSubscriptions();
+
+    /**
+     * Gets the maximum number of subscriptions which may be waiting at once.
+     */
+    int getMaxSubscriptions();
+
+    /**
+     * Gets the number of subscriptions which have been rejected because the maximum had been reached.
+     */
+    long getRejectedSubscriptions();
+
+    /**
+     * Gets the number of subscriptions which timed out before their seats became available.
+     */
+    long getTimedOutSubscriptions();
+
+    /**
+     * Gets the number of subscriptions which were dropped because their flight departed.
+     */
+    long getExpiredSubscriptions();
+
+    /**
+     * Gets the number of subscriptions which were dropped because their client went away.
+     */
+    long getAbandonedSubscriptions();
+
+    /**
+     * Gets the number of subscriptions which were dropped from memory because nobody had been attached to them for too
+     * long. They're still stored, and are loaded again if their client reattaches.
+     */
+    long getDroppedSubscriptions();
+
+    /**
+     * Gets the number of flights whose subscriptions are waiting to be processed.
+     */
+    int getPendingFlights();
+
+    /**
+     * Gets the number of requests to process a flight's subscriptions which were folded into an already-pending one.
+     */
+    long getCoalescedTriggers();
+
+    /**
+     * Gets the number of seat holds currently in place for waitlisted subscriptions.
+     */
+    int getActiveHolds();
+
+    /**
+     * Gets the number of times seats have been held for a waitlisted subscription.
+     */
+    long getGrantedHolds();
+
+    /**
+     * Gets the number of seat holds which were claimed by their holder making a booking.
+     */
+    long getClaimedHolds();
+
+    /**
+     * Gets the number of seat holds which expired before they were claimed.
+     */
+    long getExpiredHolds();
+}
@@ -0,0 +1,236 @@
+package se325.flights.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.SubscriptionStatusDTO;
+
+import javax.persistence.EntityManager;
+import javax.websocket.*;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpoint;
+import javax.websocket.server.ServerEndpointConfig;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WebSocket endpoint for seat availability subscriptions, as an alternative to long-polling
+ * {@code POST /flights/subscribe}. A single connection can carry any number of subscriptions, and stays open after each
+ * one is resolved.
+ * <p>
+ * The connection is authenticated by the authToken cookie sent with the handshake, and is closed straight away if
+ * there isn't a valid one. The client then sends one {@link AvailableSeatsSubscriptionDTO} (as JSON) per subscription,
+ * and the server replies with {@link SubscriptionStatusDTO}s - one to acknowledge each subscription, and one when it's
+ * resolved. See {@link SubscriptionStatusDTO} for the statuses which may be sent.
+ * <p>
+ * Subscriptions made here don't time out. When the connection closes, they're detached but keep waiting, and can be
+ * reattached with {@code GET /flights/subscriptions/{id}} like any other.
+ * <p>
+ * Each connection has its own instance of this class, so its state is kept small enough to hold many thousands of
+ * idle connections: the user id and a growable array of subscription ids, rather than any per-subscription objects.
+ * Messages are small, so the text buffer is limited to 1KB. Connections never time out when idle, unless
+ * {@code flights.subscriptions.socketIdleTimeoutSeconds} is set.
+ */
+@ServerEndpoint(value = "/services/flights/subscriptions/socket", configurator = SubscriptionSocket.Configurator.class)
+public class SubscriptionSocket implements Subscriber {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionSocket.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String AUTH_TOKEN = "authToken";
+    private static final long IDLE_TIMEOUT_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("flights.subscriptions.socketIdleTimeoutSeconds", 0));
+    private static final int MAX_MESSAGE_SIZE = 1024;
+    private static final long[] NO_SUBSCRIPTIONS = new long[0];
+
+    private Session session;
+    private long userId;
+
+    /**
+     * The ids of the subscriptions this connection is waiting on, in the first numSubscriptions elements. Guarded by
+     * this.
+     */
+    private long[] subscriptionIds = NO_SUBSCRIPTIONS;
+    private int numSubscriptions;
+
+    @OnOpen
+    public void onOpen(Session session, EndpointConfig config) {
+        this.session = session;
+        session.setMaxIdleTimeout(IDLE_TIMEOUT_MILLIS);
+        session.setMaxTextMessageBufferSize(MAX_MESSAGE_SIZE);
+
+        String token = (String) config.getUserProperties().get(AUTH_TOKEN);
+        try {
+            // authorize user, as the AuthenticationFilter would for a request
+            userId = AuthenticationFilter.authenticate(token == null ? null : new Cookie(AUTH_TOKEN, token));
+        } catch (NotAuthorizedException e) {
+            close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Not authenticated"));
+        }
+    }
+
+    /**
+     * Makes a new subscription from the given {@link AvailableSeatsSubscriptionDTO}, acknowledges it, and then
+     * checks whether its seats are already available - just like {@code POST /flights/subscribe}.
+     */
+    @OnMessage
+    public void onMessage(String message) {
+        AvailableSeatsSubscriptionDTO info;
+        try {
+            info = MAPPER.readValue(message, AvailableSeatsSubscriptionDTO.class);
+        } catch (IOException e) {
+            info = null;
+        }
+        if (info == null) {
+            // status code:400 sent, whether the message isn't valid JSON or is just null
+            send(new SubscriptionStatusDTO(null, Response.Status.BAD_REQUEST.getStatusCode(), 0, null, 0));
+            return;
+        }
+        info.setUserId(userId);
+
+        // Hold the lock until the subscription has been acknowledged, so it can't be resolved before then
+        Subscription subscription;
+        synchronized (this) {
+            try {
+                subscription = SubscriptionManager.instance().addSubscription(info, this);
+            } catch (WebApplicationException e) {
+                // status code:503 sent if there are too many subscriptions
+                send(status(null, e.getResponse().getStatus(), info));
+                return;
+            }
+            addSubscriptionId(subscription.getId());
+            send(status(subscription.getId(), Response.Status.ACCEPTED.getStatusCode(), info));
+        }
+
+        // check if the seats are already available
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            SubscriptionManager.instance().processSingleSubscription(subscription, em);
+        } finally {
+            em.close();
+        }
+    }
+
+    @OnClose
+    public void onClose() {
+        long[] ids;
+        synchronized (this) {
+            ids = Arrays.copyOf(subscriptionIds, numSubscriptions);
+            subscriptionIds = NO_SUBSCRIPTIONS;
+            numSubscriptions = 0;
+        }
+        SubscriptionManager.instance().detachSubscriptions(this, ids);
+    }
+
+    @OnError
+    public void onError(Throwable throwable) {
+        LOGGER.debug("Subscription socket error", throwable);
+    }
+
+    @Override
+    public synchronized boolean resume(Subscription subscription, Response response) {
+        if (!removeSubscriptionId(subscription.getId())) {
+            return false;
+        }
+        SubscriptionStatusDTO status = status(subscription.getId(), response.getStatus(), subscription.getInfo());
+        String holdExpiresAt = response.getHeaderString(SeatHolds.EXPIRES_HEADER);
+        if (holdExpiresAt != null) {
+            status.setHoldExpiresAt(ZonedDateTime.parse(holdExpiresAt, DateTimeFormatter.ISO_DATE_TIME));
+        }
+        return send(status);
+    }
+
+    @Override
+    public synchronized void cancel(Subscription subscription) {
+        // status code:503 sent, as for a cancelled HTTP request
+        if (removeSubscriptionId(subscription.getId())) {
+            send(status(subscription.getId(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), subscription.getInfo()));
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return !session.isOpen();
+    }
+
+    private void addSubscriptionId(long id) {
+        if (numSubscriptions == subscriptionIds.length) {
+            subscriptionIds = Arrays.copyOf(subscriptionIds, Math.max(4, numSubscriptions * 2));
+        }
+        subscriptionIds[numSubscriptions++] = id;
+    }
+
+    private boolean removeSubscriptionId(long id) {
+        for (int i = 0; i < numSubscriptions; i++) {
+            if (subscriptionIds[i] == id) {
+                subscriptionIds[i] = subscriptionIds[--numSubscriptions];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SubscriptionStatusDTO status(Long subscriptionId, int status, AvailableSeatsSubscriptionDTO info) {
+        return new SubscriptionStatusDTO(subscriptionId, status, info.getFlightId(), info.getCabinClass(),
+                info.getNumSeats());
+    }
+
+    /**
+     * Sends the given message without waiting for it to be written.
+     *
+     * @return true if the message was sent, false if the connection has closed
+     */
+    private synchronized boolean send(SubscriptionStatusDTO status) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        try {
+            session.getAsyncRemote().sendText(MAPPER.writeValueAsString(status));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.debug("Couldn't send subscription status", e);
+            return false;
+        }
+    }
+
+    private void close(CloseReason reason) {
+        try {
+            session.close(reason);
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't close subscription socket", e);
+        }
+    }
+
+    /**
+     * Copies the authToken cookie from the handshake request, so the connection can be authenticated once it's open.
+     */
+    public static class Configurator extends ServerEndpointConfig.Configurator {
+
+        @Override
+        public void modifyHandshake(ServerEndpointConfig config, HandshakeRequest request, HandshakeResponse response) {
+            for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+                if (!"Cookie".equalsIgnoreCase(header.getKey())) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    for (String cookie : value.split(";")) {
+                        String[] parts = cookie.trim().split("=", 2);
+                        if (parts.length == 2 && AUTH_TOKEN.equals(parts[0])) {
+                            config.getUserProperties().put(AUTH_TOKEN, parts[1]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
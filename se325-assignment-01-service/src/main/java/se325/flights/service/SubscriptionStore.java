@@ -0,0 +1,209 @@
+package se325.flights.service;
+
+import org.hibernate.query.NativeQuery;
+import se325.flights.CabinClass;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Response;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Durable storage for {@link Subscription}s, so that they survive restarts. Each subscription is a single row in a
+ * compact table, written with plain SQL rather than as an entity.
+ * <p>
+ * The table isn't mapped by Hibernate, so isn't dropped when the schema is re-created at startup. It's created here if
+ * it doesn't already exist, and only emptied by {@link #clear(EntityManager)} when the whole database is reset.
+ */
+public class SubscriptionStore {
+
+    private static final String[] CREATE_TABLE = {
+            "CREATE TABLE IF NOT EXISTS FLIGHT_SUBSCRIPTION (ID BIGINT PRIMARY KEY, FLIGHT_ID BIGINT NOT NULL, "
+                    + "USER_ID BIGINT NOT NULL, CABIN_CLASS VARCHAR(16), NUM_SEATS INT NOT NULL, RESOLVED_STATUS SMALLINT)",
+            "ALTER TABLE FLIGHT_SUBSCRIPTION ADD COLUMN IF NOT EXISTS WAITLIST BOOLEAN DEFAULT FALSE NOT NULL",
+            "CREATE INDEX IF NOT EXISTS FLIGHT_SUBSCRIPTION_FLIGHT_IDX ON FLIGHT_SUBSCRIPTION (FLIGHT_ID)",
+            "CREATE SEQUENCE IF NOT EXISTS FLIGHT_SUBSCRIPTION_SEQ CACHE 50"
+    };
+
+    private static final String TABLE = "FLIGHT_SUBSCRIPTION";
+
+    private static final String COLUMNS = "ID, FLIGHT_ID, USER_ID, CABIN_CLASS, NUM_SEATS, RESOLVED_STATUS, WAITLIST";
+
+    public SubscriptionStore() {
+        inTransaction(em -> {
+            createTable(em);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes every stored subscription. The given EntityManager must have an active transaction.
+     */
+    public static void clear(EntityManager em) {
+        createTable(em);
+        nativeQuery(em, "DELETE FROM FLIGHT_SUBSCRIPTION").executeUpdate();
+    }
+
+    private static void createTable(EntityManager em) {
+        for (String statement : CREATE_TABLE) {
+            nativeQuery(em, statement).executeUpdate();
+        }
+    }
+
+    /**
+     * Stores a new subscription.
+     *
+     * @param info the subscription's info, including the id of the user who made it
+     * @return the new subscription's unique id
+     */
+    public long insert(AvailableSeatsSubscriptionDTO info) {
+        return inTransaction(em -> {
+            long id = ((Number) nativeQuery(em, "SELECT NEXT VALUE FOR FLIGHT_SUBSCRIPTION_SEQ")
+                    .getSingleResult()).longValue();
+            insert(em, id, info, null);
+            return id;
+        });
+    }
+
+    /**
+     * Stores the given subscriptions again, as resolved with the given status - for subscriptions deleted in the
+     * expectation that their subscribers would be told, who turned out to have gone away.
+     */
+    public void insertResolved(Collection<Subscription> subscriptions, Response.Status status) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        inTransaction(em -> {
+            for (Subscription subscription : subscriptions) {
+                insert(em, subscription.getId(), subscription.getInfo(), status);
+            }
+            return null;
+        });
+    }
+
+    private static void insert(EntityManager em, long id, AvailableSeatsSubscriptionDTO info, Response.Status status) {
+        nativeQuery(em, "INSERT INTO FLIGHT_SUBSCRIPTION (" + COLUMNS + ") VALUES "
+                        + "(:id, :flightId, :userId, :cabinClass, :numSeats, :status, :waitlist)")
+                .setParameter("id", id)
+                .setParameter("flightId", info.getFlightId())
+                .setParameter("userId", info.getUserId())
+                .setParameter("cabinClass", info.getCabinClass() == null ? null : info.getCabinClass().name())
+                .setParameter("numSeats", info.getNumSeats())
+                .setParameter("status", status == null ? null : status.getStatusCode())
+                .setParameter("waitlist", info.isWaitlist())
+                .executeUpdate();
+    }
+
+    /**
+     * Finds the stored subscription with the given id, whether it's still waiting or has been resolved.
+     *
+     * @return the subscription (detached), or null if there's no such subscription
+     */
+    public Subscription find(long id) {
+        List<Subscription> found = select("WHERE ID = :param", id);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Finds all stored subscriptions to the given flight which are still waiting.
+     *
+     * @return the subscriptions (detached)
+     */
+    public List<Subscription> findWaiting(long flightId) {
+        return select("WHERE FLIGHT_ID = :param AND RESOLVED_STATUS IS NULL", flightId);
+    }
+
+    /**
+     * Records that the given subscriptions were resolved while nobody was attached to them, so that the status can be
+     * given to whoever reattaches.
+     */
+    public void markResolved(Collection<Long> ids, Response.Status status) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        inTransaction(em -> nativeQuery(em, "UPDATE FLIGHT_SUBSCRIPTION SET RESOLVED_STATUS = :status WHERE ID IN (:ids)")
+                .setParameter("status", status.getStatusCode())
+                .setParameter("ids", ids)
+                .executeUpdate());
+    }
+
+    /**
+     * Deletes the given subscriptions.
+     */
+    public void delete(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        inTransaction(em -> nativeQuery(em, "DELETE FROM FLIGHT_SUBSCRIPTION WHERE ID IN (:ids)")
+                .setParameter("ids", ids)
+                .executeUpdate());
+    }
+
+    /**
+     * Deletes all subscriptions to flights which have departed (including any which have since been archived), whether
+     * or not they've been loaded.
+     *
+     * @return the number of subscriptions deleted
+     */
+    public int deleteDeparted() {
+        return inTransaction(em -> nativeQuery(em, "DELETE FROM FLIGHT_SUBSCRIPTION WHERE FLIGHT_ID IN "
+                        + "(SELECT ID FROM FLIGHT WHERE DEPARTURETIME < :now) "
+                        + "OR FLIGHT_ID IN (SELECT ID FROM ARCHIVEDFLIGHT)")
+                .setParameter("now", ZonedDateTime.now())
+                .executeUpdate());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Subscription> select(String where, long param) {
+        List<Object[]> rows = inTransaction(em -> nativeQuery(em, "SELECT " + COLUMNS + " FROM FLIGHT_SUBSCRIPTION " + where)
+                .setParameter("param", param)
+                .getResultList());
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (Object[] row : rows) {
+            AvailableSeatsSubscriptionDTO info = new AvailableSeatsSubscriptionDTO(
+                    ((Number) row[1]).longValue(),
+                    row[3] == null ? null : CabinClass.valueOf((String) row[3]),
+                    ((Number) row[4]).intValue(),
+                    (Boolean) row[6]);
+            info.setUserId(((Number) row[2]).longValue());
+
+            Subscription subscription = new Subscription(((Number) row[0]).longValue(), info, null);
+            if (row[5] != null) {
+                subscription.setResolvedStatus(Response.Status.fromStatusCode(((Number) row[5]).intValue()));
+            }
+            subscriptions.add(subscription);
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Creates a native query which is declared to touch only the subscription table. Without that, Hibernate can't tell
+     * what the SQL changes, so evicts every second-level cache region - the reference data included - whenever it runs.
+     */
+    @SuppressWarnings("rawtypes")
+    private static NativeQuery nativeQuery(EntityManager em, String sql) {
+        return em.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(TABLE);
+    }
+
+    private static <T> T inTransaction(Function<EntityManager, T> work) {
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
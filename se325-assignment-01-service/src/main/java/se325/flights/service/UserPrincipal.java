@@ -0,0 +1,54 @@
+package se325.flights.service;
+
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+
+/**
+ * The authenticated user making a request, as put in its {@link SecurityContext} by the {@link AuthenticationFilter}.
+ * Only holds the user's id - resources which need the rest of the user should load it themselves.
+ */
+public final class UserPrincipal implements Principal {
+
+    private final long id;
+
+    public UserPrincipal(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the principal from the given security context, of a request to a {@link Secured} resource.
+     *
+     * @throws IllegalStateException if the request wasn't authenticated
+     */
+    public static UserPrincipal of(SecurityContext securityContext) {
+        Principal principal = securityContext.getUserPrincipal();
+        if (!(principal instanceof UserPrincipal)) {
+            throw new IllegalStateException("Request wasn't authenticated - is the resource @Secured?");
+        }
+        return (UserPrincipal) principal;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return String.valueOf(id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UserPrincipal && ((UserPrincipal) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "UserPrincipal{id=" + id + '}';
+    }
+}
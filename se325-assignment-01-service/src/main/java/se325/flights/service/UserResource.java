@@ -5,8 +5,11 @@ import org.slf4j.LoggerFactory;
 import se325.flights.domain.User;
 import se325.flights.domain.mappers.UserMapper;
 import se325.flights.dto.UserDTO;
+import se325.flights.util.AuthTokenCache;
 import se325.flights.util.SecurityUtils;
+import se325.flights.util.SignedTokens;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Cookie;
@@ -40,32 +43,35 @@ public class UserResource {
     public Response createUserAccount(UserDTO userDTO){
 
         EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            // check that there doesnt exist a user with this username already in db
+            em.getTransaction().begin();
+            TypedQuery<User> userQuery = em.createNamedQuery(User.FIND_BY_USERNAME, User.class)
+                    .setParameter("username", userDTO.getUsername());
+            List<User> existingUser = userQuery.getResultList();
 
-        // check that there doesnt exist a user with this username already in db
-        em.getTransaction().begin();
-        TypedQuery<User> userQuery = em.createQuery("select u from User u where u.username = :username",
-                User.class).setParameter("username", userDTO.getUsername());
-        List<User> existingUser = userQuery.getResultList();
-        em.getTransaction().commit();
-
-        if (!existingUser.isEmpty()) {
-            // return 409 conflict status code for duplicate username
-            return Response.status(Response.Status.CONFLICT).build();
-        }
+            if (!existingUser.isEmpty()) {
+                // return 409 conflict status code for duplicate username
+                return Response.status(Response.Status.CONFLICT).build();
+            }
 
-        // parse the dto into the corresponding domain object
-        User user = UserMapper.toDomain(userDTO);
-        // set the password to the hash of the current password
-        user.setPassHash(SecurityUtils.getSHA256Hash(userDTO.getPassword()));
+            // parse the dto into the corresponding domain object
+            User user = UserMapper.toDomain(userDTO);
+            // set the password to the hash of the current password
+            user.setPassHash(SecurityUtils.getSHA256Hash(userDTO.getPassword()));
 
-        try {
-            em.getTransaction().begin();
             em.persist(user);
             em.getTransaction().commit();
 
             // sets location header and returns 201 status code
             return Response.created(URI.create("/users/" + user.getId())).build();
+        } catch (PersistenceException e) {
+            // the username was taken by another request since we checked - return 409 conflict status code
+            throw new WebApplicationException(Response.Status.CONFLICT);
         } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
             em.close();
         }
     }
@@ -87,9 +93,9 @@ public class UserResource {
         try {
             // validate the credentials
             em.getTransaction().begin();
-            TypedQuery<User> userQuery = em.createQuery("select u from User u where u.username = :username and u.passHash = :password", User.class)
+            TypedQuery<User> userQuery = em.createNamedQuery(User.FIND_BY_CREDENTIALS, User.class)
                     .setParameter("username", userDto.getUsername())
-                    .setParameter("password", SecurityUtils.getSHA256Hash(userDto.getPassword()));
+                    .setParameter("passHash", SecurityUtils.getSHA256Hash(userDto.getPassword()));
             List<User> user = userQuery.getResultList();
 
             if (user.isEmpty()){
@@ -99,12 +105,23 @@ public class UserResource {
             } else {
                 User validatedUser = user.get(0);
                 //create a cookie
-                NewCookie authCookie = SecurityUtils.generateAuthCookie();
+                NewCookie authCookie = SecurityUtils.generateAuthCookie(validatedUser.getId());
+
+                // signed tokens carry the user's id themselves, so don't need storing
+                if (SignedTokens.isSigned(authCookie.getValue())) {
+                    em.getTransaction().commit();
+                    return Response.noContent().cookie(authCookie).build();
+                }
 
-                // set the user field with authCookie token
+                // set the user field with authCookie token, replacing (and so invalidating) their old one
+                String oldToken = validatedUser.getAuthToken();
                 validatedUser.setAuthToken(authCookie.getValue());
                 em.getTransaction().commit();
 
+                // remember the new token, so the user's next requests don't need to look it up
+                AuthTokenCache.instance().evict(oldToken);
+                AuthTokenCache.instance().put(authCookie.getValue(), validatedUser.getId());
+
                 // returns 204 status code with cookie in header
                 return Response.noContent().cookie(authCookie).build();
             }
@@ -114,12 +131,31 @@ public class UserResource {
     }
 
     /**
-     * Removes the authentication cookie from the header.
+     * Logs the user out by invalidating their auth token, and removes the authentication cookie from the header.
+     * @param cookie
      * @return
      */
     @GET
     @Path("/logout")
-    public Response Logout(){
+    public Response Logout(@CookieParam("authToken") Cookie cookie){
+
+        if (cookie != null && SignedTokens.isSigned(cookie.getValue())) {
+            // signed tokens can't be cleared, so revoke it instead
+            SignedTokens.instance().revoke(cookie.getValue());
+        } else if (cookie != null && cookie.getValue() != null) {
+            EntityManager em = PersistenceManager.instance().createEntityManager();
+            try {
+                // clear the token, so that it can't be used again
+                em.getTransaction().begin();
+                em.createNamedQuery(User.CLEAR_AUTH_TOKEN)
+                        .setParameter("authToken", cookie.getValue())
+                        .executeUpdate();
+                em.getTransaction().commit();
+            } finally {
+                em.close();
+            }
+            AuthTokenCache.instance().evict(cookie.getValue());
+        }
 
         // set 204 response code and remove the cookie by setting maxAge to 0
         return Response.noContent().cookie(SecurityUtils.generateDeleteAuthCookie()).build();
@@ -0,0 +1,159 @@
+package se325.flights.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches which user each auth token belongs to, so that authenticated requests don't each need a database query to
+ * find out. Singleton so that logging in and out affects every request.
+ * <p>
+ * Tokens are added when a user logs in, and removed when they log out or log in again (replacing their token). Each
+ * token is cached for {@code flights.auth.cacheTtlSeconds} (default 300), after which it's checked against the
+ * database again - so a token changed by some other means is only trusted for a little while. At most
+ * {@code flights.auth.cacheSize} tokens (default 10000) are cached, and the least recently used is removed to make
+ * room for another.
+ */
+public class AuthTokenCache implements AuthTokenCacheMXBean {
+
+    private static final String MBEAN_NAME = "se325.flights:type=AuthTokenCache";
+
+    private static volatile AuthTokenCache instance;
+
+    public static AuthTokenCache instance() {
+        AuthTokenCache result = instance;
+        if (result == null) {
+            synchronized (AuthTokenCache.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new AuthTokenCache();
+                }
+            }
+        }
+        return result;
+    }
+
+    private final int maxSize = Integer.getInteger("flights.auth.cacheSize", 10000);
+    private final long ttlNanos = TimeUnit.SECONDS.toNanos(Long.getLong("flights.auth.cacheTtlSeconds", 300));
+
+    /**
+     * The cached tokens, least recently used first. Guarded by itself.
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private AuthTokenCache() {
+        JmxUtils.registerMBean(this, MBEAN_NAME);
+    }
+
+    /**
+     * Gets the id of the user with the given auth token, if it's cached and hasn't expired.
+     *
+     * @param token the auth token
+     * @return the user's id, or null if the token isn't cached
+     */
+    public Long get(String token) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(token);
+            if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+                entries.remove(token);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.userId;
+    }
+
+    /**
+     * Caches the given auth token as belonging to the given user.
+     */
+    public void put(String token, long userId) {
+        if (maxSize <= 0) {
+            return;
+        }
+        Entry entry = new Entry(userId, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(token, entry);
+        }
+    }
+
+    /**
+     * Removes the given auth token from the cache, because it's no longer valid.
+     */
+    public void evict(String token) {
+        if (token == null) {
+            return;
+        }
+        synchronized (entries) {
+            entries.remove(token);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getTtlSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(ttlNanos);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static final class Entry {
+        private final long userId;
+        private final long expiresAt;
+
+        private Entry(long userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
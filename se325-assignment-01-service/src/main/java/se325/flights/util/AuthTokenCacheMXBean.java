@@ -0,0 +1,42 @@
+package se325.flights.util;
+
+/**
+ * Management interface for the {@link AuthTokenCache}, exposing its size and hit rate over JMX.
+ */
+public interface AuthTokenCacheMXBean {
+
+    /**
+     * Gets the number of auth tokens currently cached, including any which have expired but haven't been removed yet.
+     */
+    int getSize();
+
+    /**
+     * Gets the maximum number of auth tokens which may be cached at once.
+     */
+    int getMaxSize();
+
+    /**
+     * Gets the number of seconds for which an auth token is cached.
+     */
+    long getTtlSeconds();
+
+    /**
+     * Gets the number of lookups which were answered from the cache.
+     */
+    long getHits();
+
+    /**
+     * Gets the number of lookups which had to go to the database.
+     */
+    long getMisses();
+
+    /**
+     * Gets the number of auth tokens removed to make room for others.
+     */
+    long getEvictions();
+
+    /**
+     * Removes every auth token from the cache, so they're checked against the database again.
+     */
+    void clear();
+}
@@ -0,0 +1,39 @@
+package se325.flights.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Contains methods for exposing management beans over JMX. Failures are logged rather than thrown, as the application
+ * works just as well without its metrics.
+ */
+public class JmxUtils {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxUtils.class);
+
+    /**
+     * Registers the given bean with the platform MBean server, under the given name.
+     */
+    public static void registerMBean(Object mbean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+        } catch (JMException e) {
+            LOGGER.warn("Couldn't register " + name + " with JMX", e);
+        }
+    }
+
+    /**
+     * Unregisters the bean with the given name from the platform MBean server.
+     */
+    public static void unregisterMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+        } catch (JMException e) {
+            LOGGER.warn("Couldn't unregister " + name + " from JMX", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package se325.flights.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact set of revoked tokens, each kept only until it would have expired anyway. Checking a token which hasn't
+ * been revoked - by far the most common case - only touches a small bloom filter. Only when the filter says the token
+ * might have been revoked is the exact set checked, so the filter's false positives cost a map lookup rather than a
+ * wrong answer.
+ * <p>
+ * A bloom filter can't have tokens removed from it, so whenever expired tokens are pruned from the exact set, the
+ * filter is rebuilt from what's left and swapped in. Revoking and pruning take a lock, but checking never does.
+ */
+public final class RevocationFilter {
+
+    private static final int NUM_HASHES = 4;
+
+    /**
+     * How often expired tokens are pruned, at most
+     */
+    private static final long PRUNE_INTERVAL_MILLIS = 60_000;
+
+    private final int numBits;
+
+    /**
+     * The revoked tokens, and when each expires (in epoch millis)
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    /**
+     * The bloom filter over the tokens in revoked. Only replaced while holding the lock on this.
+     */
+    private volatile AtomicLongArray bits;
+
+    private long nextPruneAt;
+
+    /**
+     * Creates a revocation filter whose bloom filter has (at least) the given number of bits. Around ten bits per
+     * token revoked within a token's lifetime keeps false positives to about one percent.
+     */
+    public RevocationFilter(int numBits) {
+        this.numBits = Math.max(64, (numBits + 63) & ~63);
+        this.bits = new AtomicLongArray(this.numBits / 64);
+    }
+
+    /**
+     * Revokes the given token, until it expires at the given time. Also prunes any expired tokens, if they haven't been
+     * pruned for a while.
+     *
+     * @param token     the token (or some unique part of it)
+     * @param expiresAt when the token expires, in epoch millis
+     */
+    public synchronized void revoke(String token, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (now >= nextPruneAt) {
+            prune(now);
+        }
+        if (expiresAt <= now) {
+            return;
+        }
+        revoked.put(token, expiresAt);
+        setBits(bits, token);
+    }
+
+    /**
+     * Returns true if the given token has been revoked (and hasn't yet expired).
+     */
+    public boolean isRevoked(String token) {
+        AtomicLongArray current = bits;
+        int h1 = token.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((current.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return revoked.containsKey(token);
+    }
+
+    /**
+     * Removes every token which expires at or before the given time, and rebuilds the bloom filter without them.
+     */
+    public synchronized void prune(long now) {
+        AtomicLongArray rebuilt = new AtomicLongArray(numBits / 64);
+        for (Iterator<Map.Entry<String, Long>> it = revoked.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                it.remove();
+            } else {
+                setBits(rebuilt, entry.getKey());
+            }
+        }
+        bits = rebuilt;
+        nextPruneAt = now + PRUNE_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Gets the number of tokens currently revoked, including any which have expired but haven't been pruned yet.
+     */
+    public int size() {
+        return revoked.size();
+    }
+
+    private void setBits(AtomicLongArray array, String token) {
+        int h1 = token.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = array.get(bit >>> 6);
+            } while ((word & mask) == 0 && !array.compareAndSet(bit >>> 6, word, word | mask));
+        }
+    }
+
+    /**
+     * Derives a second, independent-enough hash from the first, for double hashing. Always odd, so that the probes
+     * don't collapse onto the same bit.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
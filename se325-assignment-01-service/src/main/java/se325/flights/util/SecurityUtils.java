@@ -63,6 +63,26 @@ public class SecurityUtils {
         );
     }
 
+    /**
+     * Creates a {@link NewCookie} instance suitable for an authentication token for the given user. The token is a
+     * {@link SignedTokens signed token} if they're enabled, or a random one (as from {@link #generateAuthCookie()})
+     * otherwise.
+     */
+    public static NewCookie generateAuthCookie(long userId) {
+        if (!SignedTokens.isEnabled()) {
+            return generateAuthCookie();
+        }
+        return new NewCookie(
+                "authToken",
+                SignedTokens.instance().issue(userId),
+                "/",
+                null,
+                null,
+                SignedTokens.instance().getTtlSeconds(),
+                false
+        );
+    }
+
     /**
      * Creates a {@link NewCookie} instance suitable for deleting the authentication token.
      */
@@ -77,28 +97,79 @@ public class SecurityUtils {
     }
 
     /**
-     * Gets the {@link User} object with the given auth token.
+     * Gets the id of the user with the given auth token. {@link SignedTokens Signed tokens} are verified in memory. For
+     * random tokens, the {@link AuthTokenCache} is checked first, so the database is only queried for tokens which
+     * haven't been used (or logged in with) recently. Doesn't need a transaction, but rolls back the current one (if
+     * any) when the token isn't valid.
      *
-     * @param em         the entity manager to use to execute the database query
+     * @param em         the entity manager to use to execute the database query, if needed
      * @param authCookie the auth cookie to check
-     * @return the {@link User} with the matching token
+     * @return the id of the user with the matching token
      * @throws NotAuthorizedException if there's no such user
      */
-    public static User getUserWithAuthToken(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
+    public static long getUserIdWithAuthToken(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
+        Long userId;
+        try {
+            userId = getCachedUserIdWithAuthToken(authCookie);
+        } catch (NotAuthorizedException e) {
+            throw notAuthorized(em);
+        }
+        return userId != null ? userId : lookUpUserIdWithAuthToken(em, authCookie);
+    }
 
-        if (authCookie == null) {
-            em.getTransaction().rollback();
+    /**
+     * Gets the id of the user with the given auth token, if that can be done without the database - either because
+     * it's a {@link SignedTokens signed token}, or because it's in the {@link AuthTokenCache}.
+     *
+     * @param authCookie the auth cookie to check
+     * @return the id of the user with the matching token, or null if it needs looking up in the database
+     * @throws NotAuthorizedException if there's no token, or it's a signed token which isn't valid
+     */
+    public static Long getCachedUserIdWithAuthToken(Cookie authCookie) throws NotAuthorizedException {
+
+        if (authCookie == null || authCookie.getValue() == null) {
             throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
         }
 
+        // signed tokens are checked in memory, without the cache or the database
+        if (SignedTokens.isSigned(authCookie.getValue())) {
+            Long userId = SignedTokens.instance().verify(authCookie.getValue());
+            if (userId == null) {
+                throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
+            }
+            return userId;
+        }
+
+        return AuthTokenCache.instance().get(authCookie.getValue());
+    }
+
+    /**
+     * Looks up the id of the user with the given (random) auth token in the database, and caches it. Rolls back the
+     * current transaction (if any) when there's no such user.
+     *
+     * @param em         the entity manager to use to execute the database query
+     * @param authCookie the auth cookie to check
+     * @return the id of the user with the matching token
+     * @throws NotAuthorizedException if there's no such user
+     */
+    public static long lookUpUserIdWithAuthToken(EntityManager em, Cookie authCookie) throws NotAuthorizedException {
+        long userId;
         try {
-            return em.createQuery("SELECT u FROM User u WHERE u.authToken = :authToken", User.class)
+            userId = em.createNamedQuery(User.FIND_ID_BY_AUTH_TOKEN, Long.class)
                     .setParameter("authToken", authCookie.getValue())
                     .getSingleResult();
         } catch (Exception ex) {
+            throw notAuthorized(em);
+        }
+        AuthTokenCache.instance().put(authCookie.getValue(), userId);
+        return userId;
+    }
+
+    private static NotAuthorizedException notAuthorized(EntityManager em) {
+        if (em.getTransaction().isActive()) {
             em.getTransaction().rollback();
-            throw new NotAuthorizedException(Response.status(401, "Not authenticated").build());
         }
+        return new NotAuthorizedException(Response.status(401, "Not authenticated").build());
     }
 
 }
\ No newline at end of file
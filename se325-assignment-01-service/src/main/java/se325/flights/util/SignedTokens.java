@@ -0,0 +1,209 @@
+package se325.flights.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and verifies self-contained auth tokens, as an alternative to the random tokens which are looked up in the
+ * database. Each token holds the user's id along with when it was issued and when it expires, and is signed with
+ * HMAC-SHA256 - so it can be verified in memory, by any server with the same key, without a lookup.
+ * <p>
+ * A token looks like {@code <payload>.<signature>}, both base64url-encoded. Tokens can't be changed once issued, so
+ * logging out revokes the token instead (see {@link RevocationFilter}). Revocations are only known to the server which
+ * made them. Unlike random tokens, logging in again doesn't invalidate the user's earlier tokens - they expire on
+ * their own.
+ * <p>
+ * These tokens are issued instead of random ones when {@code flights.auth.signedTokens} is true. They last for
+ * {@code flights.auth.signedTokenTtlSeconds} (default two weeks, like the auth cookie). The key is given (base64-encoded)
+ * by {@code flights.auth.signingKey}; if it isn't, a random key is made, so tokens won't survive a restart.
+ */
+public final class SignedTokens {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SignedTokens.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int PAYLOAD_LENGTH = 4 * Long.BYTES;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static volatile SignedTokens instance;
+
+    public static SignedTokens instance() {
+        SignedTokens result = instance;
+        if (result == null) {
+            synchronized (SignedTokens.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new SignedTokens(signingKey(),
+                            TimeUnit.SECONDS.toMillis(Long.getLong("flights.auth.signedTokenTtlSeconds", 604800 * 2)),
+                            Integer.getInteger("flights.auth.revocationFilterBits", 1 << 16));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if signed tokens should be issued when users log in.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("flights.auth.signedTokens");
+    }
+
+    /**
+     * Returns true if the given token is in the signed format (though not necessarily valid), rather than a random one.
+     */
+    public static boolean isSigned(String token) {
+        return token != null && token.indexOf('.') > 0;
+    }
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final RevocationFilter revocations;
+    private final ThreadLocal<Mac> mac;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates a token issuer with the given key.
+     *
+     * @param key            the HMAC key
+     * @param ttlMillis      how long tokens last
+     * @param revocationBits the size of the revocation bloom filter, in bits
+     */
+    public SignedTokens(byte[] key, long ttlMillis, int revocationBits) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.revocations = new RevocationFilter(revocationBits);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Issues a new token for the given user.
+     */
+    public String issue(long userId) {
+        long now = System.currentTimeMillis();
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_LENGTH)
+                .putLong(userId)
+                .putLong(now)
+                .putLong(now + ttlMillis)
+                .putLong(random.nextLong());
+        return ENCODER.encodeToString(payload.array()) + "." + ENCODER.encodeToString(sign(payload.array()));
+    }
+
+    /**
+     * Gets the id of the user the given token was issued to, if it's genuine, hasn't expired, and hasn't been revoked.
+     *
+     * @param token the token to verify
+     * @return the user's id, or null if the token isn't valid
+     */
+    public Long verify(String token) {
+        Parsed parsed = parse(token);
+        if (parsed == null || parsed.expiresAt <= System.currentTimeMillis() || revocations.isRevoked(parsed.signature)) {
+            return null;
+        }
+        return parsed.userId;
+    }
+
+    /**
+     * Revokes the given token, so that it's no longer valid. Does nothing if it isn't valid anyway.
+     */
+    public void revoke(String token) {
+        Parsed parsed = parse(token);
+        if (parsed != null) {
+            revocations.revoke(parsed.signature, parsed.expiresAt);
+        }
+    }
+
+    /**
+     * Gets how long tokens last, in seconds.
+     */
+    public int getTtlSeconds() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(ttlMillis);
+    }
+
+    /**
+     * Gets the number of tokens currently revoked.
+     */
+    public int getRevokedTokens() {
+        return revocations.size();
+    }
+
+    /**
+     * Decodes the given token and checks its signature.
+     *
+     * @return the token's contents, or null if it's malformed or its signature doesn't match
+     */
+    private Parsed parse(String token) {
+        if (!isSigned(token)) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        long userId = buffer.getLong();
+        buffer.getLong(); // issued at
+        long expiresAt = buffer.getLong();
+        // Re-encode the signature, as more than one string can decode to the same bytes
+        return new Parsed(userId, expiresAt, ENCODER.encodeToString(signature));
+    }
+
+    private byte[] sign(byte[] payload) {
+        return mac.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Couldn't create " + ALGORITHM, e);
+        }
+    }
+
+    private static byte[] signingKey() {
+        String configured = System.getProperty("flights.auth.signingKey");
+        if (configured != null) {
+            return Base64.getDecoder().decode(configured);
+        }
+        if (isEnabled()) {
+            LOGGER.warn("No flights.auth.signingKey given - signed auth tokens won't survive a restart, or be accepted "
+                    + "by other servers");
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private static final class Parsed {
+        private final long userId;
+        private final long expiresAt;
+        private final String signature;
+
+        private Parsed(long userId, long expiresAt, String signature) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+            this.signature = signature;
+        }
+    }
+}
@@ -1,361 +0,0 @@
--- Users
--- Alice's password: pa55word
-INSERT INTO USER (ID, USERNAME, PASSHASH) VALUES(1, 'Alice', '01bbd007a1040e3b62417e176caf7e6fa5aabdd724626c22a011e9e4e992ac35');
--- Bob's password: 12345
-INSERT INTO USER (ID, USERNAME, PASSHASH) VALUES(2, 'Bob', '7d4e3eec80026719639ed4dba68916eb94c7a49a053e05c8f9578fe4e5a3d7ea');
-
--- Airports
-INSERT INTO AIRPORT (ID, NAME, CODE, LATITUDE, LONGITUDE, TIMEZONE) VALUES (1, 'Auckland International Airport', 'AKL', -37.008, 174.792, 'Pacific/Auckland');
-INSERT INTO AIRPORT (ID, NAME, CODE, LATITUDE, LONGITUDE, TIMEZONE) VALUES (2, 'Sydney International Airport', 'SYD', -33.946, 151.177, 'Australia/Sydney');
-INSERT INTO AIRPORT (ID, NAME, CODE, LATITUDE, LONGITUDE, TIMEZONE) VALUES (3, 'Tokyo Narita International Airport', 'NRT', 35.765, 140.386, 'Asia/Tokyo');
-INSERT INTO AIRPORT (ID, NAME, CODE, LATITUDE, LONGITUDE, TIMEZONE) VALUES (4, 'Singapore Changi International Airport', 'SIN', 1.356, 103.987, 'Asia/Singapore');
-INSERT INTO AIRPORT (ID, NAME, CODE, LATITUDE, LONGITUDE, TIMEZONE) VALUES (5, 'Los Angeles International Airport', 'LAX', 33.942, -118.408, 'America/Los_Angeles');
-
--- Aircraft layout - 787-9 Dreamliner (Air NZ, source: https://www.seatguru.com/airlines/Air_New_Zealand/Air_New_Zealand_Boeing_787-9.php)
--- Aircraft layout - 777-200ER (Singapore Airlines, source: https://www.seatguru.com/airlines/Singapore_Air/Singapore_Air_Boeing_777-200_ER_new.php)
-
-INSERT INTO AIRCRAFTTYPE (ID, NAME) VALUES(1, '787-9 Dreamliner');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Business', 6, 1, 'AJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Premium', 3, 23, 'ABDEFJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Economy', 1, 34, 'JK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Economy', 15, 35, 'ABCDEFHJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Economy', 2, 50, 'ABCHJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Economy', 12, 52, 'ABCDEFHJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(1, 'Economy', 2, 64, 'DEF');
-INSERT INTO AIRCRAFTTYPE (ID, NAME) VALUES(2, '777-200ER');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Business', 2, 11, 'ADFK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Business', 4, 14, 'ADFK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Business', 1, 18, 'DF');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Economy', 16, 31, 'ABCDEGHJK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Economy', 1, 47, 'ACDEGHK');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Economy', 2, 48, 'AC');
-INSERT INTO AIRCRAFTTYPE_SEATINGZONES (AIRCRAFTTYPE_ID, CABINCLASS, NUMROWS, STARTINGROWNUMBER, SEATCODEDATA) VALUES(2, 'Economy', 10, 50, 'ABCDEGHJK');
-
--- Some random flights.
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(1, 'ZJS-735', 2, 1, 2, '2022-09-01T08:00:00', '2022-09-01T11:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(1, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(1, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(2, 'EVR-976', 2, 1, 2, '2022-08-10T15:00:00', '2022-08-10T18:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(2, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(2, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(3, 'LVT-200', 1, 1, 2, '2022-08-30T20:00:00', '2022-08-30T23:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(3, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(3, 'Premium', 475);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(3, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(4, 'ABH-259', 2, 1, 2, '2022-08-26T05:00:00', '2022-08-26T08:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(4, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(4, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(5, 'ZWU-462', 2, 1, 3, '2022-09-07T05:00:00', '2022-09-07T16:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(5, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(5, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(6, 'JUF-567', 2, 1, 3, '2022-08-29T08:00:00', '2022-08-29T19:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(6, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(6, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(7, 'GNU-012', 2, 1, 3, '2022-08-18T10:00:00', '2022-08-18T21:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(7, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(7, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(8, 'KGN-907', 2, 1, 3, '2022-09-03T15:00:00', '2022-09-04T02:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(8, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(8, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(9, 'UAN-776', 1, 1, 4, '2022-08-24T03:00:00', '2022-08-24T14:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(9, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(9, 'Premium', 1650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(9, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(10, 'AFS-088', 1, 1, 4, '2022-08-21T13:00:00', '2022-08-22T00:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(10, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(10, 'Premium', 1650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(10, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(11, 'KPF-695', 2, 1, 4, '2022-08-29T01:00:00', '2022-08-29T12:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(11, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(11, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(12, 'YCT-364', 1, 1, 5, '2022-08-26T03:00:00', '2022-08-26T16:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(12, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(12, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(12, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(13, 'IWO-222', 1, 1, 5, '2022-08-13T03:00:00', '2022-08-13T16:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(13, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(13, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(13, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(14, 'OFM-134', 1, 1, 5, '2022-08-17T20:00:00', '2022-08-18T09:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(14, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(14, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(14, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(15, 'IWM-268', 1, 1, 5, '2022-08-14T21:00:00', '2022-08-15T10:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(15, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(15, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(15, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(16, 'ECW-922', 2, 2, 1, '2022-08-31T18:00:00', '2022-08-31T21:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(16, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(16, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(17, 'THV-097', 2, 2, 1, '2022-09-01T13:00:00', '2022-09-01T16:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(17, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(17, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(18, 'SFX-730', 2, 2, 1, '2022-08-23T01:00:00', '2022-08-23T04:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(18, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(18, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(19, 'MMU-632', 1, 2, 1, '2022-08-29T11:00:00', '2022-08-29T14:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(19, 'Business', 950);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(19, 'Premium', 475);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(19, 'Economy', 158);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(20, 'PQM-345', 1, 2, 3, '2022-08-10T01:00:00', '2022-08-10T11:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(20, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(20, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(20, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(21, 'QPY-697', 1, 2, 3, '2022-09-04T13:00:00', '2022-09-04T23:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(21, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(21, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(21, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(22, 'HVJ-982', 1, 2, 3, '2022-08-20T11:00:00', '2022-08-20T21:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(22, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(22, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(22, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(23, 'IYQ-243', 2, 2, 3, '2022-09-07T05:00:00', '2022-09-07T15:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(23, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(23, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(24, 'FWE-164', 1, 2, 4, '2022-08-25T09:00:00', '2022-08-25T17:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(24, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(24, 'Premium', 1250);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(24, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(25, 'JCU-134', 1, 2, 4, '2022-08-10T04:00:00', '2022-08-10T12:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(25, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(25, 'Premium', 1250);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(25, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(26, 'CDG-043', 2, 2, 4, '2022-09-05T19:00:00', '2022-09-06T03:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(26, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(26, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(27, 'BBQ-587', 1, 2, 5, '2022-08-31T08:00:00', '2022-08-31T23:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(27, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(27, 'Premium', 2325);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(27, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(28, 'EAH-101', 1, 2, 5, '2022-08-30T09:00:00', '2022-08-31T00:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(28, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(28, 'Premium', 2325);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(28, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(29, 'KKD-551', 1, 2, 5, '2022-08-23T13:00:00', '2022-08-24T04:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(29, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(29, 'Premium', 2325);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(29, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(30, 'OKR-295', 1, 2, 5, '2022-09-03T12:00:00', '2022-09-04T03:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(30, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(30, 'Premium', 2325);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(30, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(31, 'SGZ-100', 2, 3, 1, '2022-08-09T12:00:00', '2022-08-09T23:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(31, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(31, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(32, 'NTD-962', 2, 3, 1, '2022-08-13T17:00:00', '2022-08-14T04:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(32, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(32, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(33, 'PMD-216', 2, 3, 1, '2022-08-26T23:00:00', '2022-08-27T10:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(33, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(33, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(34, 'XAO-988', 1, 3, 1, '2022-09-04T16:00:00', '2022-09-05T03:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(34, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(34, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(34, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(35, 'ARQ-052', 2, 3, 2, '2022-08-17T02:00:00', '2022-08-17T12:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(35, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(35, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(36, 'OAM-615', 1, 3, 2, '2022-08-26T10:00:00', '2022-08-26T20:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(36, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(36, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(36, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(37, 'GLD-105', 1, 3, 2, '2022-09-04T18:00:00', '2022-09-05T04:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(37, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(37, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(37, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(38, 'TZU-411', 1, 3, 2, '2022-08-15T02:00:00', '2022-08-15T12:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(38, 'Business', 3050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(38, 'Premium', 1525);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(38, 'Economy', 508);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(39, 'OES-770', 2, 3, 4, '2022-09-02T03:00:00', '2022-09-02T10:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(39, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(39, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(40, 'GPP-447', 1, 3, 4, '2022-08-30T05:00:00', '2022-08-30T12:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(40, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(40, 'Premium', 1075);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(40, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(41, 'XSK-412', 2, 3, 4, '2022-09-04T22:00:00', '2022-09-05T05:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(41, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(41, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(42, 'WDU-047', 1, 3, 5, '2022-08-20T20:00:00', '2022-08-21T07:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(42, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(42, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(42, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(43, 'BCY-257', 1, 3, 5, '2022-09-04T10:00:00', '2022-09-04T21:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(43, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(43, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(43, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(44, 'TOL-999', 1, 3, 5, '2022-09-07T07:00:00', '2022-09-07T18:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(44, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(44, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(44, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(45, 'HQO-917', 1, 3, 5, '2022-09-03T03:00:00', '2022-09-03T14:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(45, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(45, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(45, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(46, 'VES-154', 1, 4, 1, '2022-08-17T08:00:00', '2022-08-17T19:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(46, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(46, 'Premium', 1650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(46, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(47, 'PKJ-347', 2, 4, 1, '2022-08-27T07:00:00', '2022-08-27T18:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(47, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(47, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(48, 'OFB-133', 1, 4, 1, '2022-08-11T13:00:00', '2022-08-12T00:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(48, 'Business', 3300);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(48, 'Premium', 1650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(48, 'Economy', 550);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(49, 'DIQ-151', 2, 4, 2, '2022-08-22T04:00:00', '2022-08-22T12:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(49, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(49, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(50, 'NNI-190', 2, 4, 2, '2022-08-19T16:00:00', '2022-08-20T00:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(50, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(50, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(51, 'PHZ-546', 2, 4, 2, '2022-08-14T16:00:00', '2022-08-15T00:20:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(51, 'Business', 2500);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(51, 'Economy', 416);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(52, 'XVV-873', 1, 4, 3, '2022-08-16T19:00:00', '2022-08-17T02:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(52, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(52, 'Premium', 1075);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(52, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(53, 'WWA-805', 2, 4, 3, '2022-09-06T03:00:00', '2022-09-06T10:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(53, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(53, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(54, 'NXY-477', 2, 4, 3, '2022-08-22T04:00:00', '2022-08-22T11:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(54, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(54, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(55, 'YXO-292', 1, 4, 3, '2022-08-12T03:00:00', '2022-08-12T10:10:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(55, 'Business', 2150);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(55, 'Premium', 1075);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(55, 'Economy', 358);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(56, 'RJW-903', 2, 4, 5, '2022-08-26T06:00:00', '2022-08-27T00:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(56, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(56, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(57, 'ADA-507', 2, 4, 5, '2022-08-11T00:00:00', '2022-08-11T18:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(57, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(57, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(58, 'CGO-235', 2, 4, 5, '2022-08-20T23:00:00', '2022-08-21T17:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(58, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(58, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(59, 'RRD-003', 1, 5, 1, '2022-08-19T22:00:00', '2022-08-20T11:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(59, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(59, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(59, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(60, 'ZUY-474', 1, 5, 1, '2022-08-15T12:00:00', '2022-08-16T01:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(60, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(60, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(60, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(61, 'IKU-951', 1, 5, 1, '2022-09-05T10:00:00', '2022-09-05T23:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(61, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(61, 'Premium', 2025);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(61, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(62, 'XJZ-467', 2, 5, 1, '2022-08-29T11:00:00', '2022-08-30T00:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(62, 'Business', 4050);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(62, 'Economy', 675);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(63, 'AXT-187', 1, 5, 2, '2022-08-17T08:00:00', '2022-08-17T23:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(63, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(63, 'Premium', 2325);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(63, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(64, 'GHA-892', 2, 5, 2, '2022-09-02T00:00:00', '2022-09-02T15:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(64, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(64, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(65, 'NWD-275', 2, 5, 2, '2022-08-17T16:00:00', '2022-08-18T07:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(65, 'Business', 4650);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(65, 'Economy', 775);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(66, 'ZLX-146', 1, 5, 3, '2022-08-15T16:00:00', '2022-08-16T03:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(66, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(66, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(66, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(67, 'BPR-470', 1, 5, 3, '2022-08-27T07:00:00', '2022-08-27T18:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(67, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(67, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(67, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(68, 'BQY-363', 1, 5, 3, '2022-08-26T16:00:00', '2022-08-27T03:30:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(68, 'Business', 3450);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(68, 'Premium', 1725);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(68, 'Economy', 575);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(69, 'PEE-279', 1, 5, 4, '2022-08-27T22:00:00', '2022-08-28T16:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(69, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(69, 'Premium', 2700);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(69, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(70, 'DNU-037', 1, 5, 4, '2022-09-01T16:00:00', '2022-09-02T10:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(70, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(70, 'Premium', 2700);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(70, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(71, 'PIH-197', 2, 5, 4, '2022-08-29T12:00:00', '2022-08-30T06:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(71, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(71, 'Economy', 900);
-
-INSERT INTO FLIGHT (ID, NAME, AIRCRAFTTYPE_ID, ORIGIN_ID, DESTINATION_ID, DEPARTURETIME, ARRIVALTIME) VALUES(72, 'MOR-720', 2, 5, 4, '2022-08-21T08:00:00', '2022-08-22T02:00:00');
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(72, 'Business', 5400);
-INSERT INTO FLIGHT_SEATPRICINGS(FLIGHT_ID, CABINCLASS, PRICE) VALUES(72, 'Economy', 900);
-
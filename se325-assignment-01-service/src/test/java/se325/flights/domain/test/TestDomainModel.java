@@ -1,12 +1,19 @@
 package se325.flights.domain.test;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
+import se325.flights.CabinClass;
 import se325.flights.domain.*;
+import se325.flights.domain.mappers.BookingMapper;
+import se325.flights.dto.FlightBookingDTO;
 import se325.flights.service.PersistenceManager;
+import se325.flights.service.SeatInventoryReconciler;
 import se325.flights.util.SecurityUtils;
 
 import javax.persistence.EntityManager;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -54,7 +61,7 @@ public class TestDomainModel {
     }
 
     /**
-     * Tests whether the user data added by the db-init.sql script is loaded and read successfully by our domain model
+     * Tests whether the user seed data is loaded and read successfully by our domain model
      */
     @Test
     public void testDummyUsers() {
@@ -78,7 +85,7 @@ public class TestDomainModel {
     }
 
     /**
-     * Tests whether the airport data added by the db-init.sql script is loaded and read successfully by our domain
+     * Tests whether the airport seed data is loaded and read successfully by our domain
      * model
      */
     @Test
@@ -109,7 +116,7 @@ public class TestDomainModel {
     }
 
     /**
-     * Tests whether the aircraft data added by the db-init.sql script is loaded and read successfully by our domain
+     * Tests whether the aircraft seed data is loaded and read successfully by our domain
      * model
      */
     @Test
@@ -131,7 +138,7 @@ public class TestDomainModel {
     }
 
     /**
-     * Tests whether the flight data added by the db-init.sql script is loaded and read successfully by our domain model
+     * Tests whether the flight seed data is loaded and read successfully by our domain model
      */
     @Test
     public void testDummyFlights() {
@@ -200,6 +207,74 @@ public class TestDomainModel {
         em.getTransaction().commit();
     }
 
+    /**
+     * Tests that reference data - airports, aircraft types and their seating zones, and flights' seat pricings - is
+     * read from the second-level cache once it's been loaded, so that loading a flight again only queries the flight.
+     */
+    @Test
+    public void testReferenceDataCached() {
+        Statistics statistics = PM.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+
+        // The first time, everything is loaded from the database
+        em.getTransaction().begin();
+        loadFlightWithReferenceData(em, 13L);
+        em.getTransaction().commit();
+
+        EntityManager other = PM.createEntityManager();
+        try {
+            long statements = statistics.getPrepareStatementCount();
+            long hits = statistics.getSecondLevelCacheHitCount();
+
+            other.getTransaction().begin();
+            Flight flight = loadFlightWithReferenceData(other, 13L);
+            other.getTransaction().commit();
+
+            assertEquals("AKL", flight.getOrigin().getCode());
+            assertEquals(1, statistics.getPrepareStatementCount() - statements);
+            assertEquals(5, statistics.getSecondLevelCacheHitCount() - hits);
+        } finally {
+            other.close();
+        }
+    }
+
+    /**
+     * Tests that a group booking's inserts are batched: one statement for the booking and one for all of its seats,
+     * along with the update to the flight's seat counters - rather than one per seat.
+     */
+    @Test
+    public void testBookingInsertsBatched() throws BookingException {
+        Statistics statistics = PM.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+
+        // The first booking also allocates a block of booking ids, and loads everything else booking the flight needs
+        em.getTransaction().begin();
+        User user = em.find(User.class, 1L);
+        Flight flight = em.find(Flight.class, 5L);
+        flight.makeBooking(user, "58C");
+        em.getTransaction().commit();
+
+        em.getTransaction().begin();
+        long statements = statistics.getPrepareStatementCount();
+        FlightBooking booking = flight.makeBooking(user, "52H", "51G", "42C", "35B", "40G", "40H", "53G", "32H", "45K");
+        em.getTransaction().commit();
+
+        assertEquals(9, booking.getSeats().size());
+        assertEquals(3, statistics.getPrepareStatementCount() - statements);
+    }
+
+    /**
+     * Loads the flight with the given id by a query (as the web service does), along with all of its reference data.
+     */
+    private static Flight loadFlightWithReferenceData(EntityManager em, long flightId) {
+        Flight flight = em.createQuery("SELECT f FROM Flight f WHERE f.id = :id", Flight.class)
+                .setParameter("id", flightId)
+                .getSingleResult();
+        flight.getOrigin().getCode();
+        flight.getDestination().getCode();
+        flight.getAircraftType().getSeatingZones().size();
+        flight.getSeatPricings().size();
+        return flight;
+    }
+
     /**
      * All tests nested here require some bookings in the database, to operate on.
      */
@@ -213,21 +288,24 @@ public class TestDomainModel {
         @BeforeEach
         public void makeBookings() throws BookingException {
             EntityManager em = PM.createEntityManager();
+            try {
+                // Book some flights
+                Flight flight;
+                em.getTransaction().begin();
+                User user1 = em.find(User.class, 1L);
+                flight = em.find(Flight.class, 13L);
+                flight.makeBooking(user1, "23J", "36E", "58C", "48J", "60C");
+                em.getTransaction().commit();
 
-            // Book some flights
-            Flight flight;
-            em.getTransaction().begin();
-            User user1 = em.find(User.class, 1L);
-            flight = em.find(Flight.class, 13L);
-            flight.makeBooking(user1, "23J", "36E", "58C", "48J", "60C");
-            em.getTransaction().commit();
-
-            em.getTransaction().begin();
-            User user2 = em.find(User.class, 2L);
-            flight = em.find(Flight.class, 5L);
-            flight.makeBooking(user1, "52H", "51G", "42C", "35B", "40G");
-            flight.makeBooking(user2, "40H", "53G", "32H", "45K", "58C");
-            em.getTransaction().commit();
+                em.getTransaction().begin();
+                User user2 = em.find(User.class, 2L);
+                flight = em.find(Flight.class, 5L);
+                flight.makeBooking(user1, "52H", "51G", "42C", "35B", "40G");
+                flight.makeBooking(user2, "40H", "53G", "32H", "45K", "58C");
+                em.getTransaction().commit();
+            } finally {
+                em.close();
+            }
         }
 
         /**
@@ -250,6 +328,35 @@ public class TestDomainModel {
             em.getTransaction().commit();
         }
 
+        /**
+         * Tests that a user's bookings are loaded along with everything needed to show them (as the web service does)
+         * in a single statement, rather than one or more per booking.
+         */
+        @Test
+        public void testUserBookingsLoadedInOneStatement() {
+            Statistics statistics = PM.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+            long statements = statistics.getPrepareStatementCount();
+
+            em.getTransaction().begin();
+            List<FlightBookingDTO> bookings = em.createNamedQuery(FlightBooking.FIND_BY_USER_WITH_DETAILS,
+                            FlightBooking.class)
+                    .setParameter("userId", 1L)
+                    .getResultStream()
+                    .map(BookingMapper::toDTO)
+                    .collect(Collectors.toList());
+            em.getTransaction().commit();
+
+            assertEquals(1, statistics.getPrepareStatementCount() - statements);
+            assertEquals(2, bookings.size());
+            for (FlightBookingDTO booking : bookings) {
+                assertEquals(5, booking.getBookedSeats().size());
+                assertNotNull(booking.getFlight().getDestination().getCode());
+                assertNotNull(booking.getFlight().getAircraftName());
+            }
+            assertFalse(bookings.get(0).getFlight().getDepartureTime()
+                    .isAfter(bookings.get(1).getFlight().getDepartureTime()));
+        }
+
         /**
          * Tests whether our test booking data for a flight with multiple bookings, can be retrieved successfully
          */
@@ -282,6 +389,61 @@ public class TestDomainModel {
             em.getTransaction().commit();
         }
 
+        /**
+         * Tests that the per-cabin-class seat counters are updated by bookings, and persisted along with the flight
+         */
+        @Test
+        public void testSeatCountersPerCabinClass() {
+            em.getTransaction().begin();
+
+            Flight flight = em.find(Flight.class, 13L);
+            assertEquals(18, flight.getNumSeatsRemaining(CabinClass.Business));
+            assertEquals(20, flight.getNumSeatsRemaining(CabinClass.Premium));
+            assertEquals(259, flight.getNumSeatsRemaining(CabinClass.Economy));
+            assertEquals(0, flight.getNumSeatsRemaining(CabinClass.FirstClass));
+            assertEquals(297, flight.getNumSeatsRemaining(null));
+
+            em.getTransaction().commit();
+        }
+
+        /**
+         * Tests that removing a booking releases its seats back to the seat counters
+         */
+        @Test
+        public void testRemoveBookingReleasesSeats() {
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, 13L);
+            flight.removeBooking(flight.getBookings().stream().findFirst().get());
+            em.getTransaction().commit();
+
+            em.clear();
+            em.getTransaction().begin();
+            flight = em.find(Flight.class, 13L);
+            assertEquals(0, flight.getBookings().size());
+            assertEquals(302, flight.getNumSeatsRemaining());
+            assertEquals(21, flight.getNumSeatsRemaining(CabinClass.Premium));
+            em.getTransaction().commit();
+        }
+
+        /**
+         * Tests that the reconciliation job detects and corrects seat counters which don't match the booked seats
+         */
+        @Test
+        public void testReconcileSeatCounters() {
+            em.getTransaction().begin();
+            em.createNativeQuery("UPDATE FLIGHT SET ECONOMYSEATSREMAINING = 1 WHERE ID = 13").executeUpdate();
+            em.getTransaction().commit();
+
+            assertEquals(1, SeatInventoryReconciler.instance().reconcile());
+            assertEquals(0, SeatInventoryReconciler.instance().reconcile());
+
+            em.getTransaction().begin();
+            Flight flight = em.find(Flight.class, 13L);
+            assertEquals(259, flight.getNumSeatsRemaining(CabinClass.Economy));
+            assertEquals(297, flight.getNumSeatsRemaining());
+            em.getTransaction().commit();
+        }
+
         /**
          * Tests that we can't make a booking for 0 seats
          */
@@ -0,0 +1,169 @@
+package se325.flights.domain.test;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import se325.flights.domain.*;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.NamedQuery;
+import javax.persistence.Parameter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query plan regression tests. Runs each of the named queries declared on the domain entities (which are the queries
+ * the web service makes), captures the SQL Hibernate issues for it - including anything it loads along the way - and
+ * asks H2 to EXPLAIN each statement. Fails if any of them would scan a whole table, rather than using an index, unless
+ * the query is known to need to.
+ */
+public class TestQueryPlans {
+
+    private static final Class<?>[] ENTITIES = {
+            AircraftType.class, Airport.class, ArchivedBooking.class, ArchivedFlight.class, Flight.class,
+            FlightBooking.class, User.class
+    };
+
+    /**
+     * The queries which are expected to scan a table, and why
+     */
+    private static final Map<String, String> EXPECTED_SCANS = Map.of(
+            Airport.SEARCH, "substring search of the (small) airport reference data"
+    );
+
+    private static final Pattern TABLE_SCAN = Pattern.compile("(\\w+)\\.tableScan");
+
+    /**
+     * The JPQL of every named query, by name
+     */
+    private static final Map<String, String> QUERIES = new TreeMap<>();
+
+    static {
+        for (Class<?> entity : ENTITIES) {
+            for (NamedQuery namedQuery : entity.getAnnotationsByType(NamedQuery.class)) {
+                QUERIES.put(namedQuery.name(), namedQuery.query());
+            }
+        }
+    }
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+        PM.reset();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    static Stream<String> namedQueries() {
+        return QUERIES.keySet().stream();
+    }
+
+    /**
+     * Tests that none of the statements made for the given query scan a whole table.
+     */
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("namedQueries")
+    public void testNoTableScans(String name) {
+        List<String> statements = new ArrayList<>();
+        SessionFactory sessionFactory = PM.getEntityManagerFactory().unwrap(SessionFactory.class);
+
+        List<String> plans;
+        try (Session session = sessionFactory.withOptions()
+                .statementInspector(sql -> {
+                    statements.add(sql);
+                    return sql;
+                })
+                .openSession()) {
+
+            session.getTransaction().begin();
+            try {
+                Query<?> query = session.createNamedQuery(name);
+                for (Parameter<?> parameter : query.getParameters()) {
+                    bindSample(query, name, parameter);
+                }
+                if (QUERIES.get(name).trim().toLowerCase().startsWith("select")) {
+                    query.getResultList();
+                } else {
+                    query.executeUpdate();
+                }
+
+                List<String> executed = new ArrayList<>(statements);
+                plans = session.doReturningWork(connection -> explain(connection, executed));
+            } finally {
+                session.getTransaction().rollback();
+            }
+        }
+
+        assertFalse(plans.isEmpty(), "No statements were made for " + name);
+        if (EXPECTED_SCANS.containsKey(name)) {
+            // Make sure scans are still being spotted, and that the exception is still needed
+            assertTrue(plans.stream().anyMatch(plan -> TABLE_SCAN.matcher(plan).find()),
+                    name + " no longer scans a table, so needn't be listed as expected to");
+            return;
+        }
+        for (String plan : plans) {
+            Matcher scan = TABLE_SCAN.matcher(plan);
+            if (scan.find()) {
+                fail(name + " scans the whole " + scan.group(1) + " table:\n" + plan);
+            }
+        }
+    }
+
+    /**
+     * Binds a sample value to the given parameter, according to its type - or two values, if it's used in an "in"
+     * clause.
+     */
+    private static void bindSample(Query<?> query, String name, Parameter<?> parameter) {
+        Class<?> type = parameter.getParameterType();
+        List<Object> samples;
+        if (type == null || type == String.class) {
+            samples = List.of("akl", "syd");
+        } else if (type == Long.class || type == long.class) {
+            samples = List.of(1L, 2L);
+        } else if (type == ZonedDateTime.class) {
+            samples = List.of(ZonedDateTime.now(), ZonedDateTime.now().plusDays(1));
+        } else {
+            throw new IllegalArgumentException("No sample value for " + parameter.getName() + " of type " + type);
+        }
+
+        if (Pattern.compile("\\bin :" + parameter.getName() + "\\b", Pattern.CASE_INSENSITIVE)
+                .matcher(QUERIES.get(name)).find()) {
+            query.setParameterList(parameter.getName(), samples);
+        } else {
+            query.setParameter(parameter.getName(), samples.get(0));
+        }
+    }
+
+    /**
+     * Gets H2's plan for each of the given statements. Parameters don't need to be bound to be explained.
+     */
+    private static List<String> explain(Connection connection, List<String> statements) throws SQLException {
+        List<String> plans = new ArrayList<>();
+        for (String sql : statements) {
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql);
+                 ResultSet result = explain.executeQuery()) {
+                result.next();
+                plans.add(result.getString(1));
+            }
+        }
+        return plans;
+    }
+}
@@ -0,0 +1,103 @@
+package se325.flights.service.test;
+
+import se325.flights.domain.Flight;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.dto.SeatMapDTO;
+import se325.flights.dto.SeatMapRowDTO;
+import se325.flights.service.FlightsResource;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.UserPrincipal;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Set-up shared by the benchmarks, which call the resources directly rather than over HTTP.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Makes requests for (up to) the given number of distinct free seats, spread across every flight in turn so that
+     * concurrent bookings mostly don't wait for each other.
+     */
+    static List<BookingRequestDTO> bookingRequests(int count) {
+        List<Long> flightIds;
+        EntityManager em = PersistenceManager.instance().createEntityManager();
+        try {
+            flightIds = em.createNamedQuery(Flight.FIND_ALL, Flight.class).getResultStream()
+                    .map(Flight::getId)
+                    .collect(Collectors.toList());
+        } finally {
+            em.close();
+        }
+
+        FlightsResource flights = new FlightsResource();
+        List<Iterator<String>> freeSeats = new ArrayList<>();
+        for (long flightId : flightIds) {
+            freeSeats.add(freeSeats(flights.retrieveSeatMap(flightId)).iterator());
+        }
+
+        List<BookingRequestDTO> requests = new ArrayList<>(count);
+        while (requests.size() < count) {
+            boolean any = false;
+            for (int f = 0; f < flightIds.size() && requests.size() < count; f++) {
+                if (freeSeats.get(f).hasNext()) {
+                    requests.add(new BookingRequestDTO(flightIds.get(f), freeSeats.get(f).next()));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return requests;
+    }
+
+    private static List<String> freeSeats(SeatMapDTO seatMap) {
+        List<String> seats = new ArrayList<>();
+        for (SeatMapRowDTO row : seatMap.getRows()) {
+            for (int i = 0; i < row.getSeats().length(); i++) {
+                if (row.getSeats().charAt(i) == SeatMapRowDTO.AVAILABLE) {
+                    seats.add(row.getRowNumber() + String.valueOf(seatMap.getLetters().charAt(i)));
+                }
+            }
+        }
+        return seats;
+    }
+
+    static final class BenchmarkSecurityContext implements SecurityContext {
+        private final UserPrincipal principal;
+
+        BenchmarkSecurityContext(long userId) {
+            this.principal = new UserPrincipal(userId);
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure() {
+            return false;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return "Benchmark";
+        }
+    }
+}
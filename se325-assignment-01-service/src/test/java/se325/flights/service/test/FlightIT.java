@@ -1,9 +1,14 @@
 package se325.flights.service.test;
 
 import org.junit.jupiter.api.Test;
+import se325.flights.CabinClass;
 import se325.flights.dto.BookingInfoDTO;
+import se325.flights.dto.FlightAvailabilityDTO;
 import se325.flights.dto.FlightDTO;
+import se325.flights.dto.SeatMapDTO;
+import se325.flights.dto.SeatMapRowDTO;
 
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 import java.util.List;
@@ -230,4 +235,105 @@ public class FlightIT extends BaseIntegrationTests {
             assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that we can get a seat map for a flight which exists, with booked seats marked as such
+     */
+    @Test
+    public void testRetrieveSeatMap() {
+        logInAsAlice();
+        makeBooking(13, "1A", "23B");
+
+        try (Response response = clientRequest("/flights/13/seat-map").get()) {
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            SeatMapDTO seatMap = response.readEntity(SeatMapDTO.class);
+
+            assertEquals("787-9 Dreamliner", seatMap.getAircraftType().getName());
+            assertEquals("ABCDEFHJK", seatMap.getLetters());
+            assertEquals(41, seatMap.getRows().size());
+
+            SeatMapRowDTO row = seatMap.getRows().get(0);
+            assertEquals(1, row.getRowNumber());
+            assertEquals(CabinClass.Business, row.getCabinClass());
+            assertEquals(4050, row.getPrice());
+            assertEquals("X------OO", row.getSeats());
+
+            row = seatMap.getRows().get(6);
+            assertEquals(23, row.getRowNumber());
+            assertEquals(CabinClass.Premium, row.getCabinClass());
+            assertEquals(2025, row.getPrice());
+            assertEquals("OX-OOO-OO", row.getSeats());
+        }
+    }
+
+    /**
+     * Tests that we get a 404 error for requesting a seat map for a nonexistent flight
+     */
+    @Test
+    public void testRetrieveSeatMapFail_NotFound() {
+        try (Response response = clientRequest("/flights/999/seat-map").get()) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        }
+    }
+
+    /**
+     * Tests that we can get the availability of many flights at once, with nonexistent flights omitted
+     */
+    @Test
+    public void testRetrieveAvailability() {
+        logInAsAlice();
+        makeBooking(13, "1A", "23B", "35A");
+
+        try (Response response = clientRequest("/flights/availability").post(Entity.json(List.of(13L, 999L, 1L)))) {
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            List<FlightAvailabilityDTO> availability = response.readEntity(new GenericType<>() {
+            });
+            assertEquals(2, availability.size());
+
+            FlightAvailabilityDTO flight = availability.get(0);
+            assertEquals(13L, flight.getFlightId());
+            assertEquals(17, flight.getSeatsRemaining().get(CabinClass.Business));
+            assertEquals(20, flight.getSeatsRemaining().get(CabinClass.Premium));
+            assertEquals(262, flight.getSeatsRemaining().get(CabinClass.Economy));
+            assertEquals(4050, flight.getPricingInfo().get(CabinClass.Business));
+            assertEquals(675, flight.getPricingInfo().get(CabinClass.Economy));
+
+            flight = availability.get(1);
+            assertEquals(1L, flight.getFlightId());
+            assertEquals(2, flight.getSeatsRemaining().size());
+            assertEquals(950, flight.getPricingInfo().get(CabinClass.Business));
+        }
+    }
+
+    /**
+     * Tests that a cabin class which is fully booked is reported with 0 seats remaining, rather than being left out
+     */
+    @Test
+    public void testRetrieveAvailability_SoldOut() {
+        logInAsAlice();
+        makeBooking(13, "1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A", "4J", "4K", "5A", "5J", "5K", "6A",
+                "6J", "6K");
+
+        try (Response response = clientRequest("/flights/availability").post(Entity.json(List.of(13L)))) {
+            assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+            List<FlightAvailabilityDTO> availability = response.readEntity(new GenericType<>() {
+            });
+            assertEquals(1, availability.size());
+
+            FlightAvailabilityDTO flight = availability.get(0);
+            assertEquals(3, flight.getSeatsRemaining().size());
+            assertEquals(0, flight.getSeatsRemaining().get(CabinClass.Business));
+            assertEquals(21, flight.getSeatsRemaining().get(CabinClass.Premium));
+        }
+    }
+
+    /**
+     * Tests that we get a 400 error when requesting availability for no flights
+     */
+    @Test
+    public void testRetrieveAvailabilityFail_NoFlights() {
+        try (Response response = clientRequest("/flights/availability").post(Entity.json(List.of()))) {
+            assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        }
+    }
+}
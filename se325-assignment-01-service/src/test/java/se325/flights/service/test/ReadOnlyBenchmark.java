@@ -0,0 +1,168 @@
+package se325.flights.service.test;
+
+import org.hibernate.annotations.QueryHints;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import se325.flights.domain.Flight;
+import se325.flights.domain.FlightBooking;
+import se325.flights.domain.mappers.BookingMapper;
+import se325.flights.domain.mappers.FlightMapper;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.service.BookingsResource;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the heap allocation and CPU time of large queries run in an ordinary transaction with the same queries run
+ * through {@link PersistenceManager#inReadOnlyTransaction(Function)}. Not run with the unit tests - run it with
+ * {@code mvn -Pbenchmark test}. The report is written to {@code target/benchmark/read-only.md}.
+ * <p>
+ * Each query is run on a single thread, whose allocation and CPU time are read from the JVM. The number of bookings
+ * listed and of times each query is run can be changed with {@code flights.benchmark.userBookings} and
+ * {@code flights.benchmark.queries}.
+ */
+public class ReadOnlyBenchmark {
+
+    private static final int USER_BOOKINGS = Integer.getInteger("flights.benchmark.userBookings", 1000);
+    private static final int QUERIES = Integer.getInteger("flights.benchmark.queries", 500);
+    private static final int WARM_UP_QUERIES = 200;
+    private static final long USER_ID = 1;
+
+    private static final Path OUTPUT_DIR = Paths.get("target", "benchmark").toAbsolutePath();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void bookSeats() {
+        PM = PersistenceManager.instance();
+        PM.reset();
+
+        BookingsResource bookings = new BookingsResource();
+        BenchmarkSupport.BenchmarkSecurityContext user = new BenchmarkSupport.BenchmarkSecurityContext(USER_ID);
+        for (BookingRequestDTO request : BenchmarkSupport.bookingRequests(USER_BOOKINGS)) {
+            bookings.makeBooking(user, request);
+        }
+    }
+
+    @AfterAll
+    public static void resetDatabase() {
+        PM.reset();
+    }
+
+    @Test
+    public void compareReadOnlyTransactions() throws Exception {
+        Files.createDirectories(OUTPUT_DIR);
+
+        StringBuilder report = new StringBuilder()
+                .append("# Read-only transaction benchmark\n\n")
+                .append(String.format("Each query run %d times on one thread%n%n", QUERIES))
+                .append("| Query | Transaction | Results | KB allocated/query | CPU us/query |\n")
+                .append("|---|---|---:|---:|---:|\n");
+
+        Result[] bookings = compare(report, "User's bookings", (em, readOnly) -> em
+                .createNamedQuery(FlightBooking.FIND_BY_USER_WITH_DETAILS, FlightBooking.class)
+                .setParameter("userId", USER_ID)
+                .setHint(QueryHints.READ_ONLY, readOnly)
+                .getResultStream()
+                .map(BookingMapper::toDTO)
+                .collect(Collectors.toList()));
+        Result[] flights = compare(report, "All flights", (em, readOnly) -> em
+                .createNamedQuery(Flight.FIND_ALL, Flight.class)
+                .setHint(QueryHints.READ_ONLY, readOnly)
+                .getResultStream()
+                .map(FlightMapper::toDTO)
+                .collect(Collectors.toList()));
+
+        Files.writeString(OUTPUT_DIR.resolve("read-only.md"), report);
+        System.out.println(report);
+
+        for (Result[] results : List.of(bookings, flights)) {
+            assertEquals(results[0].results, results[1].results);
+            assertTrue(results[1].bytesPerQuery < results[0].bytesPerQuery,
+                    "Read-only queries shouldn't allocate more than read-write ones");
+        }
+    }
+
+    /**
+     * Measures the given query in a read-write transaction, then in a read-only one, and adds both to the report. The
+     * query is told which it's in, as its read-only hint (if any) would otherwise override the transaction's.
+     *
+     * @return the read-write and read-only results, in that order
+     */
+    private static Result[] compare(StringBuilder report, String name,
+                                    BiFunction<EntityManager, Boolean, List<?>> query) {
+        Result[] results = {
+                measure(() -> inReadWriteTransaction(em -> query.apply(em, false))),
+                measure(() -> PM.inReadOnlyTransaction(em -> query.apply(em, true)))
+        };
+        report.append(String.format("| %s | Read-write | %d | %.1f | %.0f |%n",
+                name, results[0].results, results[0].bytesPerQuery / 1024.0, results[0].cpuNanosPerQuery / 1000.0));
+        report.append(String.format("| %s | Read-only | %d | %.1f | %.0f |%n",
+                name, results[1].results, results[1].bytesPerQuery / 1024.0, results[1].cpuNanosPerQuery / 1000.0));
+        return results;
+    }
+
+    private static <T> T inReadWriteTransaction(Function<EntityManager, T> work) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static Result measure(Query query) {
+        int results = 0;
+        for (int i = 0; i < WARM_UP_QUERIES; i++) {
+            results = query.run().size();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long bytes = THREADS.getThreadAllocatedBytes(thread);
+        long cpuNanos = THREADS.getCurrentThreadCpuTime();
+        for (int i = 0; i < QUERIES; i++) {
+            query.run();
+        }
+        return new Result(results,
+                (THREADS.getThreadAllocatedBytes(thread) - bytes) / (double) QUERIES,
+                (THREADS.getCurrentThreadCpuTime() - cpuNanos) / (double) QUERIES);
+    }
+
+    private static final class Result {
+        private final int results;
+        private final double bytesPerQuery;
+        private final double cpuNanosPerQuery;
+
+        private Result(int results, double bytesPerQuery, double cpuNanosPerQuery) {
+            this.results = results;
+            this.bytesPerQuery = bytesPerQuery;
+            this.cpuNanosPerQuery = cpuNanosPerQuery;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Query {
+        List<?> run();
+    }
+}
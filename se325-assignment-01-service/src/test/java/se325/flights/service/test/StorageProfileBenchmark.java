@@ -0,0 +1,148 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.service.*;
+
+import javax.ws.rs.WebApplicationException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares flight search and booking throughput across the {@link StorageProfile}s, by calling the resources directly
+ * from several threads. Not run with the unit tests - run it with {@code mvn -Pbenchmark test}. The report is written
+ * to {@code target/benchmark/storage-profiles.md}.
+ * <p>
+ * The number of threads, searches and bookings can be changed with {@code flights.benchmark.threads},
+ * {@code flights.benchmark.searches} and {@code flights.benchmark.bookings}.
+ */
+public class StorageProfileBenchmark {
+
+    private static final int THREADS = Integer.getInteger("flights.benchmark.threads", 4);
+    private static final int SEARCHES = Integer.getInteger("flights.benchmark.searches", 5000);
+    private static final int BOOKINGS = Integer.getInteger("flights.benchmark.bookings", 2000);
+    private static final int WARM_UP_SEARCHES = 500;
+
+    private static final Path OUTPUT_DIR = Paths.get("target", "benchmark").toAbsolutePath();
+
+    private static final String[][] ROUTES = {
+            {"AKL", "SYD"}, {"Sydney", "Auckland"}, {"akl", "NRT"}, {"Singapore", "LAX"}, {"los angeles", "akl"}
+    };
+
+    private static final long[] USER_IDS = {1, 2};
+
+    @AfterAll
+    public static void resetStorageProfile() {
+        PersistenceManager.instance().close();
+        System.clearProperty("flights.storage.path");
+        System.setProperty("flights.storage", StorageProfile.MEMORY.name());
+    }
+
+    @Test
+    public void compareStorageProfiles() throws Exception {
+        Files.createDirectories(OUTPUT_DIR);
+
+        StringBuilder report = new StringBuilder()
+                .append("# Storage profile benchmark\n\n")
+                .append(String.format("%d threads, %d searches, %d single-seat bookings%n%n", THREADS, SEARCHES, BOOKINGS))
+                .append("| Profile | Searches/s | Bookings/s | Rejected bookings |\n")
+                .append("|---|---:|---:|---:|\n");
+
+        // One round to warm up the JIT, so the first profile measured isn't at a disadvantage
+        measure(StorageProfile.MEMORY);
+
+        for (StorageProfile profile : StorageProfile.values()) {
+            Result result = measure(profile);
+            report.append(String.format("| %s | %.0f | %.0f | %d |%n",
+                    profile, result.searchesPerSecond, result.bookingsPerSecond, result.rejectedBookings));
+            assertEquals(0, result.rejectedBookings, "Every requested seat was free, so no bookings should be rejected");
+        }
+
+        Files.writeString(OUTPUT_DIR.resolve("storage-profiles.md"), report);
+        System.out.println(report);
+    }
+
+    /**
+     * Re-creates the database with the given profile, then measures searches and bookings against it.
+     */
+    private static Result measure(StorageProfile profile) throws Exception {
+        System.setProperty("flights.storage", profile.name());
+        System.setProperty("flights.storage.path", OUTPUT_DIR.resolve(profile.name().toLowerCase()).toString());
+        PersistenceManager.instance().reset();
+        assertEquals(profile, PersistenceManager.instance().getStorageProfile());
+
+        FlightsResource flights = new FlightsResource();
+        run(WARM_UP_SEARCHES, i -> search(flights, i));
+        double searchesPerSecond = run(SEARCHES, i -> search(flights, i));
+
+        List<BookingRequestDTO> requests = BenchmarkSupport.bookingRequests(BOOKINGS);
+        AtomicInteger rejected = new AtomicInteger();
+        BookingsResource bookings = new BookingsResource();
+        double bookingsPerSecond = run(requests.size(), i -> {
+            try {
+                bookings.makeBooking(new BenchmarkSupport.BenchmarkSecurityContext(USER_IDS[i % USER_IDS.length]), requests.get(i));
+            } catch (WebApplicationException e) {
+                rejected.incrementAndGet();
+            }
+        });
+        return new Result(searchesPerSecond, bookingsPerSecond, rejected.get());
+    }
+
+    private static void search(FlightsResource flights, int i) {
+        String[] route = ROUTES[i % ROUTES.length];
+        assertFalse(flights.getFlights(route[0], route[1], null, 0).isEmpty());
+    }
+
+    /**
+     * Runs the given operation the given number of times, shared between the benchmark's threads.
+     *
+     * @return the number of operations per second
+     */
+    private static double run(int count, Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(() -> {
+                for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                    operation.run(i);
+                }
+                return null;
+            });
+        }
+
+        long start = System.nanoTime();
+        try {
+            for (Future<Void> worker : executor.invokeAll(workers)) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static final class Result {
+        private final double searchesPerSecond;
+        private final double bookingsPerSecond;
+        private final int rejectedBookings;
+
+        private Result(double searchesPerSecond, double bookingsPerSecond, int rejectedBookings) {
+            this.searchesPerSecond = searchesPerSecond;
+            this.bookingsPerSecond = bookingsPerSecond;
+            this.rejectedBookings = rejectedBookings;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int i);
+    }
+}
@@ -1,24 +1,29 @@
 package se325.flights.service.test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import se325.flights.CabinClass;
 import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.dto.SubscriptionStatusDTO;
+import se325.flights.dto.UserDTO;
 
+import javax.websocket.*;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
 import java.net.URI;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
- * Tests functionality related to subscriptions (async HTTP requests).
+ * Tests functionality related to subscriptions (async HTTP requests and WebSockets).
  */
 public class SubscriptionIT extends BaseIntegrationTests {
 
@@ -142,6 +147,383 @@ public class SubscriptionIT extends BaseIntegrationTests {
         }
     }
 
+    /**
+     * Tests that, if the same user makes two identical subscriptions when there are insufficient seats available,
+     * both of them will be notified once those seats are available.
+     */
+    @Test
+    public void testSubscription_IdenticalSubscriptionsAllNotified() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob subscribe to seat notifications, twice
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5);
+        Future<Response> future1 = clientRequest(clientForBob, "/flights/subscribe").async().post(Entity.json(request));
+        Future<Response> future2 = clientRequest(clientForBob, "/flights/subscribe").async().post(Entity.json(request));
+
+        // Neither subscription should be fulfilled just yet. Wait for a couple of seconds to verify this.
+        try {
+            future1.get(2, TimeUnit.SECONDS);
+            fail("future.get() should have timed out, not succeeded.");
+        } catch (TimeoutException e) {
+
+            // Now, have Alice cancel their booking
+            try (Response response = client.target(bookingUri).request().delete()) {
+                assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+            }
+
+            // Both subscriptions should now be notified
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), future1.get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), future2.get(5, TimeUnit.SECONDS).getStatus());
+        }
+    }
+
+    /**
+     * Tests that, if a subscription's seats don't become available within its requested timeout, we'll get a 408
+     * Request Timeout response.
+     */
+    @Test
+    public void testSubscription_TimesOut() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        bookAllSeatsInBusinessClass();
+
+        // Now, have Bob subscribe to seat notifications, waiting for at most one second
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5);
+        Future<Response> future = clientRequest(clientForBob, "/flights/subscribe?timeout=1").async().post(Entity.json(request));
+
+        Response subResponse = future.get(5, TimeUnit.SECONDS);
+        assertEquals(Response.Status.REQUEST_TIMEOUT.getStatusCode(), subResponse.getStatus());
+        assertNotNull(subResponse.getLocation());
+    }
+
+    /**
+     * Tests that, after a subscription times out, we can reattach to it using the URI we were given, and will be
+     * notified once seats are available.
+     */
+    @Test
+    public void testSubscription_ReattachAfterTimeout() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob subscribe to seat notifications, and let the request time out
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5);
+        URI subscriptionUri;
+        try (Response response = clientRequest(clientForBob, "/flights/subscribe?timeout=1").post(Entity.json(request))) {
+            assertEquals(Response.Status.REQUEST_TIMEOUT.getStatusCode(), response.getStatus());
+            subscriptionUri = response.getLocation();
+        }
+
+        // Alice can't reattach to Bob's subscription
+        try (Response response = client.target(subscriptionUri).request().get()) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        }
+
+        // Now, have Bob reattach, and Alice cancel their booking
+        Future<Response> future = clientForBob.target(subscriptionUri).request().async().get();
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("future.get() should have timed out, not succeeded.");
+        } catch (TimeoutException e) {
+            try (Response response = client.target(bookingUri).request().delete()) {
+                assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+            }
+
+            Response subResponse = future.get(5, TimeUnit.SECONDS);
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), subResponse.getStatus());
+        }
+
+        // The subscription is finished with, so can't be reattached again
+        try (Response response = clientForBob.target(subscriptionUri).request().get()) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        }
+    }
+
+    /**
+     * Tests that, if seats become available while nobody is attached to a subscription, we'll be notified as soon as we
+     * reattach.
+     */
+    @Test
+    public void testSubscription_ReattachAfterSeatsAvailable() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob subscribe to seat notifications, and let the request time out
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5);
+        URI subscriptionUri;
+        try (Response response = clientRequest(clientForBob, "/flights/subscribe?timeout=1").post(Entity.json(request))) {
+            assertEquals(Response.Status.REQUEST_TIMEOUT.getStatusCode(), response.getStatus());
+            subscriptionUri = response.getLocation();
+        }
+
+        // Alice cancels their booking while Bob is away
+        try (Response response = client.target(bookingUri).request().delete()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+        Thread.sleep(1000);
+
+        // When Bob comes back, they should be notified straight away
+        try (Response response = clientForBob.target(subscriptionUri).request().get()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+    }
+
+    /**
+     * Tests that we can cancel a subscription, after which it can't be reattached.
+     */
+    @Test
+    public void testCancelSubscription() {
+        logInAsAlice();
+        bookAllSeatsInBusinessClass();
+
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5);
+        URI subscriptionUri;
+        try (Response response = clientRequest(clientForBob, "/flights/subscribe?timeout=1").post(Entity.json(request))) {
+            subscriptionUri = response.getLocation();
+        }
+
+        try (Response response = clientForBob.target(subscriptionUri).request().delete()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+        try (Response response = clientForBob.target(subscriptionUri).request().get()) {
+            assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        }
+    }
+
+    /**
+     * Tests that, when seats become available, they're held for the first waitlisted subscriber - so that nobody else
+     * can book them, but the subscriber can.
+     */
+    @Test
+    public void testWaitlist_SeatsHeldForSubscriber() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob join the waitlist
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5, true);
+        Future<Response> future = clientRequest(clientForBob, "/flights/subscribe").async().post(Entity.json(request));
+
+        // Once Alice cancels their booking, Bob should be told that seats are held for them
+        try (Response response = client.target(bookingUri).request().delete()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+        Response subResponse = future.get(5, TimeUnit.SECONDS);
+        assertEquals(Response.Status.NO_CONTENT.getStatusCode(), subResponse.getStatus());
+        assertNotNull(subResponse.getHeaderString("Seat-Hold-Expires"));
+
+        // Alice can't book all the seats back, but can book the ones which aren't held
+        BookingRequestDTO tooMany = new BookingRequestDTO(13, "1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A", "4J", "4K", "5A", "5J", "5K");
+        try (Response response = clientRequest("/bookings").post(Entity.json(tooMany))) {
+            assertEquals(Response.Status.CONFLICT.getStatusCode(), response.getStatus());
+        }
+        makeBooking(13, "1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A", "4J", "4K", "5A");
+
+        // Bob can book the held seats
+        try (Response response = clientRequest(clientForBob, "/bookings").post(Entity.json(new BookingRequestDTO(13, "5J", "5K", "6A", "6J", "6K")))) {
+            assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+        }
+    }
+
+    /**
+     * Tests that, if a waitlisted subscriber doesn't claim the seats held for them, the seats are held for the next
+     * subscriber in line once the hold expires.
+     */
+    @Test
+    public void testWaitlist_HoldMovesToNextSubscriber() throws ExecutionException, InterruptedException, TimeoutException {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob join the waitlist for all the seats, then Alice
+        Client clientForBob = ClientBuilder.newClient();
+        logInAs("Bob", "12345", clientForBob);
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 18, true);
+        Future<Response> bobsFuture = clientRequest(clientForBob, "/flights/subscribe").async().post(Entity.json(request));
+        Thread.sleep(500);
+        Future<Response> alicesFuture = clientRequest("/flights/subscribe").async().post(Entity.json(request));
+
+        // Once Alice cancels their booking, the seats should be held for Bob, who was first
+        try (Response response = client.target(bookingUri).request().delete()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+        assertEquals(Response.Status.NO_CONTENT.getStatusCode(), bobsFuture.get(5, TimeUnit.SECONDS).getStatus());
+        try {
+            alicesFuture.get(1, TimeUnit.SECONDS);
+            fail("future.get() should have timed out, not succeeded.");
+        } catch (TimeoutException e) {
+
+            // Bob doesn't book, so once the hold expires, the seats should be held for Alice instead
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), alicesFuture.get(5, TimeUnit.SECONDS).getStatus());
+            try (Response response = clientRequest(clientForBob, "/bookings").post(Entity.json(new BookingRequestDTO(13, "1A")))) {
+                assertEquals(Response.Status.CONFLICT.getStatusCode(), response.getStatus());
+            }
+            bookAllSeatsInBusinessClass();
+        }
+    }
+
+    /**
+     * Tests that a single WebSocket connection can carry several subscriptions, each of which is acknowledged with its
+     * id and then resolved - either straight away, or once the seats become available.
+     */
+    @Test
+    public void testSocketSubscription_NotifiedWhenSeatsAvailable() throws Exception {
+        // First, have Alice book all the seats
+        logInAsAlice();
+        URI bookingUri = bookAllSeatsInBusinessClass();
+
+        // Now, have Bob subscribe to seat notifications on an open socket - once for a flight which doesn't exist
+        SubscriptionSocketClient socket = connectSocket(logInForToken("Bob", "12345"));
+        socket.send(new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5));
+        socket.send(new AvailableSeatsSubscriptionDTO(999, CabinClass.Business, 5));
+
+        SubscriptionStatusDTO accepted = socket.receive();
+        assertEquals(Response.Status.ACCEPTED.getStatusCode(), accepted.getStatus());
+        assertNotNull(accepted.getSubscriptionId());
+        assertEquals(13, accepted.getFlightId());
+        SubscriptionStatusDTO invalidAccepted = socket.receive();
+        assertEquals(Response.Status.ACCEPTED.getStatusCode(), invalidAccepted.getStatus());
+        SubscriptionStatusDTO invalid = socket.receive();
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), invalid.getStatus());
+        assertEquals(invalidAccepted.getSubscriptionId(), invalid.getSubscriptionId());
+
+        // The other subscription shouldn't be resolved just yet
+        assertNull(socket.messages.poll(2, TimeUnit.SECONDS));
+
+        // Now, have Alice cancel their booking, and Bob should be notified over the same socket
+        try (Response response = client.target(bookingUri).request().delete()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+        SubscriptionStatusDTO available = socket.receive();
+        assertEquals(Response.Status.NO_CONTENT.getStatusCode(), available.getStatus());
+        assertEquals(accepted.getSubscriptionId(), available.getSubscriptionId());
+        assertTrue(socket.session.isOpen());
+        socket.session.close();
+    }
+
+    /**
+     * Tests that a message which isn't a subscription - including the JSON message null - is answered with a 400 Bad
+     * Request status, and that the socket stays open for further subscriptions.
+     */
+    @Test
+    public void testSocketSubscriptionFail_InvalidMessage() throws Exception {
+        SubscriptionSocketClient socket = connectSocket(logInForToken("Bob", "12345"));
+        socket.sendText("null");
+        socket.sendText("{not json");
+
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), socket.receive().getStatus());
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), socket.receive().getStatus());
+
+        socket.send(new AvailableSeatsSubscriptionDTO(13, CabinClass.Business, 5));
+        assertEquals(Response.Status.ACCEPTED.getStatusCode(), socket.receive().getStatus());
+        assertTrue(socket.session.isOpen());
+        socket.session.close();
+    }
+
+    /**
+     * Tests that a WebSocket connection without a valid auth token is closed straight away.
+     */
+    @Test
+    public void testSocketSubscriptionFail_NotAuthenticated() throws Exception {
+        SubscriptionSocketClient socket = connectSocket(null);
+        CloseReason reason = socket.closed.get(5, TimeUnit.SECONDS);
+        assertEquals(CloseReason.CloseCodes.VIOLATED_POLICY.getCode(), reason.getCloseCode().getCode());
+    }
+
+    /**
+     * Logs in as the given user, without keeping the auth cookie in the client.
+     *
+     * @return the user's auth token
+     */
+    private String logInForToken(String username, String password) {
+        Client loginClient = ClientBuilder.newClient();
+        try (Response response = clientRequest(loginClient, "/users/login").post(Entity.json(new UserDTO(username, password)))) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+            return response.getCookies().get("authToken").getValue();
+        } finally {
+            loginClient.close();
+        }
+    }
+
+    /**
+     * Opens a subscription socket, sending the given auth token (if any) as a cookie.
+     */
+    private SubscriptionSocketClient connectSocket(String authToken) throws Exception {
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+                .configurator(new ClientEndpointConfig.Configurator() {
+                    @Override
+                    public void beforeRequest(Map<String, List<String>> headers) {
+                        if (authToken != null) {
+                            headers.put("Cookie", Collections.singletonList("authToken=" + authToken));
+                        }
+                    }
+                }).build();
+        SubscriptionSocketClient socket = new SubscriptionSocketClient();
+        ContainerProvider.getWebSocketContainer().connectToServer(socket, config,
+                URI.create(WEB_SERVICE_URI.replace("http:", "ws:") + "/flights/subscriptions/socket"));
+        return socket;
+    }
+
+    /**
+     * Sends subscriptions over a WebSocket, and collects the statuses which come back.
+     */
+    private static class SubscriptionSocketClient extends Endpoint {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+        private final BlockingQueue<SubscriptionStatusDTO> messages = new LinkedBlockingQueue<>();
+        private final CompletableFuture<CloseReason> closed = new CompletableFuture<>();
+        private Session session;
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            this.session = session;
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String message) {
+                    try {
+                        messages.add(MAPPER.readValue(message, SubscriptionStatusDTO.class));
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            closed.complete(closeReason);
+        }
+
+        void send(AvailableSeatsSubscriptionDTO request) throws IOException {
+            sendText(MAPPER.writeValueAsString(request));
+        }
+
+        void sendText(String message) throws IOException {
+            session.getBasicRemote().sendText(message);
+        }
+
+        SubscriptionStatusDTO receive() throws InterruptedException {
+            SubscriptionStatusDTO message = messages.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message, "Timed out waiting for a subscription status");
+            return message;
+        }
+    }
+
     /**
      * Books all seats in business class on flight IWO-222 (13).
      *
@@ -0,0 +1,73 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.CabinClass;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.service.FlightSubscriptions;
+import se325.flights.service.Subscription;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures how long a single flight with many waiting subscriptions takes to be fully resolved in one sweep - see
+ * {@link FlightSubscriptions#removeSatisfied}. Not run with the unit tests - run it with {@code mvn -Pbenchmark test}.
+ * The report is written to {@code target/benchmark/subscription-matching.md}.
+ * <p>
+ * The number of subscriptions and of sweeps can be changed with {@code flights.benchmark.subscriptions} and
+ * {@code flights.benchmark.sweeps}. The fastest sweep (after the JIT has warmed up) should take under 50 ms.
+ */
+public class SubscriptionMatchingBenchmark {
+
+    private static final int SUBSCRIPTIONS = Integer.getInteger("flights.benchmark.subscriptions", 100_000);
+    private static final int SWEEPS = Integer.getInteger("flights.benchmark.sweeps", 10);
+
+    private static final Path OUTPUT_DIR = Paths.get("target", "benchmark").toAbsolutePath();
+
+    @Test
+    public void measureRemoveSatisfied() throws Exception {
+        Files.createDirectories(OUTPUT_DIR);
+
+        StringBuilder report = new StringBuilder()
+                .append("# Subscription matching benchmark\n\n")
+                .append(String.format("Each sweep resolves %d subscriptions to a single flight%n%n", SUBSCRIPTIONS))
+                .append("| Sweep | ms |\n")
+                .append("|---:|---:|\n");
+
+        long nextId = 1;
+        long bestNanos = Long.MAX_VALUE;
+        for (int sweep = 0; sweep < SWEEPS; sweep++) {
+            FlightSubscriptions subs = new FlightSubscriptions();
+            Random random = new Random(sweep);
+            CabinClass[] classes = {CabinClass.Economy, CabinClass.Premium, CabinClass.Business, null};
+            for (int i = 0; i < SUBSCRIPTIONS; i++) {
+                subs.add(new Subscription(nextId++, new AvailableSeatsSubscriptionDTO(
+                        13, classes[random.nextInt(classes.length)], 1 + random.nextInt(10)), null));
+            }
+
+            // Don't count garbage left over from setting up
+            System.gc();
+            long start = System.nanoTime();
+            List<Subscription> satisfied = subs.removeSatisfied(cabinClass -> 10);
+            long nanos = System.nanoTime() - start;
+            bestNanos = Math.min(bestNanos, nanos);
+
+            assertEquals(SUBSCRIPTIONS, satisfied.size());
+            assertTrue(subs.isEmpty());
+            report.append(String.format("| %d | %.1f |%n", sweep + 1, nanos / 1e6));
+        }
+
+        long bestMillis = TimeUnit.NANOSECONDS.toMillis(bestNanos);
+        report.append(String.format("%nFastest sweep: %d ms%n", bestMillis));
+        Files.writeString(OUTPUT_DIR.resolve("subscription-matching.md"), report);
+        System.out.println(report);
+
+        assertTrue(bestMillis < 50, "Resolving " + SUBSCRIPTIONS + " subscriptions took " + bestMillis + "ms");
+    }
+}
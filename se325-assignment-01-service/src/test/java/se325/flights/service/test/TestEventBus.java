@@ -0,0 +1,86 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.EventBus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link EventBus}.
+ */
+public class TestEventBus {
+
+    /**
+     * Tests that every event published from several threads at once is delivered exactly once, with each thread's
+     * events in the order it published them.
+     */
+    @Test
+    public void testEventsDeliveredInOrderPerPublisher() throws InterruptedException {
+        int publishers = 4;
+        int eventsPerPublisher = 10_000;
+        List<TestEvent> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(publishers * eventsPerPublisher);
+        EventBus.instance().subscribe(TestEvent.class, batch -> {
+            received.addAll(batch);
+            batch.forEach(event -> done.countDown());
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            int publisher = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < eventsPerPublisher; i++) {
+                    EventBus.instance().publish(new TestEvent(publisher, i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Listeners are only ever called on the dispatcher thread, so the list is safe to read once all have arrived
+        int[] nextSequence = new int[publishers];
+        for (TestEvent event : received) {
+            assertEquals(nextSequence[event.publisher]++, event.sequence);
+        }
+        for (int p = 0; p < publishers; p++) {
+            assertEquals(eventsPerPublisher, nextSequence[p]);
+        }
+    }
+
+    /**
+     * Tests that events of other types aren't delivered to a listener.
+     */
+    @Test
+    public void testOnlyMatchingEventsDelivered() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        List<Object> otherEvents = new ArrayList<>();
+        EventBus.instance().subscribe(OtherEvent.class, otherEvents::addAll);
+        EventBus.instance().subscribe(TestEvent.class, batch -> received.countDown());
+
+        EventBus.instance().publish(new TestEvent(0, 0));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertTrue(otherEvents.isEmpty());
+    }
+
+    private static final class TestEvent {
+        private final int publisher;
+        private final int sequence;
+
+        private TestEvent(int publisher, int sequence) {
+            this.publisher = publisher;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class OtherEvent {
+    }
+}
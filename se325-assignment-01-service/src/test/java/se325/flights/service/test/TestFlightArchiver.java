@@ -0,0 +1,131 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.domain.Flight;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.dto.FlightBookingDTO;
+import se325.flights.service.BookingsResource;
+import se325.flights.service.FlightArchiver;
+import se325.flights.service.PersistenceManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.ws.rs.core.SecurityContext;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link FlightArchiver}. Every flight in the seed data has already departed, so flights are
+ * archived by giving a cut-off part way through them.
+ */
+public class TestFlightArchiver {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    /**
+     * Tests that flights which departed before the cut-off are moved into the archive along with their bookings and
+     * seats, that later flights are left alone, and that a user's bookings look just the same afterwards - whether
+     * they're listed or fetched one at a time.
+     */
+    @Test
+    public void testArchivesDepartedFlightsWithTheirBookings() {
+        SecurityContext alice = new BenchmarkSupport.BenchmarkSecurityContext(1);
+        BookingsResource bookings = new BookingsResource();
+        List<BookingRequestDTO> requests = BenchmarkSupport.bookingRequests(8);
+        for (BookingRequestDTO request : requests) {
+            bookings.makeBooking(alice, request);
+        }
+        List<FlightBookingDTO> before = bookings.getUserBookings(alice);
+        assertEquals(requests.size(), before.size());
+
+        // archive the flights which departed before the middle booking's flight
+        ZonedDateTime cutOff = before.get(before.size() / 2).getFlight().getDepartureTime();
+        long flights = count("select count(f) from Flight f");
+        long departed = count("select count(f) from Flight f where f.departureTime < ?1", cutOff);
+        long departedBookings = before.stream()
+                .filter(booking -> booking.getFlight().getDepartureTime().isBefore(cutOff))
+                .count();
+        assertTrue(departedBookings > 0 && departedBookings < before.size());
+
+        assertEquals(departed, FlightArchiver.instance().archive(cutOff));
+        assertEquals(flights - departed, count("select count(f) from Flight f"));
+        assertEquals(departed, count("select count(f) from ArchivedFlight f"));
+        assertEquals(0, count("select count(f) from Flight f where f.departureTime < ?1", cutOff));
+        assertEquals(before.size() - departedBookings, count("select count(b) from FlightBooking b"));
+        assertEquals(departedBookings, count("select count(b) from ArchivedBooking b"));
+        assertEquals(departedBookings, count("select count(*) from ArchivedBooking b join b.seats s"));
+
+        List<FlightBookingDTO> after = bookings.getUserBookings(alice);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertSameBooking(before.get(i), after.get(i));
+            assertSameBooking(before.get(i), bookings.getSingleUserBooking(before.get(i).getId(), alice));
+        }
+
+        // there's nothing left to archive before the cut-off
+        assertEquals(0, FlightArchiver.instance().archive(cutOff));
+    }
+
+    /**
+     * Tests that flights are archived a chunk at a time until none are left, and that the flights left behind can still
+     * be booked.
+     */
+    @Test
+    public void testArchivesEveryChunk() {
+        long flights = count("select count(f) from Flight f");
+        ZonedDateTime lastDeparture = PM.inReadOnlyTransaction(em -> em.createQuery(
+                "select max(f.departureTime) from Flight f", ZonedDateTime.class).getSingleResult());
+
+        // more than one chunk's worth
+        assertTrue(flights > 50);
+        assertEquals(flights - count("select count(f) from Flight f where f.departureTime = ?1", lastDeparture),
+                FlightArchiver.instance().archive(lastDeparture));
+
+        List<BookingRequestDTO> requests = BenchmarkSupport.bookingRequests(1);
+        assertEquals(1, requests.size());
+        Flight flight = PM.inReadOnlyTransaction(em -> em.find(Flight.class, requests.get(0).getFlightId()));
+        assertEquals(lastDeparture.toInstant(), flight.getDepartureTime().toInstant());
+        assertEquals(201, new BookingsResource()
+                .makeBooking(new BenchmarkSupport.BenchmarkSecurityContext(1), requests.get(0)).getStatus());
+    }
+
+    private static void assertSameBooking(FlightBookingDTO expected, FlightBookingDTO actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getFlight(), actual.getFlight());
+        assertEquals(expected.getBookedSeats(), actual.getBookedSeats());
+        assertEquals(expected.getTotalCost(), actual.getTotalCost());
+    }
+
+    private static long count(String query, Object... parameters) {
+        EntityManager em = PM.createEntityManager();
+        try {
+            TypedQuery<Long> typedQuery = em.createQuery(query, Long.class);
+            for (int i = 0; i < parameters.length; i++) {
+                typedQuery.setParameter(i + 1, parameters[i]);
+            }
+            return typedQuery.getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+}
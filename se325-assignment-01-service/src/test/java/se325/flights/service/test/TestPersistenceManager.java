@@ -0,0 +1,202 @@
+package se325.flights.service.test;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.datagen.DataGenerator;
+import se325.flights.domain.AircraftType;
+import se325.flights.domain.SeatInventory;
+import se325.flights.domain.User;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.service.BookingsResource;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.ReferenceDataCache;
+import se325.flights.service.SeatInventoryReconciler;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link PersistenceManager}'s metrics, leak detection, seed data, warm start and
+ * read-only transactions.
+ */
+public class TestPersistenceManager {
+
+    private static PersistenceManager PM;
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    /**
+     * Tests that connection checkouts are counted and timed, and that the pool's usage is reported.
+     */
+    @Test
+    public void testConnectionPoolMetrics() {
+        long checkouts = PM.getConnectionCheckouts();
+
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            assertNotNull(em.find(User.class, 1L));
+            assertTrue(PM.getBusyConnections() >= 1);
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+
+        assertTrue(PM.getConnectionCheckouts() > checkouts);
+        assertTrue(PM.getMeanCheckoutMillis() >= 0);
+        assertTrue(PM.getMaxCheckoutMillis() >= PM.getMeanCheckoutMillis());
+        assertTrue(PM.getTotalConnections() >= 1);
+        assertEquals(0, PM.getThreadsAwaitingConnection());
+    }
+
+    /**
+     * Tests that closed EntityManagers are no longer counted as open, while one which is garbage collected without
+     * being closed is reported as leaked.
+     */
+    @Test
+    public void testEntityManagerLeakDetected() throws InterruptedException {
+        int open = PM.getOpenEntityManagers();
+        EntityManager em = PM.createEntityManager();
+        assertEquals(open + 1, PM.getOpenEntityManagers());
+        em.close();
+        assertEquals(open, PM.getOpenEntityManagers());
+
+        long leaked = PM.getLeakedEntityManagers();
+        leakEntityManager();
+        for (int i = 0; i < 50 && PM.getLeakedEntityManagers() == leaked; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(leaked + 1, PM.getLeakedEntityManagers());
+        assertEquals(open, PM.getOpenEntityManagers());
+    }
+
+    /**
+     * Tests that warming up loads the reference data into the second-level cache.
+     */
+    @Test
+    public void testWarmUpCachesReferenceData() {
+        long puts = ReferenceDataCache.instance().getPutCount();
+        PM.warmUp();
+        assertTrue(ReferenceDataCache.instance().getPutCount() > puts);
+        assertTrue(PM.getFactoriesCreated() >= 1);
+    }
+
+    /**
+     * Tests that every seed data table is loaded, and that every flight's seat counters are set from its aircraft.
+     */
+    @Test
+    public void testSeedDataLoaded() {
+        EntityManager em = PM.createEntityManager();
+        try {
+            assertEquals(2L, count(em, "select count(u) from User u"));
+            assertEquals(5L, count(em, "select count(a) from Airport a"));
+            assertEquals(2L, count(em, "select count(t) from AircraftType t"));
+            assertEquals(72L, count(em, "select count(f) from Flight f"));
+            assertEquals(183L, count(em, "select count(*) from Flight f join f.seatPricings p"));
+            // read the stored counters directly, as a flight stored without them would have them computed on load
+            for (Object[] row : em.createQuery("select f.aircraftType, f.seatInventory from Flight f", Object[].class)
+                    .getResultList()) {
+                assertEquals(new SeatInventory((AircraftType) row[0]), row[1]);
+            }
+        } finally {
+            em.close();
+        }
+        assertTrue(PM.getSeedMillis() >= 0);
+    }
+
+    /**
+     * Tests that a generated dataset, including bookings, can be loaded in place of the default seed data: the seat
+     * counters it gives agree with its bookings, and new bookings are given ids after the ones loaded.
+     */
+    @Test
+    public void testGeneratedDataLoaded() throws IOException {
+        Path directory = Paths.get("target", "datagen-test").toAbsolutePath();
+        Map<String, Long> rows = new DataGenerator(325, 60, 300, 20, 0.5, 30).generate(directory);
+        long bookingsLoaded = rows.get("bookings.csv");
+
+        System.setProperty("flights.seed.location", directory.toString());
+        try {
+            PM.reset();
+            EntityManager em = PM.createEntityManager();
+            try {
+                assertEquals((long) rows.get("airports.csv"), count(em, "select count(a) from Airport a"));
+                assertEquals((long) rows.get("flights.csv"), count(em, "select count(f) from Flight f"));
+                assertEquals(bookingsLoaded, count(em, "select count(b) from FlightBooking b"));
+                assertEquals((long) rows.get("booked-seats.csv"),
+                        count(em, "select count(*) from FlightBooking b join b.seats s"));
+            } finally {
+                em.close();
+            }
+            assertEquals(0, SeatInventoryReconciler.instance().reconcile());
+
+            // generated bookings are numbered from 1
+            BookingRequestDTO request = BenchmarkSupport.bookingRequests(1).get(0);
+            new BookingsResource().makeBooking(new BenchmarkSupport.BenchmarkSecurityContext(1), request);
+            em = PM.createEntityManager();
+            try {
+                assertEquals(bookingsLoaded + 1, count(em, "select count(b) from FlightBooking b"));
+                assertTrue(count(em, "select max(b.id) from FlightBooking b") > bookingsLoaded);
+            } finally {
+                em.close();
+            }
+        } finally {
+            System.clearProperty("flights.seed.location");
+            PM.reset();
+        }
+    }
+
+    /**
+     * Tests that entities loaded in a read-only transaction are read-only, and that changes made to them are never
+     * flushed to the database.
+     */
+    @Test
+    public void testReadOnlyTransactionDiscardsChanges() {
+        String username = PM.inReadOnlyTransaction(em -> {
+            User user = em.find(User.class, 1L);
+            Session session = em.unwrap(Session.class);
+            assertTrue(session.isReadOnly(user));
+            assertEquals(FlushMode.MANUAL, session.getHibernateFlushMode());
+            String original = user.getUsername();
+            user.setUsername("changed");
+            return original;
+        });
+
+        EntityManager em = PM.createEntityManager();
+        try {
+            assertEquals(username, em.find(User.class, 1L).getUsername());
+        } finally {
+            em.close();
+        }
+    }
+
+    private static long count(EntityManager em, String query) {
+        return em.createQuery(query, Long.class).getSingleResult();
+    }
+
+    private static void leakEntityManager() {
+        PM.createEntityManager();
+    }
+}
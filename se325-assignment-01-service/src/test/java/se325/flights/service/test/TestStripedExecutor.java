@@ -0,0 +1,98 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.service.StripedExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link StripedExecutor} used to process subscriptions.
+ */
+public class TestStripedExecutor {
+
+    /**
+     * Tests that tasks with the same key run one at a time, in the order they were submitted.
+     */
+    @Test
+    public void testTasksRunInOrderPerKey() {
+        StripedExecutor executor = new StripedExecutor("test", 4, 1000, 100, false);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 500; i++) {
+            int task = i;
+            executor.execute(42, 0, () -> order.add(task));
+        }
+
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(500, order.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, order.get(i));
+        }
+        assertEquals(500, executor.getCompletedTasks());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    /**
+     * Tests that, once a lane's queue is full, further tasks are rejected rather than run by the thread submitting them
+     * - so they can't overtake the tasks already queued for the same key - and that the lane runs its queued tasks in
+     * order once it's free.
+     */
+    @Test
+    public void testBackpressureWhenQueueFull() throws InterruptedException {
+        StripedExecutor executor = new StripedExecutor("test", 1, 2, 500, false);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        // Block the only lane, then fill its queue
+        executor.execute(1, 0, () -> {
+            blocked.countDown();
+            await(release);
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        executor.execute(1, 0, () -> order.add(1));
+        executor.execute(1, 0, () -> order.add(2));
+        assertEquals(2, executor.getQueueDepth());
+
+        // This one has nowhere to go, so is rejected without being run
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(1, 0, () -> order.add(3)));
+        assertEquals(1, executor.getRejectedTasks());
+        assertFalse(executor.isShutdown());
+        assertTrue(order.isEmpty());
+
+        // Once the lane is free, it can be submitted again, and runs after the others
+        release.countDown();
+        executor.execute(1, 0, () -> order.add(3));
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+        assertEquals(4, executor.getCompletedTasks());
+    }
+
+    /**
+     * Tests that shutting down runs delayed tasks straight away, and rejects any further tasks.
+     */
+    @Test
+    public void testShutdownDrainsDelayedTasks() {
+        StripedExecutor executor = new StripedExecutor("test", 2, 10, 100, false);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(7, TimeUnit.MINUTES.toMillis(10), ran::countDown);
+
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(0, ran.getCount());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(7, 0, () -> { }));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
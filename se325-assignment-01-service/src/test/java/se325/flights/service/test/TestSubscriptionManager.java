@@ -0,0 +1,251 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se325.flights.CabinClass;
+import se325.flights.domain.Airport;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.dto.BookingRequestDTO;
+import se325.flights.service.BookingsResource;
+import se325.flights.service.EventBus;
+import se325.flights.service.PersistenceManager;
+import se325.flights.service.StripedExecutorMXBean;
+import se325.flights.service.Subscriber;
+import se325.flights.service.Subscription;
+import se325.flights.service.SubscriptionManager;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import java.lang.management.ManagementFactory;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link SubscriptionManager}, which call it directly rather than through a running server. The
+ * surefire configuration in the pom keeps its limits small, so that they can be reached quickly.
+ */
+public class TestSubscriptionManager {
+
+    private static final long FLIGHT_ID = 13;
+    private static final long USER_ID = 1;
+
+    private static PersistenceManager PM;
+
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    @BeforeAll
+    public static void initPersistenceManager() {
+        PM = PersistenceManager.instance();
+    }
+
+    @BeforeEach
+    public void resetDatabase() {
+        PM.reset();
+    }
+
+    @AfterEach
+    public void cancelSubscriptions() {
+        for (Subscription subscription : subscriptions) {
+            try {
+                SubscriptionManager.instance().cancelSubscription(subscription.getId(), USER_ID);
+            } catch (NotFoundException e) {
+                // Already resolved
+            }
+        }
+    }
+
+    @AfterAll
+    public static void closePersistenceManager() {
+        PM.close();
+    }
+
+    /**
+     * Tests that, once the maximum number of subscriptions are waiting, any more are rejected with a 503 Service
+     * Unavailable response - and that there's room again as soon as one of them goes.
+     */
+    @Test
+    public void testRejectsSubscriptionsOverTheCap() {
+        SubscriptionManager manager = SubscriptionManager.instance();
+        while (manager.getActiveSubscriptions() < manager.getMaxSubscriptions()) {
+            subscribe();
+        }
+        long rejected = manager.getRejectedSubscriptions();
+
+        WebApplicationException e = assertThrows(WebApplicationException.class, this::subscribe);
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), e.getResponse().getStatus());
+        assertEquals(rejected + 1, manager.getRejectedSubscriptions());
+        assertEquals(manager.getMaxSubscriptions(), manager.getActiveSubscriptions());
+
+        manager.cancelSubscription(subscriptions.remove(0).getId(), USER_ID);
+        subscribe();
+        assertEquals(manager.getMaxSubscriptions(), manager.getActiveSubscriptions());
+    }
+
+    /**
+     * Tests that subscriptions whose clients have timed out or gone away stop counting against the cap once they've
+     * been detached for {@code flights.subscriptions.detachedSeconds}, even though their flight hasn't departed - and
+     * that they're still stored, so can be reattached.
+     */
+    @Test
+    public void testCapFreedOnceDetachedSubscriptionsAreDropped() throws Exception {
+        // Move the flight into the future, so the sweep doesn't drop its subscriptions for having departed
+        EntityManager em = PM.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createQuery("update Flight f set f.departureTime = ?1 where f.id = ?2")
+                    .setParameter(1, ZonedDateTime.now().plusDays(30))
+                    .setParameter(2, FLIGHT_ID)
+                    .executeUpdate();
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+
+        SubscriptionManager manager = SubscriptionManager.instance();
+        TestSubscriber subscriber = new TestSubscriber();
+        while (manager.getActiveSubscriptions() < manager.getMaxSubscriptions()) {
+            subscribe(subscriber);
+        }
+        long expired = manager.getExpiredSubscriptions();
+        long dropped = manager.getDroppedSubscriptions();
+
+        // Their client goes away - but until they've been detached for long enough, they still take up room
+        manager.detachSubscriptions(subscriber, subscriptions.stream().mapToLong(Subscription::getId).toArray());
+        manager.sweep();
+        assertThrows(WebApplicationException.class, this::subscribe);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(Long.getLong("flights.subscriptions.detachedSeconds")) + 100);
+        manager.sweep();
+        assertEquals(0, manager.getActiveSubscriptions());
+        assertEquals(dropped + subscriptions.size(), manager.getDroppedSubscriptions());
+        assertEquals(expired, manager.getExpiredSubscriptions());
+        int stored = PM.inReadOnlyTransaction(readOnly -> ((Number) readOnly.createNativeQuery(
+                "SELECT COUNT(*) FROM FLIGHT_SUBSCRIPTION WHERE RESOLVED_STATUS IS NULL").getSingleResult()).intValue());
+        assertEquals(subscriptions.size(), stored);
+
+        subscribe();
+        assertEquals(1, manager.getActiveSubscriptions());
+    }
+
+    /**
+     * Tests that storing and cancelling a subscription, which is done with plain SQL, leaves the reference data in the
+     * second-level cache alone.
+     */
+    @Test
+    public void testSubscriptionsDoNotEvictReferenceData() {
+        Cache cache = PM.getEntityManagerFactory().getCache();
+        PM.inReadOnlyTransaction(readOnly -> readOnly.find(Airport.class, 1L));
+        assertTrue(cache.contains(Airport.class, 1L));
+
+        Subscription subscription = subscribe();
+        SubscriptionManager.instance().cancelSubscription(subscription.getId(), USER_ID);
+        subscriptions.remove(subscription);
+
+        assertTrue(cache.contains(Airport.class, 1L));
+    }
+
+    /**
+     * Tests that a burst of cancellations on one flight, spread over several event batches, results in fewer
+     * evaluations of its subscriptions than there were cancellations - the later ones being folded into the evaluation
+     * which is already pending.
+     */
+    @Test
+    public void testBurstOfCancellationsIsCoalesced() throws Exception {
+        SubscriptionManager manager = SubscriptionManager.instance();
+        StripedExecutorMXBean executor = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("se325.flights:type=SubscriptionExecutor"), StripedExecutorMXBean.class);
+        subscribe();
+
+        BookingsResource bookings = new BookingsResource();
+        SecurityContext alice = new BenchmarkSupport.BenchmarkSecurityContext(USER_ID);
+        List<Long> bookingIds = new ArrayList<>();
+        for (String seat : new String[]{"1A", "1J", "1K", "2A", "2J", "2K", "3A", "3J", "3K", "4A"}) {
+            Response response = bookings.makeBooking(alice, new BookingRequestDTO(FLIGHT_ID, seat));
+            String location = response.getLocation().toString();
+            bookingIds.add(Long.parseLong(location.substring(location.lastIndexOf('/') + 1)));
+        }
+        awaitIdle(manager, executor);
+        long coalesced = manager.getCoalescedTriggers();
+        long evaluations = executor.getCompletedTasks();
+
+        // Pause half way, so that the cancellations aren't all delivered in a single batch
+        for (int i = 0; i < bookingIds.size(); i++) {
+            bookings.deleteBooking(bookingIds.get(i), alice);
+            if (i == bookingIds.size() / 2) {
+                Thread.sleep(50);
+            }
+        }
+        awaitIdle(manager, executor);
+
+        evaluations = executor.getCompletedTasks() - evaluations;
+        assertTrue(manager.getCoalescedTriggers() > coalesced);
+        assertTrue(evaluations >= 1 && evaluations < bookingIds.size(),
+                bookingIds.size() + " cancellations resulted in " + evaluations + " evaluations");
+    }
+
+    /**
+     * Waits until every published event has been dispatched, and every subscription evaluation has run.
+     */
+    private static void awaitIdle(SubscriptionManager manager, StripedExecutorMXBean executor)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int quietChecks = 0;
+        while (quietChecks < 3) {
+            assertTrue(System.nanoTime() < deadline, "Subscription processing didn't finish in time");
+            Thread.sleep(100);
+            boolean quiet = EventBus.instance().getQueueDepth() == 0 && manager.getPendingFlights() == 0
+                    && executor.getQueueDepth() == 0;
+            quietChecks = quiet ? quietChecks + 1 : 0;
+        }
+    }
+
+    /**
+     * Subscribes to more business class seats than flight IWO-222 (13) has, so the subscription is never satisfied.
+     */
+    private Subscription subscribe() {
+        return subscribe(new TestSubscriber());
+    }
+
+    private Subscription subscribe(Subscriber subscriber) {
+        AvailableSeatsSubscriptionDTO request = new AvailableSeatsSubscriptionDTO(FLIGHT_ID, CabinClass.Business, 1000);
+        request.setUserId(USER_ID);
+        Subscription subscription = SubscriptionManager.instance().addSubscription(request, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * A subscriber which never goes away, and ignores whatever it's told.
+     */
+    private static final class TestSubscriber implements Subscriber {
+        @Override
+        public boolean resume(Subscription subscription, Response response) {
+            return true;
+        }
+
+        @Override
+        public void cancel(Subscription subscription) {
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+    }
+}
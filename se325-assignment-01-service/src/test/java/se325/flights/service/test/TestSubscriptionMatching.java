@@ -0,0 +1,84 @@
+package se325.flights.service.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.CabinClass;
+import se325.flights.dto.AvailableSeatsSubscriptionDTO;
+import se325.flights.service.FlightSubscriptions;
+import se325.flights.service.Subscription;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the matching of subscriptions against a flight's seat availability. These don't require the database
+ * or a running server.
+ */
+public class TestSubscriptionMatching {
+
+    private static long nextId = 1;
+
+    /**
+     * Tests that exactly those subscriptions whose required number of seats are available are removed, in each cabin
+     * class (and for any cabin class), and that identical subscriptions are tracked separately.
+     */
+    @Test
+    public void testRemoveSatisfied() {
+        FlightSubscriptions subs = new FlightSubscriptions();
+        Subscription business2 = subscribe(subs, CabinClass.Business, 2);
+        Subscription business2Again = subscribe(subs, CabinClass.Business, 2);
+        Subscription business5 = subscribe(subs, CabinClass.Business, 5);
+        Subscription economy1 = subscribe(subs, CabinClass.Economy, 1);
+        Subscription any3 = subscribe(subs, null, 3);
+        Subscription any4 = subscribe(subs, null, 4);
+        assertEquals(6, subs.size());
+
+        Map<CabinClass, Integer> available = new EnumMap<>(CabinClass.class);
+        available.put(CabinClass.Business, 3);
+        List<Subscription> satisfied = subs.removeSatisfied(
+                cabinClass -> cabinClass == null ? 3 : available.getOrDefault(cabinClass, 0));
+
+        assertEquals(3, satisfied.size());
+        assertTrue(satisfied.contains(business2));
+        assertTrue(satisfied.contains(business2Again));
+        assertTrue(satisfied.contains(any3));
+
+        assertEquals(3, subs.size());
+        assertFalse(subs.remove(business2));
+        assertTrue(subs.remove(business5));
+        assertTrue(subs.remove(economy1));
+        assertTrue(subs.remove(any4));
+        assertTrue(subs.isEmpty());
+    }
+
+    /**
+     * Tests that a single flight with 100,000 waiting subscriptions, of every cabin class and size, is fully resolved in
+     * a single sweep when every request can be met. How long that takes is measured by
+     * {@link SubscriptionMatchingBenchmark}.
+     */
+    @Test
+    public void testRemoveSatisfiedAtScale() {
+        final int numSubs = 100_000;
+        FlightSubscriptions subs = new FlightSubscriptions();
+        Random random = new Random(0);
+        CabinClass[] classes = {CabinClass.Economy, CabinClass.Premium, CabinClass.Business, null};
+        for (int i = 0; i < numSubs; i++) {
+            subscribe(subs, classes[random.nextInt(classes.length)], 1 + random.nextInt(10));
+        }
+
+        List<Subscription> satisfied = subs.removeSatisfied(cabinClass -> 10);
+        assertEquals(numSubs, satisfied.size());
+        assertEquals(numSubs, new HashSet<>(satisfied).size());
+        assertTrue(subs.isEmpty());
+    }
+
+    private static Subscription subscribe(FlightSubscriptions subs, CabinClass cabinClass, int numSeats) {
+        Subscription subscription = new Subscription(nextId++, new AvailableSeatsSubscriptionDTO(13, cabinClass, numSeats), null);
+        subs.add(subscription);
+        return subscription;
+    }
+}
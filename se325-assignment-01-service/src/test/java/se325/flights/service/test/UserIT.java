@@ -3,6 +3,8 @@ package se325.flights.service.test;
 import org.junit.jupiter.api.Test;
 import se325.flights.dto.UserDTO;
 
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.NewCookie;
 import javax.ws.rs.core.Response;
@@ -68,6 +70,36 @@ public class UserIT extends BaseIntegrationTests {
         }
     }
 
+    /**
+     * Tests that logging out invalidates the auth token, so that it can't be used again even if the client kept hold of
+     * it. The old token should get a 401 Unauthorized response.
+     */
+    @Test
+    public void testLogout_TokenInvalidated() {
+        String token = logInForToken("Bob", "12345");
+        assertAuthenticated(token, Response.Status.OK);
+
+        try (Response response = clientRequest("/users/logout").cookie("authToken", token).get()) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+        }
+
+        assertAuthenticated(token, Response.Status.UNAUTHORIZED);
+    }
+
+    /**
+     * Tests that logging in again replaces the user's auth token, so that the old one gets a 401 Unauthorized response
+     * while the new one works.
+     */
+    @Test
+    public void testLogin_OldTokenInvalidated() {
+        String oldToken = logInForToken("Alice", "pa55word");
+        assertAuthenticated(oldToken, Response.Status.OK);
+
+        String newToken = logInForToken("Alice", "pa55word");
+        assertAuthenticated(oldToken, Response.Status.UNAUTHORIZED);
+        assertAuthenticated(newToken, Response.Status.OK);
+    }
+
     /**
      * Tests that we can create new Users in the system. Creating a new user should return a 201 Created response with
      * a valid Location header. Once created, we should be able to login as the new user.
@@ -100,4 +132,25 @@ public class UserIT extends BaseIntegrationTests {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Logs in as the given user, and returns the auth token given back.
+     */
+    private String logInForToken(String username, String password) {
+        try (Response response = clientRequest("/users/login").post(Entity.json(new UserDTO(username, password)))) {
+            assertEquals(Response.Status.NO_CONTENT.getStatusCode(), response.getStatus());
+            return response.getCookies().get("authToken").getValue();
+        }
+    }
+
+    /**
+     * Checks that fetching the user's bookings with the given auth token (and no other cookies) gives the given status.
+     */
+    private void assertAuthenticated(String token, Response.Status expected) {
+        Client tokenClient = ClientBuilder.newClient();
+        try (Response response = clientRequest(tokenClient, "/bookings").cookie("authToken", token).get()) {
+            assertEquals(expected.getStatusCode(), response.getStatus());
+        } finally {
+            tokenClient.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package se325.flights.util.test;
+
+import org.junit.jupiter.api.Test;
+import se325.flights.util.RevocationFilter;
+import se325.flights.util.SignedTokens;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link SignedTokens} and the {@link RevocationFilter} used to log them out.
+ */
+public class TestSignedTokens {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Tests that a token is verified as belonging to the user it was issued to, and that tokens are unique.
+     */
+    @Test
+    public void testIssueAndVerify() {
+        SignedTokens tokens = new SignedTokens(KEY, 60_000, 1024);
+        String token = tokens.issue(42);
+
+        assertTrue(SignedTokens.isSigned(token));
+        assertEquals(42L, tokens.verify(token));
+        assertNotEquals(token, tokens.issue(42));
+
+        // Another server with the same key accepts it, but one with a different key doesn't
+        assertEquals(42L, new SignedTokens(KEY, 60_000, 1024).verify(token));
+        byte[] otherKey = KEY.clone();
+        otherKey[0]++;
+        assertNull(new SignedTokens(otherKey, 60_000, 1024).verify(token));
+    }
+
+    /**
+     * Tests that tokens which have been tampered with, are malformed, or have expired are rejected.
+     */
+    @Test
+    public void testInvalidTokensRejected() {
+        SignedTokens tokens = new SignedTokens(KEY, 60_000, 1024);
+        String token = tokens.issue(42);
+
+        // Change the user id (the first character of the payload)
+        String tampered = (token.charAt(0) == 'A' ? 'B' : 'A') + token.substring(1);
+        assertNull(tokens.verify(tampered));
+        assertNull(tokens.verify(token.substring(0, token.indexOf('.') + 1) + "AAAA"));
+        assertNull(tokens.verify("not.base64!"));
+        assertNull(tokens.verify("4f1b2c3d-0000-0000-0000-000000000000"));
+
+        SignedTokens expiring = new SignedTokens(KEY, -1, 1024);
+        assertNull(expiring.verify(expiring.issue(42)));
+    }
+
+    /**
+     * Tests that a revoked token is rejected, while other tokens for the same user are still accepted.
+     */
+    @Test
+    public void testRevokedTokenRejected() {
+        SignedTokens tokens = new SignedTokens(KEY, 60_000, 1024);
+        String revoked = tokens.issue(42);
+        String other = tokens.issue(42);
+
+        tokens.revoke(revoked);
+        assertNull(tokens.verify(revoked));
+        assertEquals(42L, tokens.verify(other));
+        assertEquals(1, tokens.getRevokedTokens());
+    }
+
+    /**
+     * Tests that the revocation filter has no false negatives, and forgets tokens once they've expired.
+     */
+    @Test
+    public void testRevocationFilterPrunesExpired() {
+        RevocationFilter filter = new RevocationFilter(256);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            filter.revoke("short-" + i, now + 60_000);
+            filter.revoke("long-" + i, now + 120_000);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.isRevoked("short-" + i));
+            assertTrue(filter.isRevoked("long-" + i));
+            assertFalse(filter.isRevoked("never-" + i));
+        }
+
+        filter.prune(now + 90_000);
+        assertEquals(100, filter.size());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(filter.isRevoked("short-" + i));
+            assertTrue(filter.isRevoked("long-" + i));
+        }
+    }
+}